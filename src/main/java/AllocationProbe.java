@@ -0,0 +1,55 @@
+import java.lang.management.ManagementFactory;
+
+// Measures how many bytes a piece of code allocates, to check that hot UI paths stay allocation-free
+// Turned on with -Dtaskmanager.allocationProbe=true; when off, start() and stop() do nothing
+// Counts are per thread, so start() and stop() must be called on the same thread, and a probe
+// should only ever be used from one thread (the cell probe runs on the FX thread)
+public class AllocationProbe {
+    public static final boolean ENABLED = Boolean.getBoolean("taskmanager.allocationProbe");
+
+    private final String name;
+    private final int reportEvery;  // Prints the running figures after this many measurements
+    private final com.sun.management.ThreadMXBean threads;
+    private long bytes;
+    private long count;
+
+    // name says what's measured, e.g. "Cell rendering"
+    public AllocationProbe(String name, int reportEvery) {
+        this.name = name;
+        this.reportEvery = reportEvery;
+        this.threads = ENABLED ? allocationCounter() : null;
+    }
+
+    // Returns a mark to pass to stop()
+    public long start() {
+        return threads != null ? threads.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    // Adds what was allocated on this thread since the mark to the totals
+    public void stop(long mark) {
+        if (threads == null) {
+            return;
+        }
+        bytes += threads.getCurrentThreadAllocatedBytes() - mark;
+        count++;
+        if (count % reportEvery == 0) {
+            System.out.println(name + ": " + bytesPerMeasurement() + " bytes each over " + count);
+        }
+    }
+
+    // Average bytes allocated per measurement so far
+    public long bytesPerMeasurement() {
+        return count == 0 ? 0 : bytes / count;
+    }
+
+    // Only HotSpot-style JVMs can count allocations per thread; anywhere else the probe stays off
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean counter
+                && counter.isThreadAllocatedMemorySupported()) {
+            counter.setThreadAllocatedMemoryEnabled(true);
+            return counter;
+        }
+        System.err.println("Allocation counting isn't supported by this JVM");
+        return null;
+    }
+}
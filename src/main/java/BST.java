@@ -1,49 +1,455 @@
-public class BST {
-    private Node root;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
-    private static class Node {
+// Ordered index from task titles to the tasks that have them
+// A red-black tree, so it stays balanced (O(log n) height) however titles arrive,
+// including in sorted order; every operation is iterative, so no recursion depth to run out of
+// Several tasks can share a title; they are kept in the order they were added
+public class BST<V> implements Iterable<V> {
+    private Node<V> root;
+    private int size;  // Number of values, not titles
+
+    private static final class Node<V> {
         String title;
-        Node left, right;
+        V first;
+        List<V> more;  // Other values with the same title, only allocated when needed
+        Node<V> left;
+        Node<V> right;
+        Node<V> parent;
+        boolean red = true;
 
-        Node(String title) {
+        Node(String title, V value, Node<V> parent) {
             this.title = title;
+            this.first = value;
+            this.parent = parent;
+        }
+
+        // Adds a value unless this exact one is already here
+        boolean add(V value) {
+            if (first == value || (more != null && containsIdentity(more, value))) {
+                return false;
+            }
+            if (more == null) {
+                more = new ArrayList<>(2);
+            }
+            more.add(value);
+            return true;
+        }
+
+        // Removes this exact value; returns false if it isn't here
+        boolean remove(V value) {
+            if (first == value) {
+                first = more == null || more.isEmpty() ? null : more.remove(0);
+                return true;
+            }
+            if (more != null) {
+                for (int i = 0; i < more.size(); i++) {
+                    if (more.get(i) == value) {
+                        more.remove(i);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        boolean isEmpty() {
+            return first == null;
+        }
+
+        void addTo(List<? super V> result) {
+            result.add(first);
+            if (more != null) {
+                result.addAll(more);
+            }
+        }
+
+        private static boolean containsIdentity(List<?> list, Object value) {
+            for (Object item : list) {
+                if (item == value) {
+                    return true;
+                }
+            }
+            return false;
         }
     }
 
-    // Insert a task title into the BST
-    public void insert(String title) {
-        root = insertRec(root, title);
+    // Adds a value under a title; returns false if this exact value is already there
+    public boolean insert(String title, V value) {
+        Node<V> parent = null;
+        Node<V> current = root;
+        int cmp = 0;
+        while (current != null) {
+            parent = current;
+            cmp = title.compareTo(current.title);
+            if (cmp == 0) {
+                if (!current.add(value)) {
+                    return false;
+                }
+                size++;
+                return true;
+            }
+            current = cmp < 0 ? current.left : current.right;
+        }
+        Node<V> node = new Node<>(title, value, parent);
+        if (parent == null) {
+            root = node;
+        } else if (cmp < 0) {
+            parent.left = node;
+        } else {
+            parent.right = node;
+        }
+        fixAfterInsert(node);
+        size++;
+        return true;
     }
 
-    private Node insertRec(Node root, String title) {
-        if (root == null) {
-            root = new Node(title);
-            return root;
+    // Removes a value from under a title; returns false if it wasn't there
+    public boolean remove(String title, V value) {
+        Node<V> node = find(title);
+        if (node == null || !node.remove(value)) {
+            return false;
         }
-        if (title.compareTo(root.title) < 0) {
-            root.left = insertRec(root.left, title);
-        } else if (title.compareTo(root.title) > 0) {
-            root.right = insertRec(root.right, title);
+        if (node.isEmpty()) {
+            deleteNode(node);
         }
-        return root;
+        size--;
+        return true;
     }
 
-    // Check if a task title exists in the BST
+    // Checks if any value has this title
     public boolean contains(String title) {
-        return containsRec(root, title);
+        return find(title) != null;
     }
 
-    private boolean containsRec(Node root, String title) {
-        if (root == null) {
-            return false;
+    // Returns the values with exactly this title
+    public List<V> get(String title) {
+        List<V> result = new ArrayList<>();
+        Node<V> node = find(title);
+        if (node != null) {
+            node.addTo(result);
         }
-        if (root.title.equals(title)) {
-            return true;
+        return result;
+    }
+
+    // Returns the greatest title less than or equal to the given one, or null if there is none
+    public String floor(String title) {
+        Node<V> current = root;
+        Node<V> best = null;
+        while (current != null) {
+            int cmp = title.compareTo(current.title);
+            if (cmp == 0) {
+                return current.title;
+            }
+            if (cmp < 0) {
+                current = current.left;
+            } else {
+                best = current;
+                current = current.right;
+            }
+        }
+        return best == null ? null : best.title;
+    }
+
+    // Returns the least title greater than or equal to the given one, or null if there is none
+    public String ceiling(String title) {
+        Node<V> node = ceilingNode(title);
+        return node == null ? null : node.title;
+    }
+
+    // Returns the values whose title starts with the prefix, in title order
+    public List<V> withPrefix(String prefix) {
+        List<V> result = new ArrayList<>();
+        for (Node<V> node = ceilingNode(prefix); node != null && node.title.startsWith(prefix); node = successor(node)) {
+            node.addTo(result);
+        }
+        return result;
+    }
+
+    // Returns the values with a title from 'from' (included) up to 'to' (excluded), in title order
+    public List<V> range(String from, String to) {
+        List<V> result = new ArrayList<>();
+        for (Node<V> node = ceilingNode(from); node != null && node.title.compareTo(to) < 0; node = successor(node)) {
+            node.addTo(result);
         }
-        if (title.compareTo(root.title) < 0) {
-            return containsRec(root.left, title);
+        return result;
+    }
+
+    // Returns how many values are stored
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Removes everything
+    public void clear() {
+        root = null;
+        size = 0;
+    }
+
+    // Iterates over all values in title order
+    // The tree must not be changed while iterating
+    @Override
+    public Iterator<V> iterator() {
+        return new Iterator<>() {
+            private Node<V> node = root == null ? null : leftmost(root);
+            private int indexInNode;
+
+            @Override
+            public boolean hasNext() {
+                return node != null;
+            }
+
+            @Override
+            public V next() {
+                if (node == null) {
+                    throw new NoSuchElementException();
+                }
+                V value = indexInNode == 0 ? node.first : node.more.get(indexInNode - 1);
+                indexInNode++;
+                if (node.more == null || indexInNode > node.more.size()) {
+                    node = successor(node);
+                    indexInNode = 0;
+                }
+                return value;
+            }
+        };
+    }
+
+    private Node<V> find(String title) {
+        Node<V> current = root;
+        while (current != null) {
+            int cmp = title.compareTo(current.title);
+            if (cmp == 0) {
+                return current;
+            }
+            current = cmp < 0 ? current.left : current.right;
+        }
+        return null;
+    }
+
+    private Node<V> ceilingNode(String title) {
+        Node<V> current = root;
+        Node<V> best = null;
+        while (current != null) {
+            int cmp = title.compareTo(current.title);
+            if (cmp == 0) {
+                return current;
+            }
+            if (cmp < 0) {
+                best = current;
+                current = current.left;
+            } else {
+                current = current.right;
+            }
+        }
+        return best;
+    }
+
+    private static <V> Node<V> leftmost(Node<V> node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    // The next node in title order
+    private static <V> Node<V> successor(Node<V> node) {
+        if (node.right != null) {
+            return leftmost(node.right);
+        }
+        Node<V> parent = node.parent;
+        while (parent != null && node == parent.right) {
+            node = parent;
+            parent = parent.parent;
+        }
+        return parent;
+    }
+
+    // Unlinks a node, moving its in-order successor into its place if it has two children
+    private void deleteNode(Node<V> node) {
+        if (node.left != null && node.right != null) {
+            Node<V> next = successor(node);
+            node.title = next.title;
+            node.first = next.first;
+            node.more = next.more;
+            node = next;
+        }
+        Node<V> child = node.left != null ? node.left : node.right;
+        if (child != null) {
+            replace(node, child);
+            if (!node.red) {
+                fixAfterDelete(child);
+            }
+        } else if (node.parent == null) {
+            root = null;
         } else {
-            return containsRec(root.right, title);
+            // A leaf: fix the colors while it still marks the spot, then drop it
+            if (!node.red) {
+                fixAfterDelete(node);
+            }
+            replace(node, null);
         }
     }
+
+    // Puts replacement where node was in its parent
+    private void replace(Node<V> node, Node<V> replacement) {
+        Node<V> parent = node.parent;
+        if (replacement != null) {
+            replacement.parent = parent;
+        }
+        if (parent == null) {
+            root = replacement;
+        } else if (node == parent.left) {
+            parent.left = replacement;
+        } else {
+            parent.right = replacement;
+        }
+        node.parent = null;
+    }
+
+    private void fixAfterInsert(Node<V> node) {
+        while (node != root && isRed(node.parent)) {
+            Node<V> parent = node.parent;
+            Node<V> grandparent = parent.parent;
+            if (parent == grandparent.left) {
+                Node<V> uncle = grandparent.right;
+                if (isRed(uncle)) {
+                    parent.red = false;
+                    uncle.red = false;
+                    grandparent.red = true;
+                    node = grandparent;
+                } else {
+                    if (node == parent.right) {
+                        node = parent;
+                        rotateLeft(node);
+                        parent = node.parent;
+                    }
+                    parent.red = false;
+                    grandparent.red = true;
+                    rotateRight(grandparent);
+                }
+            } else {
+                Node<V> uncle = grandparent.left;
+                if (isRed(uncle)) {
+                    parent.red = false;
+                    uncle.red = false;
+                    grandparent.red = true;
+                    node = grandparent;
+                } else {
+                    if (node == parent.left) {
+                        node = parent;
+                        rotateRight(node);
+                        parent = node.parent;
+                    }
+                    parent.red = false;
+                    grandparent.red = true;
+                    rotateLeft(grandparent);
+                }
+            }
+        }
+        root.red = false;
+    }
+
+    // Restores the red-black rules after a black node was taken out above 'node'
+    private void fixAfterDelete(Node<V> node) {
+        while (node != root && !isRed(node)) {
+            Node<V> parent = node.parent;
+            if (node == parent.left) {
+                Node<V> sibling = parent.right;
+                if (isRed(sibling)) {
+                    sibling.red = false;
+                    parent.red = true;
+                    rotateLeft(parent);
+                    sibling = parent.right;
+                }
+                if (!isRed(sibling.left) && !isRed(sibling.right)) {
+                    sibling.red = true;
+                    node = parent;
+                } else {
+                    if (!isRed(sibling.right)) {
+                        sibling.left.red = false;
+                        sibling.red = true;
+                        rotateRight(sibling);
+                        sibling = parent.right;
+                    }
+                    sibling.red = parent.red;
+                    parent.red = false;
+                    sibling.right.red = false;
+                    rotateLeft(parent);
+                    node = root;
+                }
+            } else {
+                Node<V> sibling = parent.left;
+                if (isRed(sibling)) {
+                    sibling.red = false;
+                    parent.red = true;
+                    rotateRight(parent);
+                    sibling = parent.left;
+                }
+                if (!isRed(sibling.left) && !isRed(sibling.right)) {
+                    sibling.red = true;
+                    node = parent;
+                } else {
+                    if (!isRed(sibling.left)) {
+                        sibling.right.red = false;
+                        sibling.red = true;
+                        rotateLeft(sibling);
+                        sibling = parent.left;
+                    }
+                    sibling.red = parent.red;
+                    parent.red = false;
+                    sibling.left.red = false;
+                    rotateRight(parent);
+                    node = root;
+                }
+            }
+        }
+        node.red = false;
+    }
+
+    private void rotateLeft(Node<V> node) {
+        Node<V> pivot = node.right;
+        node.right = pivot.left;
+        if (pivot.left != null) {
+            pivot.left.parent = node;
+        }
+        pivot.parent = node.parent;
+        if (node.parent == null) {
+            root = pivot;
+        } else if (node == node.parent.left) {
+            node.parent.left = pivot;
+        } else {
+            node.parent.right = pivot;
+        }
+        pivot.left = node;
+        node.parent = pivot;
+    }
+
+    private void rotateRight(Node<V> node) {
+        Node<V> pivot = node.left;
+        node.left = pivot.right;
+        if (pivot.right != null) {
+            pivot.right.parent = node;
+        }
+        pivot.parent = node.parent;
+        if (node.parent == null) {
+            root = pivot;
+        } else if (node == node.parent.right) {
+            node.parent.right = pivot;
+        } else {
+            node.parent.left = pivot;
+        }
+        pivot.right = node;
+        node.parent = pivot;
+    }
+
+    private static boolean isRed(Node<?> node) {
+        return node != null && node.red;
+    }
 }
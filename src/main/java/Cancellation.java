@@ -0,0 +1,21 @@
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+// Lets long loops give up part way: the work is handed a BooleanSupplier that starts returning
+// true once nobody wants the result any more, and checks it every so many steps
+// Used by searching, loading, bulk removal and anything else that can be cancelled
+public final class Cancellation {
+    // How many steps go by between looks at whether the work was cancelled
+    public static final int CHECK_INTERVAL = 4096;
+
+    private Cancellation() {
+    }
+
+    // Throws a CancellationException if the work was cancelled, looking only every
+    // CHECK_INTERVAL steps since asking may not be free
+    public static void check(int step, BooleanSupplier cancelled) {
+        if (step % CHECK_INTERVAL == 0 && cancelled.getAsBoolean()) {
+            throw new CancellationException();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+// Decides which cache entry to throw out when the cache is full
+// Implementations are not thread-safe; TaskCache only calls them while holding its lock
+interface EvictionPolicy<K> {
+    // A key already in the cache was read or overwritten
+    void recordAccess(K key);
+
+    // A new key was added to the cache
+    // Returns the key that should be evicted to make room (which may be the new key itself),
+    // or null if nothing needs to go
+    K recordInsert(K key);
+
+    // A key was removed from the cache
+    void recordRemoval(K key);
+
+    // Forgets every key
+    void clear();
+}
@@ -0,0 +1,40 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+// Shows a value that background threads keep changing, such as thread pool stats, without
+// flooding the FX thread with updates
+// Background threads just call changed(); the value is then read and shown on the FX thread at
+// the next frame, so however often it changes it's shown at most once per frame, and nothing
+// runs at all while it doesn't change
+public class FrameSampler<S> {
+    private final Supplier<? extends S> sample;
+    private final Consumer<? super S> show;
+    // Set from a change until the frame that shows it
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            // Started again by the next change
+            stop();
+            // Cleared before reading, so a change made while reading is shown next frame
+            dirty.set(false);
+            show.accept(sample.get());
+        }
+    };
+
+    // sample reads the value on the FX thread and show puts it on screen
+    public FrameSampler(Supplier<? extends S> sample, Consumer<? super S> show) {
+        this.sample = sample;
+        this.show = show;
+    }
+
+    // Says the value has changed; can be called from any thread
+    public void changed() {
+        if (dirty.compareAndSet(false, true)) {
+            Platform.runLater(timer::start);
+        }
+    }
+}
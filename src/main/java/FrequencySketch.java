@@ -0,0 +1,79 @@
+import java.util.Arrays;
+
+// Estimates how often each key has been seen, using a fixed amount of memory
+// A count-min sketch of 4-bit counters (16 per long, 4 hashes per key)
+// All counters are halved every so often so old popularity fades out
+class FrequencySketch<K> {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int expectedSize) {
+        int length = Integer.highestOneBit(Math.max(expectedSize, 16) - 1) << 1;
+        table = new long[length];
+        tableMask = length - 1;
+        sampleSize = 10 * Math.max(expectedSize, 1);
+    }
+
+    // Returns the estimated number of times the key was seen (0 to 15)
+    int frequency(K key) {
+        int hash = key.hashCode();
+        int frequency = MAX_COUNT;
+        for (int depth = 0; depth < SEEDS.length; depth++) {
+            long h = hashAt(hash, depth);
+            int shift = counterShift(h);
+            int count = (int) ((table[(int) h & tableMask] >>> shift) & 0xF);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    // Records one more sighting of the key
+    void increment(K key) {
+        int hash = key.hashCode();
+        boolean added = false;
+        for (int depth = 0; depth < SEEDS.length; depth++) {
+            long h = hashAt(hash, depth);
+            int index = (int) h & tableMask;
+            int shift = counterShift(h);
+            if (((table[index] >>> shift) & 0xF) < MAX_COUNT) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    // Forgets everything that was counted
+    void clear() {
+        Arrays.fill(table, 0L);
+        additions = 0;
+    }
+
+    // Halves every counter
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions >>>= 1;
+    }
+
+    private static long hashAt(int hash, int depth) {
+        long h = (hash + SEEDS[depth]) * SEEDS[depth];
+        return h ^ (h >>> 32);
+    }
+
+    // Which of the 16 counters in a long this hash uses
+    private static int counterShift(long h) {
+        return ((int) (h >>> 40) & 0xF) << 2;
+    }
+}
@@ -1,68 +1,374 @@
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 // A custom hash table that stores key-value pairs
-// Uses chaining (linked lists) to handle collisions
-public class HashTable<K, V> {
-    // Number of buckets in the hash table
-    private static final int SIZE = 100;
-    private LinkedList<Entry<K, V>>[] table;
+// Uses open addressing (linear probing) over parallel key/value arrays
+// Deleted entries are shifted back instead of leaving tombstones, and the table
+// grows a few slots at a time so no single put has to rehash everything
+public class HashTable<K, V> implements Iterable<K> {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+    // How many old slots get moved into the new table on each operation while growing
+    private static final int MIGRATE_STEP = 8;
+    // Marks an old-table entry that was overwritten in the new table after the resize began
+    private static final Object MOVED = new Object();
+
+    private final float loadFactor;
+    private Object[] keys;
+    private Object[] values;
+    private int[] hashes;  // Mixed hash of each key, so probes rarely have to call equals
+    private int mask;
+    private int threshold;
+    private int size;
+    private int modCount;
+
+    // The previous table while a resize is in progress (null otherwise)
+    // Slots below oldCursor have already been moved into the new table
+    private Object[] oldKeys;
+    private Object[] oldValues;
+    private int[] oldHashes;
+    private int oldMask;
+    private int oldCursor;
 
     // Creates a new empty hash table
-    @SuppressWarnings("unchecked")
     public HashTable() {
-        table = new LinkedList[SIZE];
-        for (int i = 0; i < SIZE; i++) {
-            table[i] = new LinkedList<>();
-        }
+        this(DEFAULT_CAPACITY, DEFAULT_LOAD_FACTOR);
     }
 
-    // Helper class to store key-value pairs
-    static class Entry<K, V> {
-        K key;
-        V value;
+    // Creates a hash table sized for the given number of entries
+    public HashTable(int expectedSize) {
+        this(expectedSize, DEFAULT_LOAD_FACTOR);
+    }
 
-        Entry(K key, V value) {
-            this.key = key;
-            this.value = value;
+    // Creates a hash table that grows once it is more than loadFactor full
+    public HashTable(int expectedSize, float loadFactor) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Expected size must not be negative: " + expectedSize);
+        }
+        if (!(loadFactor > 0f && loadFactor < 1f)) {
+            throw new IllegalArgumentException("Load factor must be between 0 and 1: " + loadFactor);
         }
+        this.loadFactor = loadFactor;
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity * loadFactor < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
     }
 
-    // Calculates which bucket to use for a given key
-    private int hash(K key) {
-        return Math.abs(key.hashCode()) % SIZE;
+    // Spreads the bits of the key's hash code so similar keys land far apart
+    // Works for any hash code, including Integer.MIN_VALUE
+    private static int mix(Object key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
     }
 
     // Adds or updates a key-value pair in the table
-    public void put(K key, V value) {
-        int index = hash(key);
-        for (Entry<K, V> entry : table[index]) {
-            if (entry.key.equals(key)) {
-                entry.value = value;  // Update value if key exists
-                return;
-            }
+    // Returns the previous value, or null if the key was new
+    public V put(K key, V value) {
+        Objects.requireNonNull(key, "key");
+        migrateStep();
+        int hash = mix(key);
+        int index = find(keys, hashes, mask, key, hash);
+        if (index >= 0) {
+            V previous = valueAt(values, index);
+            values[index] = value;
+            return previous;
+        }
+
+        V previous = null;
+        boolean existed = false;
+        int oldIndex = findOld(key, hash);
+        if (oldIndex >= 0) {
+            // The key still lives in the old table; move it over now so migration can skip it
+            previous = valueAt(oldValues, oldIndex);
+            existed = true;
+            oldKeys[oldIndex] = MOVED;
+            oldValues[oldIndex] = null;
+        }
+        insert(keys, values, hashes, mask, key, value, hash);
+        modCount++;
+        if (!existed && ++size > threshold) {
+            finishResize();
+            startResize();
         }
-        table[index].add(new Entry<>(key, value));
+        return previous;
     }
 
     // Gets a value using its key
     public V get(K key) {
-        int index = hash(key);
-        for (Entry<K, V> entry : table[index]) {
-            if (entry.key.equals(key)) {
-                return entry.value;
-            }
+        if (key == null) {
+            return null;
+        }
+        migrateStep();
+        int hash = mix(key);
+        int index = find(keys, hashes, mask, key, hash);
+        if (index >= 0) {
+            return valueAt(values, index);
         }
-        return null; // Return null if key not found
+        int oldIndex = findOld(key, hash);
+        return oldIndex >= 0 ? valueAt(oldValues, oldIndex) : null; // Return null if key not found
     }
 
     // Removes a key-value pair from the table
-    public void remove(K key) {
-        int index = hash(key);
-        table[index].removeIf(entry -> entry.key.equals(key));
+    // Returns the removed value, or null if the key wasn't there
+    public V remove(K key) {
+        if (key == null) {
+            return null;
+        }
+        // Finishing the resize first means deletes only ever touch one table
+        finishResize();
+        int index = find(keys, hashes, mask, key, mix(key));
+        if (index < 0) {
+            return null;
+        }
+        V previous = valueAt(values, index);
+        deleteAt(index);
+        size--;
+        modCount++;
+        return previous;
     }
 
     // Checks if a key exists in the table
     public boolean containsKey(K key) {
-        return get(key) != null;
+        if (key == null) {
+            return false;
+        }
+        migrateStep();
+        int hash = mix(key);
+        return find(keys, hashes, mask, key, hash) >= 0 || findOld(key, hash) >= 0;
+    }
+
+    // Gets the value for a key, creating and storing it first if it's missing
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        V value = get(key);
+        if (value == null) {
+            value = mappingFunction.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    // Makes room for at least this many entries without growing again
+    // Meant for before a big batch of puts; any resize in progress is finished first
+    public void ensureCapacity(int expectedSize) {
+        finishResize();
+        int capacity = keys.length;
+        while (capacity * loadFactor < expectedSize) {
+            capacity <<= 1;
+        }
+        if (capacity == keys.length) {
+            return;
+        }
+        Object[] previousKeys = keys;
+        Object[] previousValues = values;
+        int[] previousHashes = hashes;
+        allocate(capacity);
+        for (int i = 0; i < previousKeys.length; i++) {
+            if (previousKeys[i] != null) {
+                insert(keys, values, hashes, mask, previousKeys[i], previousValues[i], previousHashes[i]);
+            }
+        }
+        modCount++;
+    }
+
+    // Returns how many entries are stored
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Removes everything from the table, keeping its current capacity
+    public void clear() {
+        oldKeys = null;
+        oldValues = null;
+        oldHashes = null;
+        Arrays.fill(keys, null);
+        Arrays.fill(values, null);
+        size = 0;
+        modCount++;
+    }
+
+    // Runs the action for every key-value pair
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        finishResize();
+        int expectedModCount = modCount;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                action.accept(keyAt(keys, i), valueAt(values, i));
+            }
+        }
+        if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    // Iterates over all keys (in no particular order)
+    @Override
+    public Iterator<K> iterator() {
+        finishResize();
+        return new Iterator<>() {
+            private final int expectedModCount = modCount;
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < keys.length && keys[from] == null) {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < keys.length;
+            }
+
+            @Override
+            public K next() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (next >= keys.length) {
+                    throw new NoSuchElementException();
+                }
+                K key = keyAt(keys, next);
+                next = advance(next + 1);
+                return key;
+            }
+        };
+    }
+
+    // Finds the slot holding a key, or -1 if it isn't in that table
+    // Stored hashes are compared first, so equals only runs on a likely match
+    private static int find(Object[] table, int[] tableHashes, int tableMask, Object key, int hash) {
+        int index = hash & tableMask;
+        Object current;
+        while ((current = table[index]) != null) {
+            if (current == key || (tableHashes[index] == hash && current.equals(key))) {
+                return index;
+            }
+            index = (index + 1) & tableMask;
+        }
+        return -1;
+    }
+
+    // Finds a key in the part of the old table that hasn't been moved yet
+    private int findOld(Object key, int hash) {
+        if (oldKeys == null) {
+            return -1;
+        }
+        int index = find(oldKeys, oldHashes, oldMask, key, hash);
+        return index >= oldCursor ? index : -1;
+    }
+
+    // Puts a key that isn't in the table yet into its first free slot
+    private static void insert(Object[] tableKeys, Object[] tableValues, int[] tableHashes, int tableMask,
+                               Object key, Object value, int hash) {
+        int index = hash & tableMask;
+        while (tableKeys[index] != null) {
+            index = (index + 1) & tableMask;
+        }
+        tableKeys[index] = key;
+        tableValues[index] = value;
+        tableHashes[index] = hash;
+    }
+
+    // Empties a slot and shifts later entries of the same probe run back into it
+    // so lookups never need tombstones to keep going
+    private void deleteAt(int hole) {
+        int index = hole;
+        while (true) {
+            index = (index + 1) & mask;
+            Object key = keys[index];
+            if (key == null) {
+                break;
+            }
+            int home = hashes[index] & mask;
+            // The entry can move back if its home slot isn't between the hole and itself
+            boolean canMove = hole <= index
+                    ? home <= hole || home > index
+                    : home <= hole && home > index;
+            if (canMove) {
+                keys[hole] = key;
+                values[hole] = values[index];
+                hashes[hole] = hashes[index];
+                hole = index;
+            }
+        }
+        keys[hole] = null;
+        values[hole] = null;
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        hashes = new int[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * loadFactor);
+    }
+
+    // Switches to a table twice as big; old entries move over gradually
+    private void startResize() {
+        oldKeys = keys;
+        oldValues = values;
+        oldHashes = hashes;
+        oldMask = mask;
+        oldCursor = 0;
+        allocate(keys.length << 1);
+    }
+
+    // Moves a few entries from the old table into the new one
+    private void migrateStep() {
+        if (oldKeys != null) {
+            migrate(MIGRATE_STEP);
+        }
+    }
+
+    // Moves every remaining entry from the old table into the new one
+    private void finishResize() {
+        if (oldKeys != null) {
+            migrate(oldKeys.length);
+        }
+    }
+
+    private void migrate(int slots) {
+        int stop = Math.min(oldCursor + slots, oldKeys.length);
+        for (int i = oldCursor; i < stop; i++) {
+            Object key = oldKeys[i];
+            // Keys that were overwritten after the resize began are already in the new table
+            if (key != null && key != MOVED) {
+                insert(keys, values, hashes, mask, key, oldValues[i], oldHashes[i]);
+            }
+        }
+        oldCursor = stop;
+        if (oldCursor == oldKeys.length) {
+            oldKeys = null;
+            oldValues = null;
+            oldHashes = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> K keyAt(Object[] table, int index) {
+        return (K) table[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V valueAt(Object[] table, int index) {
+        return (V) table[index];
     }
 }
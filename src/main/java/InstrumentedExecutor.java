@@ -0,0 +1,322 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+// A thread pool that counts what it does as it happens: tasks waiting and running,
+// how long they waited and ran, and how many failed or were turned away
+// Nothing polls the pool; the counters are updated as tasks are queued, start and finish, and
+// a change listener is told each time so a UI can refresh (see FrameSampler)
+// The counters can be read with stats() and are also published over JMX once export() is called
+public class InstrumentedExecutor extends ThreadPoolExecutor {
+    private static final System.Logger LOG = System.getLogger(InstrumentedExecutor.class.getName());
+
+    // Counters describing what the pool has done so far
+    public record Stats(int poolSize, int active, int queued, long started, long completed, long failed,
+                        long rejected, long totalWaitNanos, long maxWaitNanos, long totalRunNanos,
+                        long maxRunNanos) {
+        // Tasks that ran to the end, whether they failed or not
+        public long finished() {
+            return completed + failed;
+        }
+
+        public double averageWaitNanos() {
+            return started == 0 ? 0.0 : (double) totalWaitNanos / started;
+        }
+
+        public double averageRunNanos() {
+            long finished = finished();
+            return finished == 0 ? 0.0 : (double) totalRunNanos / finished;
+        }
+    }
+
+    // The same counters for JMX tools such as JConsole, times in milliseconds
+    public interface PoolMXBean {
+        int getPoolSize();
+
+        int getActiveCount();
+
+        int getQueuedCount();
+
+        long getCompletedCount();
+
+        long getFailedCount();
+
+        long getRejectedCount();
+
+        double getAverageWaitMillis();
+
+        double getMaxWaitMillis();
+
+        double getAverageRunMillis();
+
+        double getMaxRunMillis();
+    }
+
+    // A task with the time it was queued and the time it started
+    private static final class Timed implements Runnable {
+        final Runnable command;
+        final long queuedAt;
+        long startedAt;  // Only used by the worker running it
+
+        Timed(Runnable command, long queuedAt) {
+            this.command = command;
+            this.queuedAt = queuedAt;
+        }
+
+        @Override
+        public void run() {
+            command.run();
+        }
+    }
+
+    // A task from supply(), which notes whether the supplier threw before the future hides it
+    private static final class Supplying<V> implements Runnable {
+        final Supplier<V> supplier;
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        boolean failed;  // Only used by the worker running it
+
+        Supplying(Supplier<V> supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public void run() {
+            if (result.isDone()) {
+                return;  // Cancelled while it waited
+            }
+            try {
+                result.complete(supplier.get());
+            } catch (Throwable e) {
+                failed = true;
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    // Counts a rejection, then lets the handler decide what happens to the task
+    // Finds the counters through the pool it's handed, so it can be made before the pool is
+    private record Counting(RejectedExecutionHandler handler) implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor pool) {
+            InstrumentedExecutor counted = (InstrumentedExecutor) pool;
+            counted.queued.decrementAndGet();
+            counted.rejected.increment();
+            counted.changed();
+            handler.rejectedExecution(task instanceof Timed timed ? timed.command : task, pool);
+        }
+    }
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final LongAdder totalRunNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxRunNanos = new LongAccumulator(Math::max, 0);
+    private volatile Runnable changeListener = () -> { };
+    private ObjectName exportedAs;
+
+    // Creates a pool of the given number of threads with an unbounded queue, like
+    // Executors.newFixedThreadPool
+    public InstrumentedExecutor(int threads) {
+        this(threads, Thread.ofPlatform().daemon(false).factory());
+    }
+
+    // Same, with threads made by the factory (e.g. to name them after the pool)
+    public InstrumentedExecutor(int threads, ThreadFactory threadFactory) {
+        this(threads, threads, new LinkedBlockingQueue<>(), threadFactory);
+    }
+
+    private InstrumentedExecutor(int coreThreads, int maxThreads, BlockingQueue<Runnable> queue,
+                                 ThreadFactory threadFactory) {
+        super(coreThreads, maxThreads, 0L, TimeUnit.MILLISECONDS, queue, threadFactory,
+                new Counting(new AbortPolicy()));
+    }
+
+    // Runs every task straight away on a virtual thread of its own, named name-0, name-1, ...
+    // Meant for work that mostly waits, such as file I/O: a blocked virtual thread doesn't hold
+    // on to a platform thread, so any number can wait at once
+    public static InstrumentedExecutor virtualThreads(String name) {
+        return new InstrumentedExecutor(0, Integer.MAX_VALUE, new SynchronousQueue<>(),
+                Thread.ofVirtual().name(name + "-", 0).factory());
+    }
+
+    // Called on whichever thread changed a counter, so it should be quick
+    public void setChangeListener(Runnable listener) {
+        changeListener = listener;
+    }
+
+    // Reads all the counters; each is up to date, but they aren't read at exactly the same instant
+    public Stats stats() {
+        return new Stats(getPoolSize(), active.get(), queued.get(), started.sum(), completed.sum(), failed.sum(),
+                rejected.sum(), totalWaitNanos.sum(), maxWaitNanos.get(), totalRunNanos.sum(), maxRunNanos.get());
+    }
+
+    // Publishes the counters over JMX as TaskManagementApp:type=ThreadPool,name=<name>
+    // Fails if the name is taken, e.g. by another pool exported under it
+    public synchronized void export(String name) throws JMException {
+        ObjectName objectName = new ObjectName("TaskManagementApp:type=ThreadPool,name=" + name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new StandardMBean(new Bean(), PoolMXBean.class, true), objectName);
+        exportedAs = objectName;
+    }
+
+    // Runs the supplier on the pool, like CompletableFuture.supplyAsync(supplier, pool)
+    // supplyAsync catches what the supplier throws before the pool sees it, so its failures would
+    // be counted as completed; these are counted as failed
+    public <V> CompletableFuture<V> supply(Supplier<V> supplier) {
+        Supplying<V> task = new Supplying<>(supplier);
+        execute(task);
+        return task.result;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        queued.incrementAndGet();
+        super.execute(new Timed(command, System.nanoTime()));
+        changed();
+    }
+
+    // Rejections are counted before the handler decides what happens to the task
+    @Override
+    public void setRejectedExecutionHandler(RejectedExecutionHandler handler) {
+        super.setRejectedExecutionHandler(new Counting(handler));
+    }
+
+    @Override
+    public RejectedExecutionHandler getRejectedExecutionHandler() {
+        return ((Counting) super.getRejectedExecutionHandler()).handler();
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable task) {
+        Timed timed = (Timed) task;
+        timed.startedAt = System.nanoTime();
+        long wait = timed.startedAt - timed.queuedAt;
+        queued.decrementAndGet();
+        active.incrementAndGet();
+        started.increment();
+        totalWaitNanos.add(wait);
+        maxWaitNanos.accumulate(wait);
+        changed();
+    }
+
+    @Override
+    protected void afterExecute(Runnable task, Throwable error) {
+        Timed timed = (Timed) task;
+        long run = System.nanoTime() - timed.startedAt;
+        active.decrementAndGet();
+        totalRunNanos.add(run);
+        maxRunNanos.accumulate(run);
+        if (error != null || failedFuture(timed.command)
+                || timed.command instanceof Supplying<?> supplying && supplying.failed) {
+            failed.increment();
+        } else {
+            completed.increment();
+        }
+        changed();
+    }
+
+    @Override
+    protected synchronized void terminated() {
+        if (exportedAs != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(exportedAs);
+            } catch (JMException e) {
+                // The pool is already gone and nobody is waiting on it, so this can only be logged
+                LOG.log(System.Logger.Level.WARNING, "Could not withdraw thread pool stats", e);
+            }
+            exportedAs = null;
+        }
+    }
+
+    // Tasks from submit() catch their own exceptions, so a failure only shows in the future
+    private static boolean failedFuture(Runnable command) {
+        if (!(command instanceof Future<?> future) || !future.isDone() || future.isCancelled()) {
+            return false;
+        }
+        try {
+            future.get();
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void changed() {
+        changeListener.run();
+    }
+
+    private final class Bean implements PoolMXBean {
+        @Override
+        public int getPoolSize() {
+            return InstrumentedExecutor.this.getPoolSize();
+        }
+
+        @Override
+        public int getActiveCount() {
+            return active.get();
+        }
+
+        @Override
+        public int getQueuedCount() {
+            return queued.get();
+        }
+
+        @Override
+        public long getCompletedCount() {
+            return completed.sum();
+        }
+
+        @Override
+        public long getFailedCount() {
+            return failed.sum();
+        }
+
+        @Override
+        public long getRejectedCount() {
+            return rejected.sum();
+        }
+
+        @Override
+        public double getAverageWaitMillis() {
+            return stats().averageWaitNanos() / 1e6;
+        }
+
+        @Override
+        public double getMaxWaitMillis() {
+            return maxWaitNanos.get() / 1e6;
+        }
+
+        @Override
+        public double getAverageRunMillis() {
+            return stats().averageRunNanos() / 1e6;
+        }
+
+        @Override
+        public double getMaxRunMillis() {
+            return maxRunNanos.get() / 1e6;
+        }
+    }
+}
@@ -0,0 +1,374 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+// Decides when background jobs start: at most so many run at once, the rest wait in a bounded
+// queue and start in priority order (oldest first within a priority)
+// Lower priorities always leave a slot free for each priority above them, so a pile of saves
+// can't hold up a sort the user is waiting for
+// Each job is cancelled by cancelling the future submit() returns: a waiting job is dropped, and
+// a running one is handed a token (the future's isCancelled) to check as it goes
+// Jobs can have a key, such as the file a save writes to; only one job per key runs at a time,
+// and a newer job replaces one with the same key that hasn't started yet
+public class JobScheduler {
+    public enum Priority {
+        INTERACTIVE(false),    // Someone is waiting for it: loading, sorting, filtering
+        BACKGROUND_IO(false),  // Saving, importing, exporting; dropping a save would lose changes
+        MAINTENANCE(true);     // Anything that can wait, such as warming up indexes after a load
+
+        // Whether DROP_LOWER may drop a waiting job of this priority
+        private final boolean droppable;
+
+        Priority(boolean droppable) {
+            this.droppable = droppable;
+        }
+    }
+
+    // What submit does when the queue is full
+    public enum Overflow {
+        REJECT,     // Fails the new job with a RejectedExecutionException
+        BLOCK,      // Waits for room, so don't use it from the UI thread
+        DROP_LOWER; // Drops the newest waiting maintenance job of a lower priority; rejects if
+                    // there isn't one (saves and other file work are never dropped)
+
+        // Picked with -Dtaskmanager.jobOverflow=reject (the default), block or drop
+        static Overflow configured() {
+            String name = System.getProperty("taskmanager.jobOverflow", "reject");
+            return switch (name.toLowerCase()) {
+                case "block" -> BLOCK;
+                case "drop" -> DROP_LOWER;
+                default -> REJECT;
+            };
+        }
+    }
+
+    // Starts a job; cancelled says whether it has been cancelled since, and the returned
+    // future completes when the job is done
+    @FunctionalInterface
+    public interface Work<V> {
+        CompletableFuture<V> start(BooleanSupplier cancelled);
+    }
+
+    // How many jobs are running and waiting, and how many were turned away
+    public record Stats(int running, int waiting, long replaced, long rejected) {
+    }
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final class Job<V> {
+        final Priority priority;
+        final String key;
+        final Work<V> work;
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        boolean waiting;
+
+        Job(Priority priority, String key, Work<V> work) {
+            this.priority = priority;
+            this.key = key;
+            this.work = work;
+        }
+
+        void start() {
+            CompletableFuture<V> done;
+            try {
+                // Cancelled just as it was picked to start
+                done = result.isCancelled() ? CompletableFuture.failedFuture(new CancellationException())
+                        : work.start(result::isCancelled);
+            } catch (RuntimeException e) {
+                done = CompletableFuture.failedFuture(e);
+            }
+            // Completed before the slot is let go, so awaitIdle only returns once every future has
+            done.whenComplete((value, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+                finished(this);
+            });
+        }
+    }
+
+    private final int maxRunning;
+    private final int capacity;
+    private final Overflow overflow;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition roomOrIdle = lock.newCondition();
+    private final Map<Priority, ArrayDeque<Job<?>>> queues = new EnumMap<>(Priority.class);
+    private final Set<Job<?>> runningJobs = new HashSet<>();
+    private final Map<String, Job<?>> waitingByKey = new HashMap<>();
+    private final Set<String> runningKeys = new HashSet<>();
+    private final LongAdder replaced = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile Runnable changeListener = () -> { };
+    private int running;
+    private int waiting;
+    private boolean shutdown;
+
+    // maxRunning is how many jobs run at once, capacity how many more can wait
+    public JobScheduler(int maxRunning, int capacity, Overflow overflow) {
+        if (maxRunning < 1 || capacity < 0) {
+            throw new IllegalArgumentException("maxRunning must be at least 1 and capacity at least 0");
+        }
+        this.maxRunning = maxRunning;
+        this.capacity = capacity;
+        this.overflow = overflow;
+        for (Priority priority : PRIORITIES) {
+            queues.put(priority, new ArrayDeque<>());
+        }
+    }
+
+    // Called on whichever thread changed the counts, so it should be quick
+    public void setChangeListener(Runnable listener) {
+        changeListener = listener;
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(running, waiting, replaced.sum(), rejected.sum());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Queues a job, or starts it straight away if there's room
+    // key may be null; a job replaced by a newer one with the same key completes when that one does
+    // The future fails with a RejectedExecutionException if the job was turned away
+    public <V> CompletableFuture<V> submit(Priority priority, String key, Work<V> work) {
+        Job<V> job = new Job<>(priority, key, work);
+        Job<?> dropped = null;
+        String rejection = null;
+        lock.lock();
+        try {
+            Job<?> older = waitingWith(key);
+            if (older == null && waiting >= capacity && !canStart(job)) {
+                switch (overflow) {
+                    case REJECT -> rejection = "Too many jobs waiting";
+                    case DROP_LOWER -> {
+                        dropped = newestBelow(priority);
+                        if (dropped == null) {
+                            rejection = "Too many jobs waiting";
+                        } else {
+                            unqueue(dropped);
+                        }
+                    }
+                    case BLOCK -> {
+                        while (!shutdown && older == null && waiting >= capacity && !canStart(job)) {
+                            roomOrIdle.awaitUninterruptibly();
+                            older = waitingWith(key);
+                        }
+                    }
+                }
+            }
+            if (shutdown) {
+                rejection = "Job scheduler is shut down";
+            }
+            if (rejection == null) {
+                if (older != null) {
+                    unqueue(older);
+                    replaced.increment();
+                    chain(job.result, older.result);
+                }
+                queues.get(priority).addLast(job);
+                job.waiting = true;
+                waiting++;
+                if (key != null) {
+                    waitingByKey.put(key, job);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (rejection != null) {
+            rejected.increment();
+            job.result.completeExceptionally(new RejectedExecutionException(rejection));
+            changed();
+            return job.result;
+        }
+        if (dropped != null) {
+            rejected.increment();
+            dropped.result.completeExceptionally(
+                    new RejectedExecutionException("Dropped for a job of higher priority"));
+        }
+        // Cancelling a job that hasn't started takes it out of the queue straight away
+        job.result.whenComplete((_, _) -> {
+            if (job.result.isCancelled()) {
+                withdraw(job);
+            }
+        });
+        startWhatCan();
+        return job.result;
+    }
+
+    // Turns new jobs away from now on and cancels the waiting and running jobs the filter picks
+    // Jobs it doesn't pick still run; see awaitIdle
+    public void shutdown(Predicate<Priority> cancel) {
+        List<Job<?>> cancelling = new ArrayList<>();
+        lock.lock();
+        try {
+            shutdown = true;
+            for (ArrayDeque<Job<?>> queue : queues.values()) {
+                for (Job<?> job : queue) {
+                    if (cancel.test(job.priority)) {
+                        cancelling.add(job);
+                    }
+                }
+            }
+            for (Job<?> job : runningJobs) {
+                if (cancel.test(job.priority)) {
+                    cancelling.add(job);
+                }
+            }
+            roomOrIdle.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Job<?> job : cancelling) {
+            job.result.cancel(false);
+        }
+    }
+
+    // Waits until nothing is running or waiting
+    public void awaitIdle() throws InterruptedException {
+        lock.lock();
+        try {
+            while (running > 0 || waiting > 0) {
+                roomOrIdle.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Lower priorities leave one slot free for each priority above them
+    private boolean canStart(Job<?> job) {
+        return running < limit(job.priority) && (job.key == null || !runningKeys.contains(job.key));
+    }
+
+    private int limit(Priority priority) {
+        return Math.max(1, maxRunning - priority.ordinal());
+    }
+
+    // Starts waiting jobs while there's room, highest priority first
+    private void startWhatCan() {
+        List<Job<?>> starting = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Priority priority : PRIORITIES) {
+                Iterator<Job<?>> it = queues.get(priority).iterator();
+                while (running < limit(priority) && it.hasNext()) {
+                    Job<?> job = it.next();
+                    if (job.key != null && runningKeys.contains(job.key)) {
+                        continue;  // Waits for the job with the same key to finish
+                    }
+                    it.remove();
+                    job.waiting = false;
+                    waiting--;
+                    if (job.key != null) {
+                        waitingByKey.remove(job.key);
+                        runningKeys.add(job.key);
+                    }
+                    running++;
+                    runningJobs.add(job);
+                    starting.add(job);
+                }
+            }
+            if (!starting.isEmpty()) {
+                roomOrIdle.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        changed();
+        for (Job<?> job : starting) {
+            job.start();
+        }
+    }
+
+    private void finished(Job<?> job) {
+        lock.lock();
+        try {
+            running--;
+            runningJobs.remove(job);
+            if (job.key != null) {
+                runningKeys.remove(job.key);
+            }
+            roomOrIdle.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        startWhatCan();
+    }
+
+    private void withdraw(Job<?> job) {
+        lock.lock();
+        try {
+            if (!job.waiting) {
+                return;  // Already running, so it sees the cancellation through its token
+            }
+            unqueue(job);
+            roomOrIdle.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        changed();
+    }
+
+    // Called with the lock held
+    private void unqueue(Job<?> job) {
+        queues.get(job.priority).remove(job);
+        job.waiting = false;
+        waiting--;
+        if (job.key != null && waitingByKey.get(job.key) == job) {
+            waitingByKey.remove(job.key);
+        }
+    }
+
+    // Called with the lock held
+    private Job<?> newestBelow(Priority priority) {
+        for (int p = PRIORITIES.length - 1; p > priority.ordinal(); p--) {
+            Job<?> newest = PRIORITIES[p].droppable ? queues.get(PRIORITIES[p]).peekLast() : null;
+            if (newest != null) {
+                return newest;
+            }
+        }
+        return null;
+    }
+
+    // Called with the lock held
+    private Job<?> waitingWith(String key) {
+        return key == null ? null : waitingByKey.get(key);
+    }
+
+    // Jobs with the same key are the same kind of job, so they have the same kind of result
+    @SuppressWarnings("unchecked")
+    private static <V> void chain(CompletableFuture<V> from, CompletableFuture<?> to) {
+        CompletableFuture<V> replaced = (CompletableFuture<V>) to;
+        from.whenComplete((value, error) -> {
+            if (error != null) {
+                replaced.completeExceptionally(error);
+            } else {
+                replaced.complete(value);
+            }
+        });
+    }
+
+    private void changed() {
+        changeListener.run();
+    }
+}
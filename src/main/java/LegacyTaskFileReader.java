@@ -0,0 +1,42 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads task files written by the old ObjectOutputStream-based save
+// Only used once per file: TaskManager rewrites it in the binary format afterwards
+public final class LegacyTaskFileReader {
+    // Old files only ever contain a list of tasks, so refuse to build anything else
+    private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+            "java.util.ArrayList;java.util.List;java.time.*;java.lang.*;Task;Item;!*");
+
+    private LegacyTaskFileReader() {
+    }
+
+    // Reads the list of tasks from an old-format file
+    public static List<Task> readAll(Path path) throws IOException {
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(path));
+             ObjectInputStream in = new ObjectInputStream(file)) {
+            in.setObjectInputFilter(FILTER);
+            Object contents = in.readObject();
+            if (!(contents instanceof List<?> list)) {
+                throw new IOException("Old task file doesn't contain a task list: " + path);
+            }
+            List<Task> tasks = new ArrayList<>(list.size());
+            for (Object element : list) {
+                if (!(element instanceof Task task)) {
+                    throw new IOException("Old task file contains something that isn't a task: " + path);
+                }
+                tasks.add(task);
+            }
+            return tasks;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Old task file refers to an unknown class: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+// Searches tasks as the user types
+// Each edit waits a moment before searching (so a burst of keystrokes costs one search),
+// runs off the UI thread, and makes any older search still waiting or running give up
+// When the new text contains the last text searched, only the last result is narrowed down
+// instead of searching every task again
+public class LiveSearch<T extends Task> {
+    public static final long DEFAULT_DELAY_MILLIS = 150;
+    private static final System.Logger LOG = System.getLogger(LiveSearch.class.getName());
+
+    private final TaskManager<T> taskManager;
+    private final Executor searchExecutor;  // Runs searches after the delay
+    private final Executor publishExecutor;  // Where results are handed over, e.g. the UI thread
+    private final Consumer<List<T>> onResult;
+    private final Consumer<Throwable> onError;
+    // Numbers each edit; a search gives up as soon as a newer edit has arrived
+    private final AtomicLong latest = new AtomicLong();
+    private CompletableFuture<Void> running;
+    // The last exact search that finished, for narrowing down
+    private volatile Result<T> previous;
+
+    private record Result<T>(String text, List<T> tasks, long changeCount) {}
+
+    // searchExecutor should wait before running what it's given; see TaskExecutor.delayedExecutor
+    // A search that fails is only logged
+    public LiveSearch(TaskManager<T> taskManager, Executor searchExecutor, Executor publishExecutor,
+                      Consumer<List<T>> onResult) {
+        this(taskManager, searchExecutor, publishExecutor, onResult,
+                error -> LOG.log(System.Logger.Level.WARNING, "Search failed", error));
+    }
+
+    // onError gets what a search failed with, on publishExecutor like the results
+    public LiveSearch(TaskManager<T> taskManager, Executor searchExecutor, Executor publishExecutor,
+                      Consumer<List<T>> onResult, Consumer<Throwable> onError) {
+        this.taskManager = taskManager;
+        this.searchExecutor = searchExecutor;
+        this.publishExecutor = publishExecutor;
+        this.onResult = onResult;
+        this.onError = onError;
+    }
+
+    // Searches for the text, replacing any search that hasn't finished
+    // Results come in title order; if nothing contains the text, close matches are returned instead
+    public void update(String text) {
+        long id = cancel();
+        BooleanSupplier stale = () -> latest.get() != id;
+        running = CompletableFuture.runAsync(() -> {
+            List<T> result = search(text, stale);
+            publishExecutor.execute(() -> {
+                if (!stale.getAsBoolean()) {
+                    onResult.accept(result);
+                }
+            });
+        }, searchExecutor);
+        running.exceptionally(error -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (!(cause instanceof CancellationException)) {
+                publishExecutor.execute(() -> {
+                    if (!stale.getAsBoolean()) {
+                        onError.accept(cause);
+                    }
+                });
+            }
+            return null;
+        });
+    }
+
+    // Stops any search that hasn't finished; its result is never handed over
+    // Returns the number of the edit that replaced it
+    public long cancel() {
+        long id = latest.incrementAndGet();
+        if (running != null) {
+            running.cancel(false);  // Stops it if it's still waiting; a running one sees it's stale
+            running = null;
+        }
+        return id;
+    }
+
+    private List<T> search(String text, BooleanSupplier stale) {
+        long changes = taskManager.changeCount();
+        Result<T> last = previous;
+        List<T> exact;
+        if (last != null && last.changeCount() == changes && SearchIndex.containsIgnoreCase(text, last.text())) {
+            exact = SearchIndex.refine(last.tasks(), text, false, stale);
+        } else {
+            exact = taskManager.searchTasks(text, SearchIndex.Mode.SUBSTRING, false, stale);
+        }
+        previous = new Result<>(text, exact, changes);
+        if (exact.isEmpty()) {
+            // Nothing contains it exactly, so allow for a typo or two
+            return taskManager.searchTasks(text, SearchIndex.Mode.FUZZY, false, stale);
+        }
+        return exact;
+    }
+}
@@ -0,0 +1,41 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Evicts whichever key was used least recently
+class LruPolicy<K> implements EvictionPolicy<K> {
+    private final int capacity;
+    // Access-ordered, so the first key is always the least recently used one
+    private final LinkedHashMap<K, Boolean> order;
+
+    LruPolicy(int capacity) {
+        this.capacity = capacity;
+        this.order = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    @Override
+    public void recordAccess(K key) {
+        order.get(key);
+    }
+
+    @Override
+    public K recordInsert(K key) {
+        order.put(key, Boolean.TRUE);
+        if (order.size() <= capacity) {
+            return null;
+        }
+        Iterator<K> eldest = order.keySet().iterator();
+        K victim = eldest.next();
+        eldest.remove();
+        return victim;
+    }
+
+    @Override
+    public void recordRemoval(K key) {
+        order.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        order.clear();
+    }
+}
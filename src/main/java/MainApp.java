@@ -9,12 +9,18 @@ import javafx.stage.Stage;
 import javafx.util.StringConverter;
 import javafx.geometry.Pos;
 import javafx.scene.input.MouseButton;
+import javafx.stage.FileChooser;
 import javafx.stage.Modality;
 
+import java.io.File;
+import java.io.IOException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleConsumer;
 import javafx.application.Platform;
 
 public class MainApp extends Application {
@@ -23,6 +29,12 @@ public class MainApp extends Application {
     
     // Main list that shows all tasks
     private final ListView<Task> taskListView = new ListView<>();
+    // Every change the UI makes goes through here, loads and imports included, so they're applied
+    // one at a time and in order
+    private final TaskCommands<Task> commands = new TaskCommands<>(taskManager);
+    // All tasks as an ObservableList that follows every change without copying the list
+    private final ObservableTaskList<Task> allTasks =
+            new ObservableTaskList<>(taskManager, Platform::runLater, Platform::isFxApplicationThread);
     
     // Fields for adding new tasks
     private final TextField titleField = new TextField();
@@ -35,10 +47,17 @@ public class MainApp extends Application {
     private final ProgressIndicator progressIndicator = new ProgressIndicator();
     private final Label threadInfoLabel = new Label();
 
-    // Colors for different priority levels
-    private static final String HIGH_PRIORITY_STYLE = "-fx-background-color: #c8e6c9;"; // Light green
-    private static final String MEDIUM_PRIORITY_STYLE = "#fff9c4;"; // Light yellow
-    private static final String LOW_PRIORITY_STYLE = "#ffcdd2;"; // Light red
+    // Filters the list as the user types; results and errors arrive on the FX thread in one go
+    private final TextField searchField = new TextField();
+    private final LiveSearch<Task> liveSearch = new LiveSearch<>(taskManager,
+            taskExecutor.delayedExecutor(LiveSearch.DEFAULT_DELAY_MILLIS), Platform::runLater,
+            results -> taskListView.setItems(FXCollections.observableArrayList(results)),
+            error -> showAlert(Alert.AlertType.ERROR, "Search Error", "Error searching tasks: " + error.getMessage()));
+
+    // The background sort in progress, if any, cancelled when another one is chosen
+    private CompletableFuture<Void> runningSort;
+    // The load in progress, if any, cancelled when another one is asked for
+    private CompletableFuture<List<Task>> runningLoad;
 
     // Sets up the main window and all its parts
     @Override
@@ -57,6 +76,8 @@ public class MainApp extends Application {
         Button redoButton = new Button("Redo");
         Button saveButton = new Button("Save");
         Button loadButton = new Button("Load");
+        Button importButton = new Button("Import");
+        Button exportButton = new Button("Export");
 
         // Create ComboBox for bulk delete options
         ComboBox<String> bulkDeleteComboBox = new ComboBox<>();
@@ -77,9 +98,9 @@ public class MainApp extends Application {
         sortComboBox.setValue("Sort by Priority");
         sortComboBox.setOnAction(_ -> handleSort(sortComboBox.getValue()));
 
-        // Create search button with '?' symbol
-        Button searchButton = new Button("⌕");
-        searchButton.setTooltip(new Tooltip("Click to search tasks by name"));
+        // Search field that filters the list while typing
+        searchField.setPromptText("⌕ Search tasks");
+        searchField.setTooltip(new Tooltip("Type to search task names and descriptions"));
 
         // Create clear search button
         Button clearSearchButton = new Button("X");
@@ -91,12 +112,14 @@ public class MainApp extends Application {
         undoButton.setOnAction(_ -> undoLastTask());
         redoButton.setOnAction(_ -> redoLastTask());
         saveButton.setOnAction(_ -> saveTasksToFile());
-        loadButton.setOnAction(_ -> loadTasksFromFile());
-        searchButton.setOnAction(_ -> showSearchPrompt());
+        loadButton.setOnAction(_ -> loadTasksFromFile(true));
+        importButton.setOnAction(_ -> importTasks(primaryStage));
+        exportButton.setOnAction(_ -> exportTasks(primaryStage));
+        searchField.textProperty().addListener((_, _, text) -> filterTasksByName(text));
         clearSearchButton.setOnAction(_ -> clearSearch());
 
         // Set custom date format for the DatePicker
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+        DateTimeFormatter formatter = Task.DATE_FORMAT;
         dueDatePicker.setConverter(new StringConverter<>() {
             @Override
             public String toString(LocalDate date) {
@@ -123,9 +146,9 @@ public class MainApp extends Application {
                 dueDateLabel, dueDatePicker,
                 taskButtons,  // Updated task-related buttons (Add/Remove/Bulk Delete)
                 new HBox(10, undoButton, redoButton),
-                new HBox(10, saveButton, loadButton),
+                new HBox(10, saveButton, loadButton, importButton, exportButton),
                 sortComboBox,
-                createTaskSearchHBox(searchButton, clearSearchButton),
+                createTaskSearchHBox(searchField, clearSearchButton),
                 taskListView
         );
         layout.setPadding(new Insets(10, 20, 10, 20));
@@ -143,32 +166,13 @@ public class MainApp extends Application {
 
         layout.getChildren().add(statusBar);
 
-        taskExecutor.activeThreadsProperty().addListener((_, _, newVal) -> {
-            Platform.runLater(() -> {
-                threadInfoLabel.setText(String.format("Active Threads: %d/%d", 
-                    newVal.intValue(), 
-                    taskExecutor.getMaxThreads()));
-            });
-        });
+        // The pool says when its stats change; they're shown at most once per frame
+        FrameSampler<InstrumentedExecutor.Stats> poolSampler =
+                new FrameSampler<>(taskExecutor::getPoolStats, this::updateThreadCount);
+        taskExecutor.onPoolStatsChanged(poolSampler::changed);
+        poolSampler.changed();
 
-        taskListView.setCellFactory(_ -> new ListCell<Task>() {
-            @Override
-            protected void updateItem(Task task, boolean empty) {
-                super.updateItem(task, empty);
-                if (empty || task == null) {
-                    setText(null);
-                    setStyle("");
-                } else {
-                    setText(task.toString());
-                    setStyle(getPriorityStyle(task));
-                    
-                    // Add warning icon for tasks due within 3 days
-                    if (task.getDueDate().isBefore(LocalDate.now().plusDays(3))) {
-                        setText("⚠ " + task.toString());
-                    }
-                }
-            }
-        });
+        taskListView.setCellFactory(_ -> new TaskCell());
 
         taskListView.setOnMouseClicked(event -> {
             if (event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 2) {
@@ -178,6 +182,9 @@ public class MainApp extends Application {
                 }
             }
         });
+
+        // Bring back the saved tasks plus anything done since the last save
+        loadTasksFromFile(false);
     }
 
     // Adds a new task using the input fields
@@ -188,8 +195,7 @@ public class MainApp extends Application {
         LocalDate dueDate = dueDatePicker.getValue();
 
         Task newTask = new Task(title, description, priority, dueDate);
-        taskManager.addTask(newTask);
-        updateTaskList();
+        whenApplied(commands.add(newTask), "Add Error");
 
         titleField.clear();
         descriptionField.clear();
@@ -201,8 +207,7 @@ public class MainApp extends Application {
     private void removeSelectedTask() {
         Task selectedTask = taskListView.getSelectionModel().getSelectedItem();
         if (selectedTask != null) {
-            taskManager.removeTask(selectedTask);
-            updateTaskList();
+            whenApplied(commands.remove(selectedTask), "Remove Error");
         } else {
             showAlert(Alert.AlertType.WARNING, "No Task Selected", "Please select a task to remove.");
         }
@@ -210,14 +215,22 @@ public class MainApp extends Application {
 
     // Undoes the last action (add or remove task)
     private void undoLastTask() {
-        taskManager.undo();
-        updateTaskList();
+        whenApplied(commands.undo(), "Undo Error");
     }
 
     // Redoes the last undone action
     private void redoLastTask() {
-        taskManager.redo();
-        updateTaskList();
+        whenApplied(commands.redo(), "Redo Error");
+    }
+
+    // Refreshes the list once a submitted change has been made, or says why it couldn't be
+    private void whenApplied(CompletableFuture<?> change, String errorTitle) {
+        change.whenComplete((_, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                showAlert(Alert.AlertType.ERROR, errorTitle, error.getMessage());
+            }
+            updateTaskList();
+        }));
     }
 
     // Deletes tasks by matching their names
@@ -227,22 +240,16 @@ public class MainApp extends Application {
         dialog.setHeaderText("Delete Tasks by Name");
         dialog.setContentText("Enter the name or part of the name:");
         dialog.showAndWait().ifPresent(name -> {
-            BST bst = new BST();  // Create the BST for bulk deletion
-
-            // Insert tasks to be deleted into the BST
-            taskManager.getTasks().stream()
-                    .filter(task -> task.getTitle().contains(name))
-                    .forEach(task -> bst.insert(task.getTitle()));
-
-            // Find and remove tasks that match the name criteria
-            List<Task> tasksToRemove = taskManager.getTasks().stream()
-                    .filter(task -> bst.contains(task.getTitle()))  // Check if task is in BST
-                    .toList();
-
-            // Remove the tasks from taskManager
-            tasksToRemove.forEach(taskManager::removeTask);
-            updateTaskList();
-            showAlert(Alert.AlertType.INFORMATION, "Tasks Deleted", tasksToRemove.size() + " tasks deleted.");
+            // The search index narrows it down to the titles that can contain the name
+            commands.removeTitleContaining(name)
+                .whenComplete((removed, error) -> Platform.runLater(() -> {
+                    updateTaskList();
+                    if (error != null) {
+                        showAlert(Alert.AlertType.ERROR, "Delete Error", "Error deleting tasks: " + error.getMessage());
+                    } else {
+                        showAlert(Alert.AlertType.INFORMATION, "Tasks Deleted", removed.size() + " tasks deleted.");
+                    }
+                }));
         });
     }
 
@@ -267,17 +274,13 @@ public class MainApp extends Application {
                     }
 
                     progressIndicator.setVisible(true);
-                    List<Task> tasksToRemove = taskManager.getTasks().stream()
-                        .filter(task -> task.getPriority() >= startPriority && 
-                                       task.getPriority() <= endPriority)
-                        .toList();
 
-                    taskExecutor.bulkDeleteAsync(tasksToRemove, taskManager)
-                        .thenRunAsync(() -> {
+                    commands.removePriorityRange(startPriority, endPriority)
+                        .thenAcceptAsync(removed -> {
                             updateTaskList();
                             progressIndicator.setVisible(false);
                             showAlert(Alert.AlertType.INFORMATION, "Tasks Deleted", 
-                                tasksToRemove.size() + " tasks deleted.");
+                                removed.size() + " tasks deleted.");
                         }, Platform::runLater)
                         .exceptionally(throwable -> {
                             Platform.runLater(() -> {
@@ -300,39 +303,32 @@ public class MainApp extends Application {
     }
 
     // Updates the thread count display
-    private void updateThreadCount(Number newCount) {
-        // Implementation for updating thread count
-    }
-
-    // Shows a window to search for tasks
-    private void showSearchPrompt() {
-        TextInputDialog dialog = new TextInputDialog();
-        dialog.setTitle("Search Tasks by Name");
-        dialog.setHeaderText("Enter a task name to search for:");
-        dialog.setContentText("Task Name:");
-
-        dialog.showAndWait().ifPresent(input -> {
-            if (!input.isEmpty()) {
-                filterTasksByName(input);
-            }
-        });
+    private void updateThreadCount(InstrumentedExecutor.Stats stats) {
+        String text = taskExecutor.getIoMode() == TaskExecutor.IoMode.VIRTUAL_THREADS
+                ? String.format("Active Threads: %d (virtual)", stats.active())
+                : String.format("Active Threads: %d/%d", stats.active(), taskExecutor.getMaxThreads());
+        // Jobs waiting for the scheduler to start them, plus any waiting for a pool thread
+        int waiting = stats.queued() + taskExecutor.getJobStats().waiting();
+        if (waiting > 0) {
+            text += String.format(" (%d waiting)", waiting);
+        }
+        threadInfoLabel.setText(text);
     }
 
     // Filters the task list to show only matching tasks
+    // The search runs in the background shortly after typing stops; an empty field shows everything
     private void filterTasksByName(String searchTerm) {
-        List<Task> filteredTasks = taskManager.getTasks().stream()
-                .filter(task -> task.getTitle().toLowerCase().contains(searchTerm.toLowerCase())) // Case-insensitive search
-                .sorted((task1, task2) -> task1.getTitle().compareToIgnoreCase(task2.getTitle())) // Sort alphabetically by task name
-                .collect(Collectors.toList());
-
-        // Update the task list view with the filtered and sorted tasks
-        ObservableList<Task> tasks = FXCollections.observableArrayList(filteredTasks);
-        taskListView.setItems(tasks);
+        if (searchTerm.isEmpty()) {
+            liveSearch.cancel();
+            taskListView.setItems(allTasks);
+        } else {
+            liveSearch.update(searchTerm);
+        }
     }
 
     // Removes any search filters and shows all tasks
     private void clearSearch() {
-        updateTaskList();
+        searchField.clear();
     }
 
     // Handles which bulk delete option was chosen
@@ -350,8 +346,12 @@ public class MainApp extends Application {
     }
 
     // Refreshes the list of tasks shown to the user
+    // The full list is the live allTasks adapter, which already follows every change and only
+    // reads (and, for a mapped file, only decodes) the rows that are actually on screen, so
+    // this just makes sure it's the one shown
+    // While searching, the search runs again instead so the filter stays in place
     private void updateTaskList() {
-        taskListView.setItems(FXCollections.observableArrayList(taskManager.getTasks()));
+        filterTasksByName(searchField.getText());
     }
 
     // Saves all tasks to a file in the background
@@ -372,16 +372,30 @@ public class MainApp extends Application {
             });
     }
 
-    // Loads tasks from a file in the background
-    private void loadTasksFromFile() {
+    // Loads tasks from a file through the command pipeline, replaying its journal
+    // Loading again while an earlier load is still waiting to start cancels that one
+    private void loadTasksFromFile(boolean announce) {
+        if (runningLoad != null) {
+            runningLoad.cancel(false);
+        }
         progressIndicator.setVisible(true);
-        taskExecutor.loadTasksAsync(taskManager, "tasks.dat")
+        CompletableFuture<List<Task>> load = commands.openJournaled("tasks.dat");
+        runningLoad = load;
+        load
             .thenRunAsync(() -> {
                 updateTaskList();
                 progressIndicator.setVisible(false);
-                showAlert(Alert.AlertType.INFORMATION, "Load Successful", "Tasks have been loaded.");
+                // The load dropped the indexes; rebuild them before the user starts searching
+                // Nothing waits on it, and a warm-up turned away only means the first search builds them
+                taskExecutor.warmUpIndexesAsync(taskManager);
+                if (announce) {
+                    showAlert(Alert.AlertType.INFORMATION, "Load Successful", "Tasks have been loaded.");
+                }
             }, Platform::runLater)
             .exceptionally(throwable -> {
+                if (load.isCancelled()) {
+                    return null;  // The newer load took over, including the progress indicator
+                }
                 Platform.runLater(() -> {
                     progressIndicator.setVisible(false);
                     showAlert(Alert.AlertType.ERROR, "Load Error", 
@@ -391,6 +405,66 @@ public class MainApp extends Application {
             });
     }
 
+    // Lets the user pick a CSV or JSON Lines file and adds its tasks in the background
+    // The progress indicator fills up as the file is read
+    private void importTasks(Stage owner) {
+        File file = createTransferChooser("Import Tasks").showOpenDialog(owner);
+        if (file == null) {
+            return;
+        }
+        progressIndicator.setProgress(0);
+        progressIndicator.setVisible(true);
+        taskExecutor.importTasksAsync(commands, file.getPath(), progressReporter())
+            .thenAcceptAsync(count -> {
+                updateTaskList();
+                progressIndicator.setVisible(false);
+                progressIndicator.setProgress(ProgressIndicator.INDETERMINATE_PROGRESS);
+                showAlert(Alert.AlertType.INFORMATION, "Import Successful", count + " tasks have been imported.");
+            }, Platform::runLater)
+            .exceptionally(throwable -> {
+                Platform.runLater(() -> {
+                    updateTaskList();
+                    progressIndicator.setVisible(false);
+                    progressIndicator.setProgress(ProgressIndicator.INDETERMINATE_PROGRESS);
+                    showAlert(Alert.AlertType.ERROR, "Import Error",
+                        "Error importing tasks: " + throwable.getMessage());
+                });
+                return null;
+            });
+    }
+
+    // Lets the user pick where to write all tasks as CSV or JSON Lines
+    private void exportTasks(Stage owner) {
+        File file = createTransferChooser("Export Tasks").showSaveDialog(owner);
+        if (file == null) {
+            return;
+        }
+        progressIndicator.setVisible(true);
+        taskExecutor.exportTasksAsync(taskManager, file.getPath())
+            .thenRunAsync(() -> {
+                progressIndicator.setVisible(false);
+                showAlert(Alert.AlertType.INFORMATION, "Export Successful", "Tasks have been exported.");
+            }, Platform::runLater)
+            .exceptionally(throwable -> {
+                Platform.runLater(() -> {
+                    progressIndicator.setVisible(false);
+                    showAlert(Alert.AlertType.ERROR, "Export Error",
+                        "Error exporting tasks: " + throwable.getMessage());
+                });
+                return null;
+            });
+    }
+
+    // File picker limited to the text formats tasks can be imported from and exported to
+    private FileChooser createTransferChooser(String title) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle(title);
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("CSV files", "*.csv"),
+                new FileChooser.ExtensionFilter("JSON Lines files", "*.jsonl", "*.ndjson", "*.json"));
+        return chooser;
+    }
+
     // Shows a popup message to the user
     private void showAlert(Alert.AlertType alertType, String title, String content) {
         Alert alert = new Alert(alertType);
@@ -400,20 +474,23 @@ public class MainApp extends Application {
     }
 
     // Creates a search box with buttons aligned to the right
-    private HBox createTaskSearchHBox(Button searchButton, Button clearSearchButton) {
+    private HBox createTaskSearchHBox(TextField searchField, Button clearSearchButton) {
 
         // Create a Region to push the buttons to the far right
 
         Region spacer = new Region();
         HBox.setHgrow(spacer, javafx.scene.layout.Priority.ALWAYS);
 
-        return new HBox(10, new Label("Tasks:"), spacer, searchButton, clearSearchButton);
+        return new HBox(10, new Label("Tasks:"), spacer, searchField, clearSearchButton);
     }
 
     // Cleans up resources when the app closes
     @Override
-    public void stop() {
+    public void stop() throws IOException {
+        // Imports still running add their batches through the commands, so those close after
         taskExecutor.shutdown();
+        commands.close();
+        taskManager.closeJournal();
     }
 
     // Starts the application
@@ -421,18 +498,6 @@ public class MainApp extends Application {
         launch(args);
     }
 
-    // Gets the color style based on task priority
-    private String getPriorityStyle(Task task) {
-        int priority = task.getPriority();
-        if (priority >= 7) {
-            return HIGH_PRIORITY_STYLE;
-        } else if (priority >= 4) {
-            return "-fx-background-color: " + MEDIUM_PRIORITY_STYLE;
-        } else {
-            return "-fx-background-color: " + LOW_PRIORITY_STYLE;
-        }
-    }
-
     // Shows a popup window with the task's full description
     private void showTaskDescriptionWindow(Task task) {
         Stage descriptionStage = new Stage();
@@ -456,12 +521,58 @@ public class MainApp extends Application {
     }
 
     // Sorts tasks by priority or due date
+    // Big lists are sorted on the compute pool first, with progress shown; choosing another
+    // sort before that finishes cancels it
     private void handleSort(String sortOption) {
+        TaskSorter.Key key;
         if ("Sort by Priority".equals(sortOption)) {
-            taskManager.sortTasksByPriority();
+            key = TaskSorter.Key.PRIORITY;
         } else if ("Sort by Due Date".equals(sortOption)) {
-            taskManager.sortTasksByDueDate();
+            key = TaskSorter.Key.DUE_DATE;
+        } else {
+            return;
         }
-        updateTaskList();
+        if (runningSort != null) {
+            // Its handler leaves the progress indicator alone once cancelled, so it's put away
+            // here; a big sort shows it again below, a small one doesn't need it
+            runningSort.cancel(false);
+            runningSort = null;
+            progressIndicator.setVisible(false);
+            progressIndicator.setProgress(ProgressIndicator.INDETERMINATE_PROGRESS);
+        }
+        if (taskManager.getTasks().size() < ParallelWork.THRESHOLD) {
+            whenApplied(commands.sort(key), "Sort Error");
+            return;
+        }
+        progressIndicator.setProgress(0);
+        progressIndicator.setVisible(true);
+        CompletableFuture<Void> sort = taskExecutor.sortTasksAsync(taskManager, progressReporter(), key);
+        runningSort = sort;
+        sort.whenComplete((_, error) -> Platform.runLater(() -> {
+            if (sort.isCancelled()) {
+                return;  // A newer sort took over, and put the progress indicator away
+            }
+            runningSort = null;
+            // Uses the order just worked out, or sorts again if the tasks changed meanwhile
+            whenApplied(commands.sort(key), "Sort Error");
+            progressIndicator.setVisible(false);
+            progressIndicator.setProgress(ProgressIndicator.INDETERMINATE_PROGRESS);
+        }));
+    }
+
+    // Passes background progress to the indicator
+    // Only hands the UI thread a new value once it has shown the previous one
+    private DoubleConsumer progressReporter() {
+        AtomicBoolean progressQueued = new AtomicBoolean();
+        AtomicReference<Double> latestProgress = new AtomicReference<>(0.0);
+        return fraction -> {
+            latestProgress.set(fraction);
+            if (progressQueued.compareAndSet(false, true)) {
+                Platform.runLater(() -> {
+                    progressQueued.set(false);
+                    progressIndicator.setProgress(latestProgress.get());
+                });
+            }
+        };
     }
 }
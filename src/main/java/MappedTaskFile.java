@@ -0,0 +1,204 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// A task file opened through memory mapping instead of being read in
+// Opening only reads the header, trailer and block offsets; the i-th task is found
+// through the index at the end of the file and decoded when it is asked for
+// The operating system pages in just the parts of the file that get touched
+public class MappedTaskFile implements Closeable {
+    // Blocks are grouped into mappings of at most this size (a single mapping can't pass 2 GB)
+    private static final long MAX_REGION_SIZE = 1L << 30;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int recordsPerBlock;
+    private final int recordCount;
+    private final long[] blockOffsets;
+    private final ByteBuffer recordOffsets;  // Mapped part of the index
+    private final MappedByteBuffer[] regions;
+    private final long[] regionStarts;
+    private final int[] blockRegions;
+    private final BitSet verifiedBlocks = new BitSet();
+    // Each thread gets its own decoder so lookups don't share scratch space
+    private final ThreadLocal<TaskFileFormat.StringDecoder> decoders =
+            ThreadLocal.withInitial(() -> new TaskFileFormat.StringDecoder(false));
+
+    private MappedTaskFile(Path path, FileChannel channel) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        long fileSize = channel.size();
+        if (fileSize < TaskFileFormat.HEADER_SIZE + TaskFileFormat.BLOCK_HEADER_SIZE + TaskFileFormat.TRAILER_SIZE) {
+            throw new IOException("Task file is too short: " + path);
+        }
+
+        ByteBuffer header = read(0, TaskFileFormat.HEADER_SIZE);
+        if (header.getInt() != TaskFileFormat.MAGIC) {
+            throw new IOException("Not a task file: " + path);
+        }
+        short version = header.getShort();
+        if (version < TaskFileFormat.FIRST_INDEXED_VERSION || version > TaskFileFormat.VERSION) {
+            throw new IOException("Task file version " + version + " has no index: " + path);
+        }
+        header.getShort();
+        recordsPerBlock = header.getInt();
+
+        ByteBuffer trailer = read(fileSize - TaskFileFormat.TRAILER_SIZE, TaskFileFormat.TRAILER_SIZE);
+        long indexOffset = trailer.getLong();
+        long records = trailer.getLong();
+        int blockCount = trailer.getInt();
+        if (trailer.getInt() != TaskFileFormat.MAGIC || records < 0 || records > Integer.MAX_VALUE
+                || blockCount < 0 || recordsPerBlock <= 0) {
+            throw new IOException("Corrupt task file trailer: " + path);
+        }
+        recordCount = (int) records;
+        long blockIndexSize = (long) blockCount * Long.BYTES;
+        long recordIndexSize = (long) recordCount * Integer.BYTES;
+        if (indexOffset + blockIndexSize + recordIndexSize + TaskFileFormat.TRAILER_SIZE != fileSize
+                || recordIndexSize > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt task file index: " + path);
+        }
+
+        ByteBuffer blockIndex = read(indexOffset, (int) blockIndexSize);
+        blockOffsets = new long[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            blockOffsets[i] = blockIndex.getLong();
+        }
+        recordOffsets = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset + blockIndexSize, recordIndexSize);
+
+        // Map whole blocks together, starting a new mapping whenever one would get too big
+        long endOfBlocks = indexOffset - TaskFileFormat.BLOCK_HEADER_SIZE;  // Where the end marker sits
+        blockRegions = new int[blockCount];
+        List<MappedByteBuffer> mapped = new ArrayList<>();
+        List<Long> starts = new ArrayList<>();
+        int first = 0;
+        while (first < blockCount) {
+            long start = blockOffsets[first];
+            int last = first;
+            while (last + 1 < blockCount && blockEnd(last + 1, endOfBlocks) - start <= MAX_REGION_SIZE) {
+                last++;
+            }
+            long size = blockEnd(last, endOfBlocks) - start;
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Task file block is too large to map: " + path);
+            }
+            for (int b = first; b <= last; b++) {
+                blockRegions[b] = mapped.size();
+            }
+            mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, start, size));
+            starts.add(start);
+            first = last + 1;
+        }
+        regions = mapped.toArray(new MappedByteBuffer[0]);
+        regionStarts = starts.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    // Opens a task file for lazy, memory-mapped reading
+    // Only works for files with an index (version 2 and later)
+    public static MappedTaskFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new MappedTaskFile(path, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Checks whether a file can be opened with open()
+    public static boolean isIndexed(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(6);
+            if (channel.read(header) < header.capacity()) {
+                return false;
+            }
+            header.flip();
+            return header.getInt() == TaskFileFormat.MAGIC
+                    && header.getShort() >= TaskFileFormat.FIRST_INDEXED_VERSION;
+        }
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    // Returns how many tasks the file holds
+    public int size() {
+        return recordCount;
+    }
+
+    // Decodes the task at a position in the file
+    // The block it sits in has its checksum checked the first time it's touched
+    public Task get(int index) {
+        if (index < 0 || index >= recordCount) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + recordCount);
+        }
+        int block = index / recordsPerBlock;
+        int region = blockRegions[block];
+        int blockStart = (int) (blockOffsets[block] - regionStarts[region]);
+        ByteBuffer buffer = regions[region].duplicate();
+        verify(block, buffer, blockStart);
+
+        int payloadStart = blockStart + TaskFileFormat.BLOCK_HEADER_SIZE;
+        int recordOffset = recordOffsets.getInt(index * Integer.BYTES);
+        buffer.position(payloadStart + recordOffset);
+        TaskFileFormat.StringDecoder strings = decoders.get();
+        strings.startBlock();
+        try {
+            return TaskFileFormat.readRecord(buffer, payloadStart, strings);
+        } catch (RuntimeException e) {
+            throw new UncheckedIOException(new IOException(
+                    "Corrupt task file, bad record " + index + ": " + path, e));
+        }
+    }
+
+    // Stops reading from the file
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void verify(int block, ByteBuffer region, int blockStart) {
+        synchronized (verifiedBlocks) {
+            if (verifiedBlocks.get(block)) {
+                return;
+            }
+        }
+        int payloadLength = region.getInt(blockStart + Integer.BYTES);
+        int checksum = region.getInt(blockStart + 2 * Integer.BYTES);
+        CRC32 crc = new CRC32();
+        int payloadStart = blockStart + TaskFileFormat.BLOCK_HEADER_SIZE;
+        crc.update(region.duplicate().limit(payloadStart + payloadLength).position(payloadStart));
+        if ((int) crc.getValue() != checksum) {
+            throw new UncheckedIOException(new IOException(
+                    "Corrupt task file, checksum mismatch in block " + block + ": " + path));
+        }
+        synchronized (verifiedBlocks) {
+            verifiedBlocks.set(block);
+        }
+    }
+
+    // Where a block ends (the start of the next one, or the end marker)
+    private long blockEnd(int block, long endOfBlocks) {
+        return block + 1 < blockOffsets.length ? blockOffsets[block + 1] : endOfBlocks;
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Task file ended unexpectedly: " + path);
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,182 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import javafx.collections.ObservableListBase;
+
+// An ObservableList over a TaskManager's tasks that copies nothing
+// Reads go to the snapshot taken right after the last change it announced, and each change the
+// manager announces becomes the smallest matching list change, so a ListView only touches the rows that moved
+// (adding one task to a huge list updates one cell instead of rebuilding every one)
+//
+// List changes must be fired on the UI thread, so changes made on other threads (such as the
+// TaskCommands writer) are queued with the snapshot each one left behind and replayed on the
+// UI thread in order; if too many pile up, they're announced together as one reset instead
+public class ObservableTaskList<T extends Task> extends ObservableListBase<T> {
+    // Changes that may wait for the UI thread before they're folded into a reset
+    private static final int MAX_PENDING = 256;
+
+    private final TaskManager<T> taskManager;
+    private TaskSnapshot<T> shown;  // Only read and replaced on the UI thread
+    private final Executor uiExecutor;
+    private final BooleanSupplier onUiThread;
+    private final Consumer<TaskListChange<T>> listener = this::changed;
+    private final Object lock = new Object();
+    // Guarded by lock: changes waiting for the UI thread, or if there were too many,
+    // the snapshot to reset to
+    private final List<Pending<T>> pending = new ArrayList<>();
+    private TaskSnapshot<T> resetTo;
+    private boolean drainScheduled;
+
+    private record Pending<T>(TaskListChange<T> change, TaskSnapshot<T> after) {
+    }
+
+    // uiExecutor runs work on the UI thread (e.g. Platform::runLater) and onUiThread says whether
+    // the caller is on it (e.g. Platform::isFxApplicationThread)
+    public ObservableTaskList(TaskManager<T> taskManager, Executor uiExecutor, BooleanSupplier onUiThread) {
+        this.taskManager = taskManager;
+        this.shown = taskManager.getTasks();
+        this.uiExecutor = uiExecutor;
+        this.onUiThread = onUiThread;
+        taskManager.addChangeListener(listener);
+    }
+
+    @Override
+    public T get(int index) {
+        return shown.get(index);
+    }
+
+    @Override
+    public int size() {
+        return shown.size();
+    }
+
+    // Stops following the task manager
+    public void dispose() {
+        taskManager.removeChangeListener(listener);
+    }
+
+    private void changed(TaskListChange<T> change) {
+        // Changes are announced before the next one starts, so this is the list right after it
+        TaskSnapshot<T> after = taskManager.getTasks();
+        synchronized (lock) {
+            // On the UI thread with nothing waiting, it can be announced right away
+            if (drainScheduled || !onUiThread.getAsBoolean()) {
+                if (resetTo != null || pending.size() == MAX_PENDING) {
+                    pending.clear();
+                    resetTo = after;
+                } else {
+                    pending.add(new Pending<>(change, after));
+                }
+                if (!drainScheduled) {
+                    drainScheduled = true;
+                    uiExecutor.execute(this::drain);
+                }
+                return;
+            }
+        }
+        fire(change, after);
+    }
+
+    // Announces the changes that were waiting for the UI thread
+    private void drain() {
+        List<Pending<T>> changes;
+        TaskSnapshot<T> reset;
+        synchronized (lock) {
+            changes = new ArrayList<>(pending);
+            pending.clear();
+            reset = resetTo;
+            resetTo = null;
+            drainScheduled = false;
+        }
+        if (reset != null) {
+            fire(new TaskListChange.Reset<>(shown.size(), reset.size()), reset);
+            return;
+        }
+        for (Pending<T> change : changes) {
+            fire(change.change(), change.after());
+        }
+    }
+
+    private void fire(TaskListChange<T> change, TaskSnapshot<T> after) {
+        shown = after;
+        beginChange();
+        try {
+            switch (change) {
+                case TaskListChange.Added<T> added -> {
+                    nextAdd(added.from(), added.to());
+                }
+                case TaskListChange.Inserted<T> inserted -> fireInserted(inserted);
+                case TaskListChange.Removed<T> removed -> fireRemoved(removed);
+                case TaskListChange.Permuted<T> permuted -> {
+                    // The change wants where each old position went; the event says where each new one came from
+                    int[] order = permuted.order();
+                    int[] newPositions = new int[order.length];
+                    for (int i = 0; i < order.length; i++) {
+                        newPositions[order[i]] = i;
+                    }
+                    nextPermutation(0, order.length, newPositions);
+                }
+                case TaskListChange.Reset<T> reset -> {
+                    // The old tasks are already gone, so listeners only learn how many there were
+                    nextRemove(0, new RemovedTasks<>(reset.previousSize()));
+                    nextAdd(0, reset.size());
+                }
+            }
+        } finally {
+            endChange();
+        }
+    }
+
+    // Each run of neighbouring positions becomes one addition; the positions are already
+    // counted with everything in, which is what the event wants
+    private void fireInserted(TaskListChange.Inserted<T> inserted) {
+        int[] positions = inserted.positions();
+        int runStart = 0;
+        for (int i = 1; i <= positions.length; i++) {
+            if (i == positions.length || positions[i] != positions[i - 1] + 1) {
+                nextAdd(positions[runStart], positions[i - 1] + 1);
+                runStart = i;
+            }
+        }
+    }
+
+    // Each run of neighbouring positions becomes one removal; the positions are from before
+    // anything was removed, so each run is shifted by what the runs before it took out
+    private void fireRemoved(TaskListChange.Removed<T> removed) {
+        int[] positions = removed.positions();
+        int runStart = 0;
+        int shift = 0;
+        for (int i = 1; i <= positions.length; i++) {
+            if (i == positions.length || positions[i] != positions[i - 1] + 1) {
+                nextRemove(positions[runStart] - shift, removed.tasks().subList(runStart, i));
+                shift += i - runStart;
+                runStart = i;
+            }
+        }
+    }
+
+    // Stands in for tasks that were replaced before the change could say what they were
+    private static final class RemovedTasks<T> extends AbstractList<T> {
+        private final int size;
+
+        RemovedTasks(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public T get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return null;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
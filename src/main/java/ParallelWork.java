@@ -0,0 +1,148 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
+import java.util.function.Predicate;
+
+// Shared pieces for splitting work on big task lists across a fork-join pool
+// Below THRESHOLD tasks, handing work to other threads costs more than it saves,
+// so everything here just runs on the calling thread
+public final class ParallelWork {
+    public static final int THRESHOLD = 1 << 16;
+    // Slices are never smaller than this, however many threads there are
+    private static final int MIN_CHUNK = 1 << 13;
+
+    private ParallelWork() {
+    }
+
+    // How many items each thread should take at a time: a few slices per thread, so a
+    // thread that finishes early can steal work from a slow one
+    static int chunkSize(int size, ForkJoinPool pool) {
+        return Math.max(MIN_CHUNK, size / (pool.getParallelism() * 4) + 1);
+    }
+
+    // Returns the tasks matching the filter, in their original order
+    // Each slice collects its matches into its own list, so threads never share a buffer,
+    // and the lists are joined in slice order at the end
+    // progress and cancelled work as in TaskSorter.parallelOrder; the list must not change meanwhile
+    public static <T> List<T> filter(List<? extends T> tasks, Predicate<? super T> filter, ForkJoinPool pool,
+                                     BooleanSupplier cancelled, DoubleConsumer progress) {
+        int n = tasks.size();
+        if (n == 0) {
+            return new ArrayList<>();
+        }
+        Progress tracker = new Progress(n, cancelled, progress);
+        int chunk = n < THRESHOLD ? n : chunkSize(n, pool);
+        int slices = (n + chunk - 1) / chunk;
+        List<List<T>> matches = new ArrayList<>(slices);
+        for (int i = 0; i < slices; i++) {
+            matches.add(null);
+        }
+        FilterSlices<T> work = new FilterSlices<>(tasks, filter, chunk, 0, slices, matches, tracker);
+        if (n < THRESHOLD) {
+            work.compute();
+        } else {
+            pool.invoke(work);
+        }
+        int total = 0;
+        for (List<T> slice : matches) {
+            total += slice.size();
+        }
+        List<T> result = new ArrayList<>(total);
+        for (List<T> slice : matches) {
+            result.addAll(slice);
+        }
+        return result;
+    }
+
+    // Filters slices [fromSlice, toSlice), splitting the range in half until it's one slice
+    // Not meant to be serialized (ForkJoinTask just happens to be Serializable)
+    @SuppressWarnings("serial")
+    private static final class FilterSlices<T> extends RecursiveAction {
+        private final List<? extends T> tasks;
+        private final Predicate<? super T> filter;
+        private final int chunk;
+        private final int fromSlice;
+        private final int toSlice;
+        private final List<List<T>> matches;
+        private final Progress progress;
+
+        FilterSlices(List<? extends T> tasks, Predicate<? super T> filter, int chunk, int fromSlice, int toSlice,
+                     List<List<T>> matches, Progress progress) {
+            this.tasks = tasks;
+            this.filter = filter;
+            this.chunk = chunk;
+            this.fromSlice = fromSlice;
+            this.toSlice = toSlice;
+            this.matches = matches;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            progress.check();
+            if (toSlice - fromSlice > 1) {
+                int mid = (fromSlice + toSlice) >>> 1;
+                invokeAll(new FilterSlices<>(tasks, filter, chunk, fromSlice, mid, matches, progress),
+                        new FilterSlices<>(tasks, filter, chunk, mid, toSlice, matches, progress));
+                return;
+            }
+            int from = fromSlice * chunk;
+            int to = Math.min(from + chunk, tasks.size());
+            List<T> found = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                T task = tasks.get(i);
+                if (filter.test(task)) {
+                    found.add(task);
+                }
+            }
+            matches.set(fromSlice, found);
+            progress.advance(to - from);
+        }
+    }
+
+    // Counts finished work from any thread and passes it on as a fraction
+    // Only whole-percent changes are reported, so a fast job doesn't flood the listener
+    static final class Progress {
+        private final long total;
+        private final BooleanSupplier cancelled;
+        private final DoubleConsumer listener;
+        private final AtomicLong done = new AtomicLong();
+        private volatile int reportedPercent;
+
+        Progress(long total, BooleanSupplier cancelled, DoubleConsumer listener) {
+            this.total = Math.max(total, 1);
+            this.cancelled = cancelled;
+            this.listener = listener;
+        }
+
+        long total() {
+            return total;
+        }
+
+        // Throws if the work was cancelled
+        void check() {
+            if (cancelled.getAsBoolean()) {
+                throw new CancellationException();
+            }
+        }
+
+        void advance(long units) {
+            long now = done.addAndGet(units);
+            int percent = (int) Math.min(100, now * 100 / total);
+            if (percent > reportedPercent) {
+                // Reported under the lock so the listener never sees the fraction go backwards
+                synchronized (this) {
+                    if (percent > reportedPercent) {
+                        reportedPercent = percent;
+                        listener.accept(percent / 100.0);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,448 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+// Text search over task titles and descriptions, ignoring case
+// Every run of three characters (a trigram) in a task's text points at the tasks that
+// contain it, so a query only has to check the tasks that have all of its trigrams
+// instead of every task
+//
+// Each task gets an id when it's added; ids only go up, which keeps each trigram's list
+// of ids sorted so it can be stored as varint-encoded gaps (usually one byte per id)
+// Removed tasks leave a gap that queries skip; once gaps outnumber tasks, the index is rebuilt
+public class SearchIndex<T extends Task> {
+    private static final int GRAM = 3;
+    // Rebuild once this many ids are gaps, and more gaps than tasks
+    private static final int MIN_GAPS_TO_REBUILD = 1024;
+
+    // How a query has to match
+    public enum Mode {
+        SUBSTRING,  // The text contains the query
+        PREFIX,     // The text starts with the query
+        FUZZY       // The text contains the query with up to one or two typos
+    }
+
+    private Object[] docs = new Object[16];  // Task for each id, null once removed
+    private int nextId;
+    private int live;
+    private final Map<T, Integer> ids = new IdentityHashMap<>();
+
+    // Trigram -> posting list, open addressing on the packed trigram
+    private long[] gramKeys = new long[1024];
+    private PostingList[] gramLists = new PostingList[1024];
+    private int gramCount;
+
+    // Ids of the tasks containing one trigram, as varint gaps from the previous id
+    private static final class PostingList {
+        byte[] bytes = new byte[4];
+        int length;
+        int count;
+        int last = -1;
+
+        void add(int id) {
+            if (id == last) {
+                return;  // Trigram appears more than once in the same task
+            }
+            int gap = id - last;
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 5));
+            }
+            while ((gap & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            bytes[length++] = (byte) gap;
+            last = id;
+            count++;
+        }
+
+        int[] decode() {
+            int[] result = new int[count];
+            int id = -1;
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                int gap = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = bytes[position++];
+                    gap |= (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                }
+                id += gap;
+                result[i] = id;
+            }
+            return result;
+        }
+    }
+
+    // Adds a task to the index; returns false if it's already there
+    public boolean add(T task) {
+        if (ids.containsKey(task)) {
+            return false;
+        }
+        int id = nextId++;
+        if (id == docs.length) {
+            docs = Arrays.copyOf(docs, docs.length * 2);
+        }
+        docs[id] = task;
+        ids.put(task, id);
+        live++;
+        indexText(task.getTitle(), id);
+        indexText(task.getDescription(), id);
+        return true;
+    }
+
+    // Removes a task from the index; returns false if it wasn't there
+    public boolean remove(T task) {
+        Integer id = ids.remove(task);
+        if (id == null) {
+            return false;
+        }
+        docs[id] = null;
+        live--;
+        int gaps = nextId - live;
+        if (gaps >= MIN_GAPS_TO_REBUILD && gaps > live) {
+            rebuild();
+        }
+        return true;
+    }
+
+    // Returns how many tasks are indexed
+    public int size() {
+        return live;
+    }
+
+    // Removes every task
+    public void clear() {
+        Arrays.fill(docs, 0, nextId, null);
+        nextId = 0;
+        live = 0;
+        ids.clear();
+        gramKeys = new long[1024];
+        gramLists = new PostingList[1024];
+        gramCount = 0;
+    }
+
+    // Finds the tasks matching the query, ignoring case, in no particular order
+    // Descriptions are searched too unless titleOnly is set
+    public List<T> search(String query, Mode mode, boolean titleOnly) {
+        return search(query, mode, titleOnly, () -> false);
+    }
+
+    // Same, but gives up with a CancellationException soon after cancelled starts returning true
+    public List<T> search(String query, Mode mode, boolean titleOnly, BooleanSupplier cancelled) {
+        List<T> candidates = candidates(query, mode);
+        return check(candidates == null ? allDocs() : candidates, query, mode, titleOnly, cancelled);
+    }
+
+    // The tasks a search has to check, picked using the trigrams alone, or null if every task
+    // has to be checked (the query is too short to rule anything out)
+    // No text is compared, so this is cheap next to check(): the index can be read under a
+    // lock and the checking done after letting go of it
+    public List<T> candidates(String query, Mode mode) {
+        if (query.isEmpty()) {
+            return mode == Mode.FUZZY ? new ArrayList<>() : null;
+        }
+        return switch (mode) {
+            case SUBSTRING, PREFIX -> exactCandidates(query);
+            case FUZZY -> fuzzyCandidates(query);
+        };
+    }
+
+    // Keeps the candidates that match the query, in the order given
+    // Only reads the tasks themselves, so it can run on any list of them (e.g. a snapshot)
+    public static <T extends Task> List<T> check(List<T> candidates, String query, Mode mode, boolean titleOnly,
+                                                 BooleanSupplier cancelled) {
+        List<T> result = new ArrayList<>();
+        boolean prefix = mode == Mode.PREFIX;
+        String folded = mode == Mode.FUZZY ? fold(query) : null;
+        int maxEdits = maxEdits(query);
+        for (int i = 0; i < candidates.size(); i++) {
+            Cancellation.check(i, cancelled);
+            T task = candidates.get(i);
+            boolean matching = mode == Mode.FUZZY ? fuzzyMatches(task, folded, maxEdits, titleOnly)
+                    : matches(task.getTitle(), query, prefix)
+                            || (!titleOnly && matches(task.getDescription(), query, prefix));
+            if (matching) {
+                result.add(task);
+            }
+        }
+        return result;
+    }
+
+    // Keeps the tasks from an earlier substring search that also contain the longer query
+    // Anything containing the longer query contained the earlier one, so nothing else can match;
+    // the earlier result's order is kept
+    public static <T extends Task> List<T> refine(List<T> previous, String query, boolean titleOnly,
+                                                  BooleanSupplier cancelled) {
+        List<T> result = new ArrayList<>();
+        for (int i = 0; i < previous.size(); i++) {
+            Cancellation.check(i, cancelled);
+            T task = previous.get(i);
+            if (matches(task.getTitle(), query, false) || (!titleOnly && matches(task.getDescription(), query, false))) {
+                result.add(task);
+            }
+        }
+        return result;
+    }
+
+    // Checks whether the text contains the query, ignoring case the same way searches do
+    public static boolean containsIgnoreCase(String text, String query) {
+        return matches(text, query, false);
+    }
+
+    // Substring or prefix search: candidates share every trigram of the query
+    // Starts from the rarest trigram; other lists are merged in only while they are small
+    // enough that intersecting is cheaper than checking the extra candidates directly
+    private List<T> exactCandidates(String query) {
+        if (query.length() < GRAM) {
+            return null;
+        }
+        PostingList[] lists = queryLists(query);
+        if (lists == null) {
+            return new ArrayList<>();  // Some trigram of the query appears nowhere
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.count, b.count));
+        int[] candidates = lists[0].decode();
+        int size = candidates.length;
+        for (int i = 1; i < lists.length && lists[i].count <= size * 8L; i++) {
+            size = intersect(candidates, size, lists[i].decode());
+        }
+        List<T> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            T task = doc(candidates[i]);
+            if (task != null) {
+                result.add(task);
+            }
+        }
+        return result;
+    }
+
+    // Posting lists for the distinct trigrams of a query, or null if any trigram is missing
+    private PostingList[] queryLists(String query) {
+        List<PostingList> lists = new ArrayList<>();
+        for (int i = 0; i + GRAM <= query.length(); i++) {
+            PostingList list = postingList(gram(query, i));
+            if (list == null) {
+                return null;
+            }
+            if (!lists.contains(list)) {
+                lists.add(list);
+            }
+        }
+        return lists.toArray(new PostingList[0]);
+    }
+
+    // Keeps the ids in the first array that are also in the second; both are sorted
+    private static int intersect(int[] ids, int size, int[] other) {
+        int kept = 0;
+        int j = 0;
+        for (int i = 0; i < size && j < other.length; i++) {
+            while (j < other.length && other[j] < ids[i]) {
+                j++;
+            }
+            if (j < other.length && other[j] == ids[i]) {
+                ids[kept++] = ids[i];
+            }
+        }
+        return kept;
+    }
+
+    // Typo-tolerant search: a text within k edits of the query still shares at least
+    // (trigrams in the query) - 3k of them, so only tasks reaching that count are checked
+    // Short queries can't rule anything out that way, so every task is checked
+    private List<T> fuzzyCandidates(String query) {
+        int needed = (query.length() - GRAM + 1) - GRAM * maxEdits(query);
+        if (needed <= 0) {
+            return null;
+        }
+        int[] shared = new int[nextId];
+        List<Long> seen = new ArrayList<>();
+        for (int i = 0; i + GRAM <= query.length(); i++) {
+            long gram = gram(query, i);
+            PostingList list = postingList(gram);
+            if (list == null || seen.contains(gram)) {
+                continue;
+            }
+            seen.add(gram);
+            for (int id : list.decode()) {
+                shared[id]++;
+            }
+        }
+        List<T> result = new ArrayList<>();
+        for (int id = 0; id < nextId; id++) {
+            if (shared[id] >= needed) {
+                T task = doc(id);
+                if (task != null) {
+                    result.add(task);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Typos allowed in a fuzzy match: more for longer queries
+    private static int maxEdits(String query) {
+        return query.length() >= 8 ? 2 : query.length() >= 4 ? 1 : 0;
+    }
+
+    private static boolean fuzzyMatches(Task task, String foldedQuery, int maxEdits, boolean titleOnly) {
+        return withinEdits(task.getTitle(), foldedQuery, maxEdits)
+                || (!titleOnly && withinEdits(task.getDescription(), foldedQuery, maxEdits));
+    }
+
+    // Checks whether some part of the text is within maxEdits insertions, deletions or
+    // substitutions of the query (edit distance where the match may start anywhere)
+    private static boolean withinEdits(String text, String foldedQuery, int maxEdits) {
+        if (text == null) {
+            return false;
+        }
+        int m = foldedQuery.length();
+        int[] column = new int[m + 1];
+        for (int i = 0; i <= m; i++) {
+            column[i] = i;
+        }
+        if (column[m] <= maxEdits) {
+            return true;
+        }
+        for (int j = 0; j < text.length(); j++) {
+            char c = fold(text.charAt(j));
+            int diagonal = column[0];  // Row 0 stays 0: a match may start at any position
+            for (int i = 1; i <= m; i++) {
+                int above = column[i];
+                int cost = foldedQuery.charAt(i - 1) == c ? 0 : 1;
+                column[i] = Math.min(Math.min(above + 1, column[i - 1] + 1), diagonal + cost);
+                diagonal = above;
+            }
+            if (column[m] <= maxEdits) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(String text, String query, boolean prefix) {
+        if (text == null || text.length() < query.length()) {
+            return false;
+        }
+        if (prefix) {
+            return text.regionMatches(true, 0, query, 0, query.length());
+        }
+        for (int start = 0; start + query.length() <= text.length(); start++) {
+            if (text.regionMatches(true, start, query, 0, query.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<T> allDocs() {
+        List<T> result = new ArrayList<>(live);
+        for (int id = 0; id < nextId; id++) {
+            T task = doc(id);
+            if (task != null) {
+                result.add(task);
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T doc(int id) {
+        return (T) docs[id];
+    }
+
+    private void indexText(String text, int id) {
+        if (text == null) {
+            return;
+        }
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            postingListFor(gram(text, i)).add(id);
+        }
+    }
+
+    // Gives the surviving tasks fresh ids so the gaps left by removed ones go away
+    private void rebuild() {
+        List<T> survivors = allDocs();
+        clear();
+        for (T task : survivors) {
+            add(task);
+        }
+    }
+
+    // Folds case the same way String.regionMatches(true, ...) compares characters
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private static String fold(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = fold(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    // Packs three case-folded characters into one long (the top bit marks the slot as used)
+    private static long gram(String text, int start) {
+        return Long.MIN_VALUE
+                | ((long) fold(text.charAt(start)) << 32)
+                | ((long) fold(text.charAt(start + 1)) << 16)
+                | fold(text.charAt(start + 2));
+    }
+
+    private PostingList postingList(long gram) {
+        int mask = gramKeys.length - 1;
+        for (int slot = slot(gram, mask); gramKeys[slot] != 0; slot = (slot + 1) & mask) {
+            if (gramKeys[slot] == gram) {
+                return gramLists[slot];
+            }
+        }
+        return null;
+    }
+
+    private PostingList postingListFor(long gram) {
+        int mask = gramKeys.length - 1;
+        int slot = slot(gram, mask);
+        while (gramKeys[slot] != 0) {
+            if (gramKeys[slot] == gram) {
+                return gramLists[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        PostingList list = new PostingList();
+        gramKeys[slot] = gram;
+        gramLists[slot] = list;
+        if (++gramCount * 2 > gramKeys.length) {
+            growGrams();
+        }
+        return list;
+    }
+
+    private void growGrams() {
+        long[] oldKeys = gramKeys;
+        PostingList[] oldLists = gramLists;
+        gramKeys = new long[oldKeys.length * 2];
+        gramLists = new PostingList[oldKeys.length * 2];
+        int mask = gramKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(oldKeys[i], mask);
+                while (gramKeys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                gramKeys[slot] = oldKeys[i];
+                gramLists[slot] = oldLists[i];
+            }
+        }
+    }
+
+    private static int slot(long gram, int mask) {
+        long h = gram * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 40) & mask;
+    }
+}
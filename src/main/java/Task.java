@@ -8,10 +8,16 @@ public class Task extends Item {
     @Serial
     private static final long serialVersionUID = 1L;
 
+    // How due dates are shown everywhere (MM/dd/yyyy); formatters are immutable, so one is shared
+    public static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+
     // Basic information about the task
     private final int priority;
     private final LocalDate dueDate;
     private final String description;
+    // toString() built the first time it's needed; a task never changes, so it never goes stale
+    // Not saved, since it can always be built again
+    private transient String displayText;
 
     // Creates a new task with all its details
     public Task(String title, String description, int priority, LocalDate dueDate) {
@@ -35,13 +41,16 @@ public class Task extends Item {
     }
 
     // Converts the task to a readable string format
-    // Shows the title, priority, and due date
+    // Shows the title, priority, and due date (or "none" for tasks imported without one)
+    // The list asks for this every time a row scrolls into view, so it's only built once
     @Override
     public String toString() {
-        // Make the date look nice (MM/dd/yyyy format)
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MM/dd/yyyy");
-        String formattedDate = dueDate.format(formatter);
-
-        return getTitle() + " - Priority: " + priority + " - Due: " + formattedDate;
+        String text = displayText;
+        if (text == null) {
+            text = getTitle() + " - Priority: " + priority + " - Due: "
+                    + (dueDate == null ? "none" : dueDate.format(DATE_FORMAT));
+            displayText = text;
+        }
+        return text;
     }
 }
@@ -1,29 +1,107 @@
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 
  // A cache that stores recently used tasks.
- // When it gets full, it removes the oldest tasks that haven't been used in a while.
+ // When it gets full, it removes entries picked by its eviction policy.
+ // Safe to use from several threads: reads never block, and the eviction
+ // bookkeeping is done under a lock only by writers (or whoever wins a tryLock).
 
 public class TaskCache<K, V> {
+    // How the cache decides what to throw out when it is full
+    public enum Eviction {
+        LRU,       // Least recently used goes first
+        TINY_LFU   // Keeps entries that are used often, even if not used lately
+    }
+
+    // Counters describing how well the cache is doing
+    public record Stats(long hits, long misses, long evictions, long loads, long totalLoadNanos) {
+        public long requests() {
+            return hits + misses;
+        }
+
+        public double hitRate() {
+            long requests = requests();
+            return requests == 0 ? 1.0 : (double) hits / requests;
+        }
+
+        public double averageLoadNanos() {
+            return loads == 0 ? 0.0 : (double) totalLoadNanos / loads;
+        }
+    }
+
+    // A cached value, the generation it was stored in, and when it was last read
+    private static final class Node<V> {
+        final V value;
+        final int generation;
+        volatile long accessedAt;
+
+        Node(V value, int generation, long accessedAt) {
+            this.value = value;
+            this.generation = generation;
+            this.accessedAt = accessedAt;
+        }
+    }
+
+    // Reads are remembered in a small ring and replayed into the policy in batches
+    // If the ring is full the read is dropped, which only makes recency approximate
+    private static final int READ_BUFFER_SIZE = 128;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int DRAIN_INTERVAL = 32;
+
     // The map that holds all our cached items
-    private final Map<K, V> cache;
+    private final ConcurrentHashMap<K, Node<V>> cache;
+    private final EvictionPolicy<K> policy;  // Only touched while holding evictionLock
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AtomicReferenceArray<K> readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong readCount = new AtomicLong();
+    private final int capacity;
+    private final long expireAfterAccessNanos;  // 0 means entries never expire
+    // Entries stored under an older generation count as gone; bumping it invalidates everything at once
+    private volatile int generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
 
 
-    // Creates a new cache that can hold a specific number of items
+    // Creates a new LRU cache that can hold a specific number of items
 
     public TaskCache(int capacity) {
+        this(capacity, Eviction.LRU);
+    }
 
-        // Make a new map that:
-        // - can hold the specified number of items
-        // - keeps track of which items we use most often
 
-        this.cache = new LinkedHashMap<K, V>(capacity, 0.75f, true) {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-                // Remove old items when we're over capacity
-                return size() > capacity;
-            }
+    // Creates a new cache with the given eviction policy
+
+    public TaskCache(int capacity, Eviction eviction) {
+        this(capacity, eviction, Duration.ZERO);
+    }
+
+
+    // Creates a new cache whose entries also expire when they haven't been read
+    // for the given amount of time (Duration.ZERO turns expiry off)
+
+    public TaskCache(int capacity, Eviction eviction, Duration expireAfterAccess) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        if (expireAfterAccess.isNegative()) {
+            throw new IllegalArgumentException("Expiry must not be negative: " + expireAfterAccess);
+        }
+        this.capacity = capacity;
+        this.expireAfterAccessNanos = expireAfterAccess.toNanos();
+        this.cache = new ConcurrentHashMap<>(Math.min(capacity, 1 << 16));
+        this.policy = switch (eviction) {
+            case LRU -> new LruPolicy<>(capacity);
+            case TINY_LFU -> new TinyLfuPolicy<>(capacity);
         };
     }
 
@@ -32,22 +110,127 @@ public class TaskCache<K, V> {
     // Returns null if the item isn't in the cache
 
     public V get(K key) {
-        return cache.get(key);
+        Node<V> node = cache.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        if (node.generation != generation) {
+            misses.increment();
+            removeIf(key, node);
+            return null;
+        }
+        if (expireAfterAccessNanos > 0) {
+            long now = System.nanoTime();
+            if (now - node.accessedAt >= expireAfterAccessNanos) {
+                misses.increment();
+                removeIf(key, node);
+                return null;
+            }
+            node.accessedAt = now;
+        }
+        hits.increment();
+        recordRead(key);
+        return node.value;
+    }
+
+
+    // Gets an item from the cache, or loads it and caches it if it's missing
+    // The time spent in the loader shows up in the stats
+
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        V value = get(key);
+        return value != null ? value : load(key, loader);
+    }
+
+
+    // Loads an item after a miss and caches it, for callers that check the cache themselves
+    // before taking a lock to load
+
+    public V load(K key, Function<? super K, ? extends V> loader) {
+        long start = System.nanoTime();
+        V value = loader.apply(key);
+        loadNanos.add(System.nanoTime() - start);
+        loads.increment();
+        if (value != null) {
+            put(key, value);
+        }
+        return value;
     }
 
 
     // Adds a new item to the cache
-    // If the cache is full, removes the oldest unused item first
+    // If the cache is full, the eviction policy picks what gets removed
 
     public void put(K key, V value) {
-        cache.put(key, value);
+        Node<V> node = new Node<>(value, generation, expireAfterAccessNanos > 0 ? System.nanoTime() : 0L);
+        evictionLock.lock();
+        try {
+            drainReads();
+            if (cache.put(key, node) != null) {
+                policy.recordAccess(key);
+                return;
+            }
+            K victim = policy.recordInsert(key);
+            if (victim != null) {
+                cache.remove(victim);
+                evictions.increment();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+
+    // Removes one item from the cache, if it's there
+
+    public void invalidate(K key) {
+        removeIf(key, null);
+    }
+
+
+    // Removes several items from the cache, taking the lock only once
+
+    public void invalidateAll(Iterable<? extends K> keys) {
+        evictionLock.lock();
+        try {
+            for (K key : keys) {
+                if (cache.remove(key) != null) {
+                    policy.recordRemoval(key);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+
+    // Invalidates every item in O(1) by starting a new generation
+    // Old entries are treated as missing and get cleaned up as they are read or evicted
+
+    public void invalidateAll() {
+        evictionLock.lock();
+        try {
+            generation++;
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
 
     // Removes everything from the cache
 
     public void clear() {
-        cache.clear();
+        evictionLock.lock();
+        try {
+            cache.clear();
+            policy.clear();
+            for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+                readBuffer.set(i, null);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
 
@@ -55,6 +238,71 @@ public class TaskCache<K, V> {
     // Returns true if it is, false if it isn't
 
     public boolean containsKey(K key) {
-        return cache.containsKey(key);
+        Node<V> node = cache.get(key);
+        return node != null && node.generation == generation;
+    }
+
+
+    // Returns how many items are currently cached
+
+    public int size() {
+        return cache.size();
+    }
+
+
+    // Returns the most items the cache will hold
+
+    public int capacity() {
+        return capacity;
+    }
+
+
+    // Returns a snapshot of the hit, miss, eviction and load counters
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), loads.sum(), loadNanos.sum());
+    }
+
+
+    // Remembers a read without blocking; every so often the reads are handed to the policy
+
+    private void recordRead(K key) {
+        long count = readCount.getAndIncrement();
+        readBuffer.compareAndSet((int) count & READ_BUFFER_MASK, null, key);
+        if ((count & (DRAIN_INTERVAL - 1)) == 0 && evictionLock.tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+
+    // Replays buffered reads into the policy (caller holds evictionLock)
+
+    private void drainReads() {
+        for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+            K key = readBuffer.getAndSet(i, null);
+            if (key != null && cache.containsKey(key)) {
+                policy.recordAccess(key);
+            }
+        }
+    }
+
+
+    // Removes a key (only if it still maps to the expected node, when one is given)
+    // and tells the policy it is gone
+
+    private void removeIf(K key, Node<V> expected) {
+        evictionLock.lock();
+        try {
+            boolean removed = expected == null ? cache.remove(key) != null : cache.remove(key, expected);
+            if (removed) {
+                policy.recordRemoval(key);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
     }
-} 
\ No newline at end of file
+}
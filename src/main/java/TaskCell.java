@@ -0,0 +1,68 @@
+import java.time.LocalDate;
+import java.time.ZoneId;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+
+// One row of the task list
+// Rows are redrawn every time the list scrolls, so drawing one allocates nothing: the text is
+// cached on the task, the styles are constants, the warning icon is one label per cell, and
+// "today" is only worked out again once the day changes
+public class TaskCell extends ListCell<Task> {
+    // Tasks due within this many days get a warning icon
+    private static final int WARNING_DAYS = 3;
+
+    // Colors for different priority levels
+    private static final String HIGH_PRIORITY_STYLE = "-fx-background-color: #c8e6c9;"; // Light green
+    private static final String MEDIUM_PRIORITY_STYLE = "-fx-background-color: #fff9c4;"; // Light yellow
+    private static final String LOW_PRIORITY_STYLE = "-fx-background-color: #ffcdd2;"; // Light red
+
+    private static final AllocationProbe probe = new AllocationProbe("Cell rendering", 10_000);
+
+    // Tasks due before this date get the warning, and the time (in epoch milliseconds) it must be
+    // worked out again; cells only run on the FX thread, so these need no locking
+    private static LocalDate warnBefore;
+    private static long nextDayMillis;
+
+    private final Label warningIcon = new Label("⚠");
+
+    @Override
+    protected void updateItem(Task task, boolean empty) {
+        long mark = probe.start();
+        super.updateItem(task, empty);
+        if (empty || task == null) {
+            setText(null);
+            setGraphic(null);
+            setStyle("");
+        } else {
+            setText(task.toString());
+            setStyle(priorityStyle(task.getPriority()));
+            // Tasks imported without a due date are never overdue
+            LocalDate dueDate = task.getDueDate();
+            setGraphic(dueDate != null && dueDate.isBefore(warnBefore()) ? warningIcon : null);
+        }
+        probe.stop(mark);
+    }
+
+    // Gets the color style based on task priority
+    private static String priorityStyle(int priority) {
+        if (priority >= 7) {
+            return HIGH_PRIORITY_STYLE;
+        } else if (priority >= 4) {
+            return MEDIUM_PRIORITY_STYLE;
+        } else {
+            return LOW_PRIORITY_STYLE;
+        }
+    }
+
+    // The first due date that doesn't get a warning, worked out again once a day
+    private static LocalDate warnBefore() {
+        long now = System.currentTimeMillis();
+        if (now >= nextDayMillis) {
+            ZoneId zone = ZoneId.systemDefault();
+            LocalDate today = LocalDate.now(zone);
+            warnBefore = today.plusDays(WARNING_DAYS);
+            nextDayMillis = today.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+        return warnBefore;
+    }
+}
@@ -0,0 +1,285 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+// Puts every change to a TaskManager through one writer thread, in the order it was submitted
+// Any thread can submit a command; it waits in a bounded queue and the returned future
+// completes once the change has been made (and its change events sent)
+// Submitting never blocks: if the queue is full the future fails straight away, so the UI
+// thread can submit safely
+// The writer takes whatever has queued up and applies it as one batch, holding the task
+// manager's write lock once for each run of quick commands instead of once per change
+// Loads and filtered removals do their slow part (reading the file, running the filter)
+// without the lock and only take it to make the change
+// Cancelling a command's future skips it if it hasn't been applied yet; a load or bulk removal
+// already under way gives up without changing anything
+public class TaskCommands<T extends Task> implements AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 4096;
+    // Most commands applied in one go, so futures of a long burst still complete as it goes
+    private static final int MAX_BATCH = 1024;
+
+    // A change to the tasks
+    public sealed interface Command<T> {
+        record Add<T>(List<T> tasks) implements Command<T> {
+        }
+
+        record Remove<T>(List<T> tasks) implements Command<T> {
+        }
+
+        record RemoveIf<T>(Predicate<? super T> filter) implements Command<T> {
+        }
+
+        // Removes the tasks with a priority from low to high, found through the priority index
+        record RemovePriorityRange<T>(int low, int high) implements Command<T> {
+        }
+
+        // Removes the tasks whose title contains the text (case has to match), found through
+        // the search index
+        record RemoveTitleContaining<T>(String text) implements Command<T> {
+        }
+
+        // Replaces every task with the ones in a task file
+        record Load<T>(String filename) implements Command<T> {
+        }
+
+        // Replaces every task with the ones in a task file and replays the journal kept next to it
+        record OpenJournaled<T>(String filename, TaskJournal.Options options) implements Command<T> {
+        }
+
+        record Sort<T>(List<TaskSorter.Key> keys) implements Command<T> {
+        }
+
+        record Undo<T>() implements Command<T> {
+        }
+
+        record Redo<T>() implements Command<T> {
+        }
+    }
+
+    // A command waiting for the writer; a null command tells the writer to stop
+    private record Queued<T>(Command<T> command, CompletableFuture<List<T>> done) {
+    }
+
+    private final TaskManager<T> taskManager;
+    private final BlockingQueue<Queued<T>> queue;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    public TaskCommands(TaskManager<T> taskManager) {
+        this(taskManager, DEFAULT_CAPACITY);
+    }
+
+    // capacity is how many commands can wait before submitting fails
+    public TaskCommands(TaskManager<T> taskManager, int capacity) {
+        this.taskManager = taskManager;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::runWriter, "task-commands");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Queues a command; the future completes with the tasks it removed (empty for other commands)
+    // or with the error it failed with
+    // If the queue is full the future fails with a RejectedExecutionException instead, so
+    // producers can't get far ahead of the writer
+    public CompletableFuture<List<T>> submit(Command<T> command) {
+        CompletableFuture<List<T>> done = new CompletableFuture<>();
+        if (closed) {
+            done.completeExceptionally(closedError());
+        } else if (!queue.offer(new Queued<>(command, done))) {
+            done.completeExceptionally(new RejectedExecutionException("Too many task changes waiting"));
+        }
+        return done;
+    }
+
+    public CompletableFuture<List<T>> add(T task) {
+        return submit(new Command.Add<>(List.of(task)));
+    }
+
+    public CompletableFuture<List<T>> addAll(List<T> tasks) {
+        return submit(new Command.Add<>(tasks));
+    }
+
+    public CompletableFuture<List<T>> remove(T task) {
+        return submit(new Command.Remove<>(List.of(task)));
+    }
+
+    public CompletableFuture<List<T>> removeAll(List<T> tasks) {
+        return submit(new Command.Remove<>(tasks));
+    }
+
+    public CompletableFuture<List<T>> removeIf(Predicate<? super T> filter) {
+        return submit(new Command.RemoveIf<>(filter));
+    }
+
+    public CompletableFuture<List<T>> removePriorityRange(int low, int high) {
+        return submit(new Command.RemovePriorityRange<>(low, high));
+    }
+
+    public CompletableFuture<List<T>> removeTitleContaining(String text) {
+        return submit(new Command.RemoveTitleContaining<>(text));
+    }
+
+    public CompletableFuture<List<T>> load(String filename) {
+        return submit(new Command.Load<>(filename));
+    }
+
+    public CompletableFuture<List<T>> openJournaled(String filename) {
+        return submit(new Command.OpenJournaled<>(filename, TaskJournal.Options.defaults()));
+    }
+
+    public CompletableFuture<List<T>> sort(TaskSorter.Key... keys) {
+        return submit(new Command.Sort<>(List.of(keys)));
+    }
+
+    public CompletableFuture<List<T>> undo() {
+        return submit(new Command.Undo<>());
+    }
+
+    public CompletableFuture<List<T>> redo() {
+        return submit(new Command.Redo<>());
+    }
+
+    // Applies everything already submitted, then stops the writer
+    // Commands submitted from now on fail straight away
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            queue.put(new Queued<>(null, null));
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Anything that slipped in behind the stop marker is never applied
+        for (Queued<T> left : queue) {
+            left.done().completeExceptionally(closedError());
+        }
+        queue.clear();
+    }
+
+    // The writer thread: takes whatever has queued up and applies it as one batch
+    private void runWriter() {
+        List<Queued<T>> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            int stop = 0;
+            while (stop < batch.size() && batch.get(stop).command() != null) {
+                stop++;
+            }
+            applyBatch(batch.subList(0, stop));
+            if (stop < batch.size()) {
+                // Drained along with the stop marker, so close() won't find them in the queue
+                for (Queued<T> left : batch.subList(stop + 1, batch.size())) {
+                    left.done().completeExceptionally(closedError());
+                }
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    // Applies the commands in order: each run of quick ones together under one write lock, and
+    // each slow one on its own, so it can do its slow part before taking the lock
+    // Futures are completed once the lock is let go, so whatever runs next doesn't hold it up
+    private void applyBatch(List<Queued<T>> batch) {
+        Object[] results = new Object[batch.size()];
+        int from = 0;
+        while (from < batch.size()) {
+            int to = from;
+            while (to < batch.size() && !runsAlone(batch.get(to).command())) {
+                to++;
+            }
+            if (to > from) {
+                int first = from;
+                int end = to;
+                taskManager.applyTogether(() -> {
+                    for (int i = first; i < end; i++) {
+                        results[i] = apply(batch.get(i));
+                    }
+                });
+            }
+            if (to < batch.size()) {
+                results[to] = apply(batch.get(to));
+                to++;
+            }
+            from = to;
+        }
+        for (int i = 0; i < results.length; i++) {
+            CompletableFuture<List<T>> done = batch.get(i).done();
+            if (results[i] instanceof Exception error) {
+                done.completeExceptionally(error);
+            } else {
+                @SuppressWarnings("unchecked")
+                List<T> removed = (List<T>) results[i];
+                done.complete(removed);
+            }
+        }
+    }
+
+    // Commands with a slow part: loads and filtered removals run it before taking the write lock,
+    // and opening a journaled file takes the lock for as long as it needs
+    private static boolean runsAlone(Command<?> command) {
+        return command instanceof Command.Load<?> || command instanceof Command.RemoveIf<?>
+                || command instanceof Command.OpenJournaled<?>;
+    }
+
+    private static IllegalStateException closedError() {
+        return new IllegalStateException("Task commands are closed");
+    }
+
+    // Makes one change; returns the tasks it removed, or the exception it failed with
+    // so one bad command doesn't stop the rest of the batch
+    private Object apply(Queued<T> queued) {
+        BooleanSupplier cancelled = queued.done()::isCancelled;
+        if (cancelled.getAsBoolean()) {
+            return new CancellationException();
+        }
+        try {
+            return switch (queued.command()) {
+                case Command.Add<T> add -> {
+                    taskManager.addAll(add.tasks());
+                    yield List.of();
+                }
+                case Command.Remove<T> remove -> taskManager.removeAll(remove.tasks());
+                case Command.RemoveIf<T> removeIf -> taskManager.removeIf(removeIf.filter(), cancelled);
+                case Command.RemovePriorityRange<T> range -> taskManager.removePriorityRange(range.low(), range.high());
+                case Command.RemoveTitleContaining<T> title -> taskManager.removeTasksWithTitleContaining(title.text());
+                case Command.Load<T> load -> {
+                    taskManager.loadTasksFromFile(load.filename(), cancelled);
+                    yield List.of();
+                }
+                case Command.OpenJournaled<T> open -> {
+                    taskManager.openJournaled(open.filename(), open.options());
+                    yield List.of();
+                }
+                case Command.Sort<T> sort -> {
+                    taskManager.sortTasks(sort.keys().toArray(new TaskSorter.Key[0]));
+                    yield List.of();
+                }
+                case Command.Undo<T> _ -> {
+                    taskManager.undo();
+                    yield List.of();
+                }
+                case Command.Redo<T> _ -> {
+                    taskManager.redo();
+                    yield List.of();
+                }
+            };
+        } catch (Exception e) {
+            return e;
+        }
+    }
+}
@@ -1,88 +1,271 @@
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.List;
-import java.util.concurrent.ThreadPoolExecutor;
-import javafx.beans.property.SimpleIntegerProperty;
-import javafx.beans.property.IntegerProperty;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
+import java.util.function.Predicate;
+import javax.management.JMException;
 
 // Handles background tasks and multi-threading operations
 // Uses a thread pool to run tasks without freezing the UI
+// File work (saving, loading, importing, exporting) spends most of its time blocked, so it
+// runs apart from CPU work (sorting, filtering, searching), which has a pool sized to the
+// processors; a burst of saves never takes the threads a sort needs
+// Every job goes through a JobScheduler first, which starts jobs the user is waiting for ahead
+// of saves and exports, turns jobs away once too many are waiting, drops a waiting save when a
+// newer one to the same file comes in, and lets jobs be cancelled through their futures
 public class TaskExecutor {
+    // Jobs that can wait to start before new ones are turned away (see JobScheduler.Overflow)
+    public static final int MAX_WAITING_JOBS = 64;
+    // Jobs running at once on virtual threads; with a pool it's the pool threads instead
+    public static final int MAX_VIRTUAL_JOBS = 64;
+    private static final System.Logger LOG = System.getLogger(TaskExecutor.class.getName());
+
+    // How file work is run
+    // Picked with -Dtaskmanager.ioMode=platform or virtual (the default)
+    public enum IoMode {
+        VIRTUAL_THREADS,  // A virtual thread per job, so any number of files can be written at once
+        PLATFORM_POOL;    // A pool of platform threads sized to the processors
+
+        static IoMode configured() {
+            return "platform".equalsIgnoreCase(System.getProperty("taskmanager.ioMode"))
+                    ? PLATFORM_POOL : VIRTUAL_THREADS;
+        }
+    }
+
+    // Kinds of background work, for poolFor()
+    public enum Job {
+        SAVE, LOAD, OPEN, IMPORT, EXPORT,  // File work
+        SORT, FILTER, SEARCH, WARM_UP      // CPU work
+    }
+
+    private final IoMode ioMode;
     private final ExecutorService executorService;
-    private final ThreadPoolExecutor threadPool;
-    // Keeps track of how many threads are currently running
-    private final IntegerProperty activeThreads = new SimpleIntegerProperty(0);
+    // Runs the file work and counts what it does as it goes, for the status bar and JMX
+    private final InstrumentedExecutor threadPool;
+    // Splits big sorts and filters across all processors, and runs searches
+    private final ForkJoinPool computePool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    // Decides which job runs when
+    private final JobScheduler scheduler;
 
     public TaskExecutor() {
-        // Create a thread pool that adjusts to the computer's capabilities
-        this.threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(
-            Runtime.getRuntime().availableProcessors()
-        );
+        this(IoMode.configured(), JobScheduler.Overflow.configured());
+    }
+
+    public TaskExecutor(IoMode ioMode) {
+        this(ioMode, JobScheduler.Overflow.configured());
+    }
+
+    // overflow says what happens to a job asked for while MAX_WAITING_JOBS are already waiting
+    public TaskExecutor(IoMode ioMode, JobScheduler.Overflow overflow) {
+        this.ioMode = ioMode;
+        if (ioMode == IoMode.VIRTUAL_THREADS) {
+            this.threadPool = InstrumentedExecutor.virtualThreads("task-io");
+        } else {
+            // Create a thread pool that adjusts to the computer's capabilities
+            this.threadPool = new InstrumentedExecutor(Runtime.getRuntime().availableProcessors(),
+                    Thread.ofPlatform().name("task-io-", 0).daemon(false).factory());
+        }
         this.executorService = threadPool;
-        
-        // Start watching how many threads are being used
-        startThreadMonitor();
-    }
-
-    // Watches and updates the number of active threads
-    private void startThreadMonitor() {
-        Thread monitor = new Thread(() -> {
-            while (!threadPool.isShutdown()) {
-                activeThreads.set(threadPool.getActiveCount());
-                try {
-                    Thread.sleep(100); // Check every 100ms
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
-            }
-        });
-        monitor.setDaemon(true);
-        monitor.start();
+        try {
+            threadPool.export("io");
+        } catch (JMException e) {
+            // Only means the pool can't be watched from outside; the status bar still shows it
+            LOG.log(System.Logger.Level.WARNING, "Could not publish thread pool stats", e);
+        }
+        int maxRunning = ioMode == IoMode.VIRTUAL_THREADS ? MAX_VIRTUAL_JOBS
+                : threadPool.getCorePoolSize() + computePool.getParallelism();
+        this.scheduler = new JobScheduler(maxRunning, MAX_WAITING_JOBS, overflow);
+    }
+
+    public IoMode getIoMode() {
+        return ioMode;
     }
 
-    // Gets the maximum number of threads available
+    // Says which pool runs a kind of job, e.g. "io (virtual threads)"
+    public String poolFor(Job job) {
+        return switch (job) {
+            case SAVE, LOAD, OPEN, IMPORT, EXPORT ->
+                    ioMode == IoMode.VIRTUAL_THREADS ? "io (virtual threads)" : "io (platform pool)";
+            case SORT, FILTER, SEARCH, WARM_UP -> "compute (fork-join, " + computePool.getParallelism() + " threads)";
+        };
+    }
+
+    // Gets the maximum number of threads available for file work
+    // Virtual threads have no such limit, so this is -1 for them
     public int getMaxThreads() {
-        return threadPool.getCorePoolSize();
+        return ioMode == IoMode.VIRTUAL_THREADS ? -1 : threadPool.getCorePoolSize();
+    }
+
+    // What the file work pool has done so far: tasks running and waiting, wait and run times,
+    // failures and rejections
+    public InstrumentedExecutor.Stats getPoolStats() {
+        return threadPool.stats();
     }
 
-    // Used by the UI to show how many threads are running
-    public IntegerProperty activeThreadsProperty() {
-        return activeThreads;
+    // How many jobs are running and waiting to start, and how many were replaced or turned away
+    public JobScheduler.Stats getJobStats() {
+        return scheduler.stats();
+    }
+
+    // Runs the listener whenever the pool or job stats change, on whichever thread changed them
+    // Used by the UI (through a FrameSampler) to show how many threads are running
+    public void onPoolStatsChanged(Runnable listener) {
+        threadPool.setChangeListener(listener);
+        scheduler.setChangeListener(listener);
+    }
+
+    // Runs work on the compute pool after a delay, e.g. to search once someone finishes typing
+    // Work started with CompletableFuture.runAsync never runs if its future is cancelled in the meantime
+    public Executor delayedExecutor(long delayMillis) {
+        return CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, computePool);
     }
 
     // Saves tasks in the background
+    // Only one save per file runs at a time; a save asked for while another to the same file is
+    // still waiting replaces it (and its future completes with the newer one), so however often
+    // Save is pressed there's at most one save running and one waiting for each file
     public CompletableFuture<Void> saveTasksAsync(TaskManager<?> taskManager, String filename) {
-        return CompletableFuture.runAsync(() -> {
-            try {
-                taskManager.saveTasksToFile(filename);
-            } catch (Exception e) {
-                throw new RuntimeException("Error saving tasks: " + e.getMessage(), e);
-            }
-        }, executorService);
+        return fileJob(JobScheduler.Priority.BACKGROUND_IO, "save:" + Path.of(filename).toAbsolutePath().normalize(),
+                "Error saving tasks: ", _ -> {
+                    taskManager.saveTasksToFile(filename);
+                    return null;
+                });
     }
 
     // Loads tasks in the background
+    // Cancelling the future while the file is being read keeps the current tasks
     public CompletableFuture<Void> loadTasksAsync(TaskManager<?> taskManager, String filename) {
-        return CompletableFuture.runAsync(() -> {
+        return fileJob(JobScheduler.Priority.INTERACTIVE, null, "Error loading tasks: ", cancelled -> {
+            taskManager.loadTasksFromFile(filename, cancelled);
+            return null;
+        });
+    }
+
+    // Opens a task file in the background without decoding every task up front
+    public CompletableFuture<Void> openTasksAsync(TaskManager<?> taskManager, String filename) {
+        return fileJob(JobScheduler.Priority.INTERACTIVE, null, "Error loading tasks: ", cancelled -> {
+            taskManager.openTasksFromFile(filename, cancelled);
+            return null;
+        });
+    }
+
+    // Opens a journaled task file in the background, replaying changes made since it was written
+    // Cancelling only helps before it starts: by then the old journal is closed, so it has to finish
+    public CompletableFuture<Void> openJournaledAsync(TaskManager<?> taskManager, String filename) {
+        return fileJob(JobScheduler.Priority.INTERACTIVE, null, "Error loading tasks: ", _ -> {
+            taskManager.openJournaled(filename, TaskJournal.Options.defaults());
+            return null;
+        });
+    }
+
+    // Imports tasks from a CSV or JSON Lines file in the background
+    // progress gets the fraction of the file read so far, on the worker thread
+    public CompletableFuture<Long> importTasksAsync(TaskManager<?> taskManager, String filename,
+                                                    DoubleConsumer progress) {
+        return fileJob(JobScheduler.Priority.BACKGROUND_IO, null, "Error importing tasks: ",
+                _ -> taskManager.importTasks(filename, progress));
+    }
+
+    // Same, but each batch is added through commands, so the import takes its turn with the
+    // other changes instead of making its own from the worker thread
+    // The next batch is only read once the last one has been added, so an import never fills
+    // up the queue
+    public CompletableFuture<Long> importTasksAsync(TaskCommands<Task> commands, String filename,
+                                                    DoubleConsumer progress) {
+        return fileJob(JobScheduler.Priority.BACKGROUND_IO, null, "Error importing tasks: ", _ -> {
+            Path path = Path.of(filename);
+            return TaskTransfer.importTasks(path, TaskTransfer.Format.forPath(path), TaskTransfer.DEFAULT_BATCH_SIZE,
+                    batch -> {
+                        // The batch list is reused for the next batch, so the command gets a copy
+                        try {
+                            commands.addAll(List.copyOf(batch)).join();
+                        } catch (CompletionException e) {
+                            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+                        }
+                    }, progress);
+        });
+    }
+
+    // Exports tasks to a CSV or JSON Lines file in the background
+    public CompletableFuture<Void> exportTasksAsync(TaskManager<?> taskManager, String filename) {
+        return fileJob(JobScheduler.Priority.BACKGROUND_IO, null, "Error exporting tasks: ", _ -> {
+            taskManager.exportTasks(filename);
+            return null;
+        });
+    }
+
+    // Works out a sort order in parallel; call sortTasks with the same keys once it's done
+    // Cancelling the future stops the sort soon after
+    public CompletableFuture<Void> sortTasksAsync(TaskManager<?> taskManager, DoubleConsumer progress,
+                                                  TaskSorter.Key... keys) {
+        return scheduler.submit(JobScheduler.Priority.INTERACTIVE, null,
+                cancelled -> taskManager.prepareSort(computePool, cancelled, progress, keys));
+    }
+
+    // Finds the tasks matching a filter in parallel, keeping their order
+    // Cancelling the future stops the filter soon after
+    public <T extends Task> CompletableFuture<List<T>> filterTasksAsync(TaskManager<T> taskManager,
+                                                                        Predicate<? super T> filter,
+                                                                        DoubleConsumer progress) {
+        return scheduler.submit(JobScheduler.Priority.INTERACTIVE, null,
+                cancelled -> taskManager.filterTasks(filter, computePool, cancelled, progress));
+    }
+
+    // Builds the indexes a load dropped (see TaskManager.warmUpIndexes) on the compute pool
+    // It's maintenance, so it waits behind every other job, is cancelled at shutdown, and with
+    // Overflow.DROP_LOWER is what gets dropped when the queue is full
+    public CompletableFuture<Void> warmUpIndexesAsync(TaskManager<?> taskManager) {
+        return scheduler.submit(JobScheduler.Priority.MAINTENANCE, null,
+                cancelled -> CompletableFuture.runAsync(() -> taskManager.warmUpIndexes(cancelled), computePool));
+    }
+
+    // File work that may block; gets the job's cancellation token
+    @FunctionalInterface
+    private interface FileWork<V> {
+        V run(BooleanSupplier cancelled) throws Exception;
+    }
+
+    // Schedules file work to run on the file work pool, wrapping its errors with the message
+    private <V> CompletableFuture<V> fileJob(JobScheduler.Priority priority, String key, String errorMessage,
+                                             FileWork<V> work) {
+        // Through the pool's own supply, so a job that fails is counted as failed
+        return scheduler.submit(priority, key, cancelled -> threadPool.supply(() -> {
             try {
-                taskManager.loadTasksFromFile(filename);
+                return work.run(cancelled);
+            } catch (CancellationException e) {
+                throw e;
             } catch (Exception e) {
-                throw new RuntimeException("Error loading tasks: " + e.getMessage(), e);
+                throw new RuntimeException(errorMessage + e.getMessage(), e);
             }
-        }, executorService);
-    }
-
-    // Deletes multiple tasks in the background
-    public CompletableFuture<Void> bulkDeleteAsync(List<Task> tasks, TaskManager<Task> taskManager) {
-        return CompletableFuture.runAsync(() -> {
-            tasks.forEach(taskManager::removeTask);
-        }, executorService);
+        }));
     }
 
     // Cleans up threads when the program closes
+    // Loads, sorts, index warm-ups and the like are cancelled since nobody is waiting for them any more, but
+    // saves, imports and exports (even ones still waiting) are finished first: virtual threads
+    // don't keep the program running the way pool threads do, so a save could otherwise be cut off
     public void shutdown() {
+        scheduler.shutdown(priority -> priority != JobScheduler.Priority.BACKGROUND_IO);
+        try {
+            scheduler.awaitIdle();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         executorService.shutdown();
+        computePool.shutdown();
+        if (ioMode == IoMode.VIRTUAL_THREADS) {
+            try {
+                executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 } 
\ No newline at end of file
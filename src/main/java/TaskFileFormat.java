@@ -0,0 +1,143 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+// Layout of the binary tasks file and the helpers to encode and decode it
+//
+// File:    header, then blocks, then an empty block that marks the end, then the index
+// Header:  int magic, short version, short flags, int records per block, int generation
+//          (the generation is 0 unless the file is a snapshot managed by TaskJournal)
+// Block:   int record count, int payload length, int CRC32 of the payload, payload
+// Index:   long file offset of every block, then int payload offset of every record
+//          (version 2 and later; lets a reader jump straight to the i-th record)
+// Trailer: long index offset, long record count, int block count, int magic
+// Record:  byte flags, varint priority, varint due date (epoch day, only if present),
+//          string title, string description
+// String:  varint tag; 0 = null, odd = back-reference to an earlier string in the
+//          same block (tag >> 1 is its offset in the payload), even = inline string
+//          of (tag >> 1) - 1 UTF-8 bytes
+//
+// Priorities and epoch days are zigzag-encoded so negative values stay small
+final class TaskFileFormat {
+    static final int MAGIC = 0x54534B46;  // "TSKF"
+    static final short VERSION = 2;
+    static final short FIRST_INDEXED_VERSION = 2;
+    static final int HEADER_SIZE = 16;
+    static final int BLOCK_HEADER_SIZE = 12;
+    static final int TRAILER_SIZE = 24;
+    static final int DEFAULT_RECORDS_PER_BLOCK = 1024;
+
+    static final int FLAG_HAS_DUE_DATE = 1;
+
+    // The first two bytes of a file written with ObjectOutputStream
+    static final short JAVA_SERIALIZATION_MAGIC = (short) 0xACED;
+
+    // Largest number of bytes a varint can take
+    static final int MAX_VARINT_SIZE = 5;
+
+    private TaskFileFormat() {
+    }
+
+    static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint in task file");
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Turns a due date into the int stored in the file
+    static int toEpochDay(LocalDate date) {
+        return Math.toIntExact(date.toEpochDay());
+    }
+
+    // Decodes one record at the buffer's position, moving past it
+    // Strings are read through the decoder so repeated ones can share a single instance
+    static Task readRecord(ByteBuffer buffer, int payloadStart, StringDecoder strings) {
+        int flags = buffer.get();
+        int priority = unzigzag(getVarInt(buffer));
+        LocalDate dueDate = (flags & FLAG_HAS_DUE_DATE) != 0
+                ? LocalDate.ofEpochDay(unzigzag(getVarInt(buffer)))
+                : null;
+        String title = strings.read(buffer, payloadStart);
+        String description = strings.read(buffer, payloadStart);
+        return new Task(title, description, priority, dueDate);
+    }
+
+    // Reads strings out of record payloads
+    // Remembers each inline string it decodes (by payload offset) so back-references
+    // within a block don't decode it again, and interns strings across blocks
+    static final class StringDecoder {
+        private final HashTable<Integer, String> blockStrings = new HashTable<>();
+        private final HashTable<String, String> interned;
+        private byte[] scratch = new byte[256];
+
+        // Pass intern = false when decoded strings shouldn't be kept alive between blocks
+        StringDecoder(boolean intern) {
+            this.interned = intern ? new HashTable<>() : null;
+        }
+
+        // Forgets the strings of the previous block
+        void startBlock() {
+            blockStrings.clear();
+        }
+
+        String read(ByteBuffer buffer, int payloadStart) {
+            int tag = getVarInt(buffer);
+            if (tag == 0) {
+                return null;
+            }
+            if ((tag & 1) != 0) {
+                int offset = tag >>> 1;
+                String known = blockStrings.get(offset);
+                if (known != null) {
+                    return known;
+                }
+                // Not seen yet (the reader jumped straight to this record), so decode it in place
+                ByteBuffer earlier = buffer.duplicate().position(payloadStart + offset);
+                return read(earlier, payloadStart);
+            }
+            int offset = buffer.position() - sizeOfVarInt(tag) - payloadStart;
+            int length = (tag >>> 1) - 1;
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.get(scratch, 0, length);
+            String value = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            if (interned != null) {
+                value = interned.computeIfAbsent(value, s -> s);
+            }
+            blockStrings.put(offset, value);
+            return value;
+        }
+    }
+
+    static int sizeOfVarInt(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
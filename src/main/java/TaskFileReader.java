@@ -0,0 +1,114 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Reads tasks back from a file in the binary format described in TaskFileFormat
+// One block is read and checked at a time, so memory use doesn't depend on file size
+public final class TaskFileReader {
+    private TaskFileReader() {
+    }
+
+    // Reads every task in the file into a list
+    public static List<Task> readAll(Path path) throws IOException {
+        List<Task> tasks = new ArrayList<>();
+        read(path, tasks::add);
+        return tasks;
+    }
+
+    // Hands each task in the file to the consumer, in file order
+    public static void read(Path path, Consumer<? super Task> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(TaskFileFormat.HEADER_SIZE);
+            readFully(channel, header);
+            header.flip();
+            if (header.getInt() != TaskFileFormat.MAGIC) {
+                throw new IOException("Not a task file: " + path);
+            }
+            short version = header.getShort();
+            if (version < 1 || version > TaskFileFormat.VERSION) {
+                throw new IOException("Unsupported task file version " + version + ": " + path);
+            }
+
+            TaskFileFormat.StringDecoder strings = new TaskFileFormat.StringDecoder(true);
+            ByteBuffer blockHeader = ByteBuffer.allocate(TaskFileFormat.BLOCK_HEADER_SIZE);
+            ByteBuffer payload = ByteBuffer.allocate(64 * 1024);
+            CRC32 crc = new CRC32();
+            for (int block = 0; ; block++) {
+                blockHeader.clear();
+                readFully(channel, blockHeader);
+                blockHeader.flip();
+                int recordCount = blockHeader.getInt();
+                int payloadLength = blockHeader.getInt();
+                int checksum = blockHeader.getInt();
+                if (recordCount == 0) {
+                    return;  // End marker
+                }
+                if (recordCount < 0 || payloadLength < 0) {
+                    throw new IOException("Corrupt task file, bad header on block " + block + ": " + path);
+                }
+
+                if (payload.capacity() < payloadLength) {
+                    payload = ByteBuffer.allocate(Math.max(payloadLength, payload.capacity() * 2));
+                }
+                payload.clear().limit(payloadLength);
+                readFully(channel, payload);
+                payload.flip();
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("Corrupt task file, checksum mismatch in block " + block + ": " + path);
+                }
+
+                strings.startBlock();
+                for (int i = 0; i < recordCount; i++) {
+                    Task task;
+                    try {
+                        task = TaskFileFormat.readRecord(payload, 0, strings);
+                    } catch (RuntimeException e) {
+                        throw new IOException("Corrupt task file, bad record in block " + block + ": " + path, e);
+                    }
+                    consumer.accept(task);
+                }
+            }
+        }
+    }
+
+    // Returns the snapshot generation stamped in a file's header (0 for ordinary saves)
+    public static int readGeneration(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(TaskFileFormat.HEADER_SIZE);
+            readFully(channel, header);
+            header.flip();
+            if (header.getInt() != TaskFileFormat.MAGIC) {
+                throw new IOException("Not a task file: " + path);
+            }
+            return header.getInt(TaskFileFormat.HEADER_SIZE - Integer.BYTES);
+        }
+    }
+
+    // Checks whether a file was written by the old ObjectOutputStream-based save
+    public static boolean isLegacyFormat(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer start = ByteBuffer.allocate(2);
+            if (channel.read(start) < 2) {
+                return false;
+            }
+            return start.flip().getShort() == TaskFileFormat.JAVA_SERIALIZATION_MAGIC;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Task file ended unexpectedly");
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+// Writes tasks to a file in the binary format described in TaskFileFormat
+// Records are collected into blocks in memory and each full block is written
+// to the file channel in one go, along with its checksum
+public class TaskFileWriter implements Closeable {
+    // Back-references store the payload offset shifted left by one, so it has to fit in 30 bits
+    private static final int MAX_BACK_REFERENCE = 1 << 30;
+
+    private final FileChannel channel;
+    private final int recordsPerBlock;
+    private final ByteBuffer blockHeader = ByteBuffer.allocate(TaskFileFormat.BLOCK_HEADER_SIZE);
+    private final CRC32 crc = new CRC32();
+    // Payload offset of every string already written in the current block
+    private final HashTable<String, Integer> blockStrings = new HashTable<>();
+    private ByteBuffer payload = ByteBuffer.allocate(64 * 1024);
+    private int recordsInBlock;
+    private boolean closed;
+
+    // Bytes written so far, and where each block and record ended up (for the index)
+    private long position;
+    private long[] blockOffsets = new long[16];
+    private int blockCount;
+    private int[] recordOffsets = new int[1024];
+    private int recordCount;
+
+    // Opens (or replaces) a task file and writes its header
+    public TaskFileWriter(Path path) throws IOException {
+        this(path, TaskFileFormat.DEFAULT_RECORDS_PER_BLOCK, 0);
+    }
+
+    // Opens a task file stamped with a snapshot generation (see TaskJournal)
+    public TaskFileWriter(Path path, int recordsPerBlock, int generation) throws IOException {
+        if (recordsPerBlock <= 0) {
+            throw new IllegalArgumentException("Records per block must be positive: " + recordsPerBlock);
+        }
+        this.recordsPerBlock = recordsPerBlock;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(TaskFileFormat.HEADER_SIZE)
+                .putInt(TaskFileFormat.MAGIC)
+                .putShort(TaskFileFormat.VERSION)
+                .putShort((short) 0)
+                .putInt(recordsPerBlock)
+                .putInt(generation)
+                .flip();
+        writeFully(header);
+    }
+
+    // Writes every task to a file, replacing whatever was there
+    public static void writeAll(Path path, Iterable<? extends Task> tasks) throws IOException {
+        writeAll(path, tasks, 0);
+    }
+
+    // Writes every task to a file stamped with the given snapshot generation
+    public static void writeAll(Path path, Iterable<? extends Task> tasks, int generation) throws IOException {
+        try (TaskFileWriter writer = new TaskFileWriter(path, TaskFileFormat.DEFAULT_RECORDS_PER_BLOCK, generation)) {
+            for (Task task : tasks) {
+                writer.write(task);
+            }
+        }
+    }
+
+    // Copies whole blocks from the front of an existing task file instead of encoding their tasks again
+    // Copies as many full blocks as fit in maxRecords and returns how many records that was;
+    // returns 0 if the file can't be reused (older format or a different block size)
+    // Must be called before anything is written
+    public int copyBlocks(Path source, int maxRecords) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            return copyBlocks(in, maxRecords);
+        }
+    }
+
+    // Same, from a file that's already open, e.g. so the blocks come from the version of the file
+    // that was there when it was opened even if it has been replaced since
+    public int copyBlocks(FileChannel in, int maxRecords) throws IOException {
+        if (recordCount > 0) {
+            throw new IllegalStateException("Blocks can only be copied into an empty task file");
+        }
+        long fileSize = in.size();
+        if (fileSize < TaskFileFormat.HEADER_SIZE + TaskFileFormat.BLOCK_HEADER_SIZE + TaskFileFormat.TRAILER_SIZE) {
+            return 0;
+        }
+        ByteBuffer header = readAt(in, 0, TaskFileFormat.HEADER_SIZE);
+        if (header.getInt() != TaskFileFormat.MAGIC || header.getShort() < TaskFileFormat.FIRST_INDEXED_VERSION
+                || header.getInt(Integer.BYTES + Short.BYTES * 2) != recordsPerBlock) {
+            return 0;
+        }
+        ByteBuffer trailer = readAt(in, fileSize - TaskFileFormat.TRAILER_SIZE, TaskFileFormat.TRAILER_SIZE);
+        long indexOffset = trailer.getLong();
+        long sourceRecords = trailer.getLong();
+        int sourceBlocks = trailer.getInt();
+        if (trailer.getInt() != TaskFileFormat.MAGIC) {
+            return 0;
+        }
+        // Only full blocks can be reused, since the next task written has to start a new block
+        int blocks = (int) Math.min(maxRecords / recordsPerBlock, sourceRecords / recordsPerBlock);
+        if (blocks <= 0) {
+            return 0;
+        }
+
+        ByteBuffer offsets = readAt(in, indexOffset, (blocks + 1) * Long.BYTES);
+        long[] sourceOffsets = new long[blocks + 1];
+        for (int i = 0; i <= blocks; i++) {
+            sourceOffsets[i] = offsets.getLong();
+        }
+        long copyEnd = blocks < sourceBlocks ? sourceOffsets[blocks] : indexOffset - TaskFileFormat.BLOCK_HEADER_SIZE;
+        if (sourceOffsets[0] != TaskFileFormat.HEADER_SIZE) {
+            return 0;
+        }
+
+        int records = blocks * recordsPerBlock;
+        if (recordOffsets.length < records) {
+            recordOffsets = Arrays.copyOf(recordOffsets, records);
+        }
+        long recordIndex = indexOffset + (long) sourceBlocks * Long.BYTES;
+        for (int done = 0; done < records; ) {
+            int chunk = Math.min(records - done, payload.capacity() / Integer.BYTES);
+            ByteBuffer buffer = payload.clear().limit(chunk * Integer.BYTES);
+            readFully(in, buffer, recordIndex + (long) done * Integer.BYTES);
+            buffer.flip().asIntBuffer().get(recordOffsets, done, chunk);
+            done += chunk;
+        }
+        payload.clear();
+        recordCount = records;
+
+        // The header is the same size in both files, so the blocks keep their offsets
+        long remaining = copyEnd - TaskFileFormat.HEADER_SIZE;
+        long from = TaskFileFormat.HEADER_SIZE;
+        while (remaining > 0) {
+            long moved = in.transferTo(from, remaining, channel);
+            from += moved;
+            remaining -= moved;
+        }
+        position = copyEnd;
+        channel.position(position);
+        if (blockOffsets.length < blocks) {
+            blockOffsets = Arrays.copyOf(blockOffsets, Math.max(blocks, blockOffsets.length * 2));
+        }
+        System.arraycopy(sourceOffsets, 0, blockOffsets, 0, blocks);
+        blockCount = blocks;
+        return records;
+    }
+
+    // Makes an empty file next to target to write its new version into, e.g. tasks.dat.123.saving
+    // Each write gets a file of its own, so two writes to the same target never share one
+    static Path tempFileFor(Path target, String purpose) throws IOException {
+        return Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName() + ".", "." + purpose);
+    }
+
+    // Forces a finished file to disk and renames it over the target in one step
+    // Readers see either the old file or the new one, never a partly written one
+    static void moveIntoPlace(Path temp, Path target) throws IOException {
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            file.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Adds one task to the file
+    public void write(Task task) throws IOException {
+        byte[] title = utf8(task.getTitle());
+        byte[] description = utf8(task.getDescription());
+        ensureCapacity(1 + 2 * TaskFileFormat.MAX_VARINT_SIZE
+                + stringSize(title) + stringSize(description));
+        if (recordCount == recordOffsets.length) {
+            recordOffsets = Arrays.copyOf(recordOffsets, recordOffsets.length * 2);
+        }
+        recordOffsets[recordCount++] = payload.position();
+
+        int flags = task.getDueDate() != null ? TaskFileFormat.FLAG_HAS_DUE_DATE : 0;
+        payload.put((byte) flags);
+        TaskFileFormat.putVarInt(payload, TaskFileFormat.zigzag(task.getPriority()));
+        if (task.getDueDate() != null) {
+            TaskFileFormat.putVarInt(payload, TaskFileFormat.zigzag(TaskFileFormat.toEpochDay(task.getDueDate())));
+        }
+        putString(task.getTitle(), title);
+        putString(task.getDescription(), description);
+
+        if (++recordsInBlock == recordsPerBlock) {
+            flushBlock();
+        }
+    }
+
+    // Writes any partly filled block, the end marker and the index, then closes the file
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try (channel) {
+            flushBlock();
+            writeBlockHeader(0, 0, 0);
+            writeIndex();
+        }
+    }
+
+    // Writes the block and record offsets followed by the trailer that points at them
+    private void writeIndex() throws IOException {
+        long indexOffset = position;
+        ByteBuffer buffer = payload.clear();
+        for (int i = 0; i < blockCount; i++) {
+            if (buffer.remaining() < Long.BYTES) {
+                writeFully(buffer.flip());
+                buffer.clear();
+            }
+            buffer.putLong(blockOffsets[i]);
+        }
+        for (int i = 0; i < recordCount; i++) {
+            if (buffer.remaining() < Integer.BYTES) {
+                writeFully(buffer.flip());
+                buffer.clear();
+            }
+            buffer.putInt(recordOffsets[i]);
+        }
+        if (buffer.remaining() < TaskFileFormat.TRAILER_SIZE) {
+            writeFully(buffer.flip());
+            buffer.clear();
+        }
+        buffer.putLong(indexOffset)
+                .putLong(recordCount)
+                .putInt(blockCount)
+                .putInt(TaskFileFormat.MAGIC);
+        writeFully(buffer.flip());
+    }
+
+    private void putString(String value, byte[] bytes) {
+        if (value == null) {
+            TaskFileFormat.putVarInt(payload, 0);
+            return;
+        }
+        Integer earlier = blockStrings.get(value);
+        if (earlier != null) {
+            TaskFileFormat.putVarInt(payload, (earlier << 1) | 1);
+            return;
+        }
+        if (payload.position() < MAX_BACK_REFERENCE) {
+            blockStrings.put(value, payload.position());
+        }
+        TaskFileFormat.putVarInt(payload, (bytes.length + 1) << 1);
+        payload.put(bytes);
+    }
+
+    private void flushBlock() throws IOException {
+        if (recordsInBlock == 0) {
+            return;
+        }
+        payload.flip();
+        crc.reset();
+        crc.update(payload.duplicate());
+        if (blockCount == blockOffsets.length) {
+            blockOffsets = Arrays.copyOf(blockOffsets, blockOffsets.length * 2);
+        }
+        blockOffsets[blockCount++] = position;
+        writeBlockHeader(recordsInBlock, payload.remaining(), (int) crc.getValue());
+        writeFully(payload);
+        payload.clear();
+        blockStrings.clear();
+        recordsInBlock = 0;
+    }
+
+    private void writeBlockHeader(int recordCount, int payloadLength, int checksum) throws IOException {
+        blockHeader.clear();
+        blockHeader.putInt(recordCount).putInt(payloadLength).putInt(checksum).flip();
+        writeFully(blockHeader);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+    }
+
+    private static ByteBuffer readAt(FileChannel in, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(in, buffer, offset);
+        return buffer.flip();
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, long offset) throws IOException {
+        long start = offset - buffer.position();
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, start + buffer.position()) < 0) {
+                throw new IOException("Task file ended unexpectedly");
+            }
+        }
+    }
+
+    private void ensureCapacity(int needed) {
+        if (payload.remaining() >= needed) {
+            return;
+        }
+        int newCapacity = Math.max(payload.capacity() * 2, payload.position() + needed);
+        ByteBuffer bigger = ByteBuffer.allocate(newCapacity);
+        payload.flip();
+        bigger.put(payload);
+        payload = bigger;
+    }
+
+    private static int stringSize(byte[] bytes) {
+        return TaskFileFormat.MAX_VARINT_SIZE + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+}
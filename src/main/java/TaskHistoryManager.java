@@ -1,42 +1,423 @@
-import java.util.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
 
 // Keeps track of changes to tasks so we can undo and redo them
-public class TaskHistoryManager<T> {
-    // Two stacks: one for undo, one for redo
-    private final Stack<HistoryRecord<T>> undoStack = new Stack<>();
-    private final Stack<HistoryRecord<T>> redoStack = new Stack<>();
+// Undo history is a ring buffer limited by entry count and by how much memory the entries hold on to;
+// once it's full the oldest entry is dropped, or moved to a spill file on disk if there is one
+// Changes of the same kind made close together can be set to become one entry, so they undo in one step
+public class TaskHistoryManager<T extends Task> {
+    // Rough memory cost of a task only the history still holds (object, strings, date)
+    private static final int TASK_BYTES = 120;
+    // Memory cost of pointing at a task that's still in the list anyway
+    private static final int REFERENCE_BYTES = 8;
+    // An entry this big stops taking in more changes, so merging into it stays cheap
+    private static final int MAX_COALESCED = 1024;
 
-    // Stores what happened to a task
-    public record HistoryRecord<T>(T task, String operation) {
+    // What a history entry did
+    public enum Operation {
+        ADD,
+        REMOVE
     }
 
-    // Saves a task change to history
+    // How much history is kept
+    // Changes of the same kind less than coalesceWindow apart share an entry; it's off (zero) by
+    // default, since two quick clicks are still two things the user did
+    // Entries pushed out of memory go to spillPath if it isn't null
+    public record Options(int maxEntries, long maxBytes, Duration coalesceWindow, Path spillPath) {
+        public static Options defaults() {
+            return new Options(1000, 64L * 1024 * 1024, Duration.ZERO, null);
+        }
+    }
+
+    // Stores what happened to one or more tasks
+    // Bulk operations are kept as a single record so they undo in one step
+    // Tasks are in position order; positions are ascending and say where each task was in the
+    // list with all of them in it (where added tasks ended up, or where removed ones had been),
+    // so putting them all back at those positions restores the list in one go
+    // Tasks read back from the spill file are copies, not the tasks that were changed (restored is set)
+    public record HistoryRecord<T>(List<T> tasks, int[] positions, Operation operation, boolean restored) {
+    }
+
+    // One entry; the newest undo entry stays open for coalescing until something else happens
+    private static final class Entry<T> {
+        final Operation operation;
+        List<T> tasks;
+        int[] positions;
+        final boolean restored;
+        long bytes;
+        long lastChange;
+        boolean open;
+
+        Entry(Operation operation, List<T> tasks, int[] positions, boolean restored, long bytes) {
+            this.operation = operation;
+            this.tasks = tasks;
+            this.positions = positions;
+            this.restored = restored;
+            this.bytes = bytes;
+        }
+
+        HistoryRecord<T> record() {
+            return new HistoryRecord<>(Collections.unmodifiableList(tasks), positions.clone(), operation, restored);
+        }
+    }
+
+    private final Options options;
+    // Undo entries, oldest at head
+    private List<Entry<T>> ring;
+    private int head;
+    private int count;
+    private final Deque<Entry<T>> redoStack = new ArrayDeque<>();
+    private long bytes;  // Estimated memory held by undo and redo entries together
+    private Spill spill;  // Opened the first time an entry is spilled
+    private IOException lost;  // Why older entries couldn't be spilled; reported when undo gets that far
+
+    public TaskHistoryManager() {
+        this(Options.defaults());
+    }
+
+    public TaskHistoryManager(Options options) {
+        if (options.maxEntries() < 1) {
+            throw new IllegalArgumentException("History must keep at least one entry");
+        }
+        this.options = options;
+        this.ring = emptyRing(Math.min(options.maxEntries(), 16));
+    }
+
+    // Saves a task change to history; position is where the task was added or removed
     // Clears redo stack since we're adding a new change
-    public void addToHistory(T task, String operation) {
-        HistoryRecord<T> record = new HistoryRecord<>(task, operation);
-        undoStack.push(record);
+    public void addToHistory(T task, int position, Operation operation) {
+        addToHistory(List.of(task), new int[] {position}, operation);
+    }
+
+    // Saves a change to several tasks as one history entry
+    // The tasks are in position order, with their positions (ascending) from before a removal
+    // or after an add
+    public void addToHistory(List<T> tasks, int[] positions, Operation operation) {
+        clearRedo();
+        long now = System.nanoTime();
+        long added = estimate(tasks, operation);
+        Entry<T> newest = count == 0 ? null : ring.get(index(count - 1));
+        if (newest != null && newest.open && newest.operation == operation
+                && newest.tasks.size() < MAX_COALESCED
+                && now - newest.lastChange < options.coalesceWindow().toNanos()) {
+            if (operation == Operation.ADD) {
+                // Adds only go on the end, so later ones come after everything in the entry
+                newest.tasks.addAll(tasks);
+                int[] merged = Arrays.copyOf(newest.positions, newest.positions.length + positions.length);
+                System.arraycopy(positions, 0, merged, newest.positions.length, positions.length);
+                newest.positions = merged;
+            } else {
+                mergeRemoval(newest, tasks, positions);
+            }
+            newest.bytes += added;
+        } else {
+            if (newest != null) {
+                newest.open = false;
+            }
+            newest = new Entry<>(operation, new ArrayList<>(tasks), positions.clone(), false, added);
+            newest.open = true;
+            push(newest);
+        }
+        newest.lastChange = now;
+        bytes += added;
+        trim();
+    }
+
+    // Stops the newest entry taking in more changes
+    // Called when the list changes in a way the history doesn't record, such as a sort or a load,
+    // since the positions of later changes no longer line up with the ones already in the entry
+    public void closeNewest() {
+        if (count > 0) {
+            ring.get(index(count - 1)).open = false;
+        }
+    }
+
+    // Forgets all history, e.g. after changes were replayed rather than made by the user
+    // The history is empty afterwards even if the spill file couldn't be deleted
+    public void clear() throws IOException {
+        Collections.fill(ring, null);
+        head = 0;
+        count = 0;
         redoStack.clear();
+        bytes = 0;
+        lost = null;
+        Spill spilled = spill;
+        spill = null;
+        if (spilled != null) {
+            spilled.close();
+        }
     }
 
     // Takes back the last change made
     // Returns what was undone, or null if nothing to undo
+    // Throws an UncheckedIOException, once, when it gets back to changes that couldn't be spilled
     public HistoryRecord<T> undo() {
-        if (!undoStack.isEmpty()) {
-            HistoryRecord<T> lastAction = undoStack.pop();
-            redoStack.push(lastAction);
-            return lastAction;
+        Entry<T> lastAction;
+        if (count > 0) {
+            lastAction = ring.set(index(count - 1), null);
+            count--;
+        } else if (spill != null && !spill.isEmpty()) {
+            lastAction = spill.pop();
+            bytes += lastAction.bytes;
+        } else if (lost != null) {
+            IOException cause = lost;
+            lost = null;
+            throw new UncheckedIOException("Older changes could not be kept for undo", cause);
+        } else {
+            return null;
         }
-        return null;
+        lastAction.open = false;
+        redoStack.push(lastAction);
+        trim();
+        return lastAction.record();
     }
 
     // Brings back the last change that was undone
     // Returns what was redone, or null if nothing to redo
     public HistoryRecord<T> redo() {
-        if (!redoStack.isEmpty()) {
-            HistoryRecord<T> lastUndone = redoStack.pop();
-            undoStack.push(lastUndone);
-            return lastUndone;
+        Entry<T> lastUndone = redoStack.poll();
+        if (lastUndone == null) {
+            return null;
+        }
+        push(lastUndone);
+        trim();
+        return lastUndone.record();
+    }
+
+    // How many undo entries are kept in memory
+    public int size() {
+        return count;
+    }
+
+    // Estimated memory held by the history
+    public long estimatedBytes() {
+        return bytes;
+    }
+
+    // Folds a later removal into an entry that already removed some tasks
+    // The later positions are counted in the list without the entry's tasks, so each is moved up
+    // past the entry's positions in front of it, then the two are merged in position order
+    private static <T> void mergeRemoval(Entry<T> entry, List<T> tasks, int[] positions) {
+        int[] earlier = entry.positions;
+        int[] later = new int[positions.length];
+        int before = 0;
+        for (int i = 0; i < positions.length; i++) {
+            while (before < earlier.length && earlier[before] <= positions[i] + before) {
+                before++;
+            }
+            later[i] = positions[i] + before;
+        }
+        int[] merged = new int[earlier.length + later.length];
+        List<T> mergedTasks = new ArrayList<>(merged.length);
+        int e = 0;
+        int l = 0;
+        for (int i = 0; i < merged.length; i++) {
+            if (l == later.length || (e < earlier.length && earlier[e] < later[l])) {
+                merged[i] = earlier[e];
+                mergedTasks.add(entry.tasks.get(e++));
+            } else {
+                merged[i] = later[l];
+                mergedTasks.add(tasks.get(l++));
+            }
+        }
+        entry.tasks = mergedTasks;
+        entry.positions = merged;
+    }
+
+    private void push(Entry<T> entry) {
+        if (count == ring.size()) {
+            grow();
+        }
+        ring.set(index(count), entry);
+        count++;
+    }
+
+    // Drops (or spills) the oldest undo entries, then the oldest redo entries, until the limits
+    // hold again; the newest entry is always kept however big it is, so the last change can be undone
+    private void trim() {
+        while (count + redoStack.size() > 1
+                && (count + redoStack.size() > options.maxEntries() || bytes > options.maxBytes())) {
+            Entry<T> oldest;
+            if (count > 1) {
+                oldest = ring.set(head, null);
+                head = index(1);
+                count--;
+                spill(oldest);
+            } else {
+                // Redo entries can't be spilled, so the one that would be redone last is dropped
+                oldest = redoStack.removeLast();
+            }
+            bytes -= oldest.bytes;
+        }
+    }
+
+    private void spill(Entry<T> entry) {
+        if (options.spillPath() == null) {
+            return;
+        }
+        try {
+            if (spill == null) {
+                spill = new Spill(options.spillPath());
+            }
+            spill.push(entry);
+        } catch (IOException e) {
+            // Everything spilled so far is older than this entry, so it can't be undone without
+            // it either; it's all dropped, as it would be without a spill file, and undo says so
+            // once it gets that far (the change that spilled it has already been made, so it's
+            // too late to fail that)
+            if (spill != null) {
+                try {
+                    spill.close();
+                } catch (IOException closing) {
+                    e.addSuppressed(closing);
+                }
+                spill = null;
+            }
+            lost = e;
+        }
+    }
+
+    private void clearRedo() {
+        for (Entry<T> undone : redoStack) {
+            bytes -= undone.bytes;
+        }
+        redoStack.clear();
+    }
+
+    private void grow() {
+        List<Entry<T>> bigger = emptyRing(Math.min(ring.size() * 2, Math.max(options.maxEntries(), ring.size() + 1)));
+        for (int i = 0; i < count; i++) {
+            bigger.set(i, ring.get(index(i)));
+        }
+        ring = bigger;
+        head = 0;
+    }
+
+    private int index(int offset) {
+        return (head + offset) % ring.size();
+    }
+
+    // A fixed number of empty slots
+    private static <T> List<Entry<T>> emptyRing(int size) {
+        return new ArrayList<>(Collections.nCopies(size, null));
+    }
+
+    // Removed tasks are only kept alive by the history; added ones are still in the list
+    // Either way each task has a reference and a position
+    private static long estimate(List<? extends Task> tasks, Operation operation) {
+        long total = (long) tasks.size() * (REFERENCE_BYTES + Integer.BYTES);
+        if (operation == Operation.ADD) {
+            return total;
+        }
+        for (Task task : tasks) {
+            total += TASK_BYTES + stringBytes(task.getTitle()) + stringBytes(task.getDescription());
+        }
+        return total;
+    }
+
+    private static long stringBytes(String value) {
+        return value == null ? 0 : 2L * value.length();
+    }
+
+    // Entries pushed out of memory, kept on disk as a stack: each frame (operation, task count,
+    // positions, tasks) is followed by its length, so the newest one can be read from the end and cut off
+    // The file only lasts as long as the history; it's deleted when the history is cleared
+    private final class Spill {
+        private final Path path;
+        private final FileChannel channel;
+        private int entries;
+
+        Spill(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        boolean isEmpty() {
+            return entries == 0;
+        }
+
+        void push(Entry<T> entry) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(entry.operation.ordinal());
+            out.writeInt(entry.tasks.size());
+            for (int position : entry.positions) {
+                out.writeInt(position);
+            }
+            for (T task : entry.tasks) {
+                TaskJournal.writeTask(out, task);
+            }
+            out.writeInt(bytes.size());
+            ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+            long end = channel.size();
+            while (frame.hasRemaining()) {
+                end += channel.write(frame, end);
+            }
+            entries++;
+        }
+
+        // Reads back and removes the newest spilled entry
+        @SuppressWarnings("unchecked")
+        Entry<T> pop() {
+            try {
+                long end = channel.size();
+                ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+                readFully(length, end - Integer.BYTES);
+                int frameLength = length.flip().getInt();
+                long start = end - Integer.BYTES - frameLength;
+                ByteBuffer frame = ByteBuffer.allocate(frameLength);
+                readFully(frame, start);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame.array()));
+                Operation operation = Operation.values()[in.readByte()];
+                int size = in.readInt();
+                int[] positions = new int[size];
+                for (int i = 0; i < size; i++) {
+                    positions[i] = in.readInt();
+                }
+                List<T> tasks = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    // Only plain tasks are ever spilled
+                    tasks.add((T) TaskJournal.readTask(in));
+                }
+                channel.truncate(start);
+                entries--;
+                return new Entry<>(operation, tasks, positions, true, estimate(tasks, operation));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                Files.deleteIfExists(path);
+            }
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("History spill file ended unexpectedly: " + path);
+                }
+            }
         }
-        return null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,118 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+// Keeps tasks ordered by a key (such as priority or due date)
+// Tasks with the same key share a bucket that keeps them in the order they were added,
+// so adding and removing a task is O(log n) and a key range is found in O(log n + k)
+// Tasks without a key (e.g. no due date) are kept apart and come last when iterating
+public class TaskIndex<T, K extends Comparable<? super K>> implements Iterable<T> {
+    private final Function<? super T, ? extends K> keyFunction;
+    private final NavigableMap<K, TaskStore<T>> buckets = new TreeMap<>();
+    private final TaskStore<T> unkeyed = new TaskStore<>();
+    private int size;
+
+    // Creates an index on the given key; the function returns null for tasks without one
+    public TaskIndex(Function<? super T, ? extends K> keyFunction) {
+        this.keyFunction = keyFunction;
+    }
+
+    // Indexes a task; returns false if this exact task is already indexed
+    public boolean add(T task) {
+        K key = keyFunction.apply(task);
+        TaskStore<T> bucket = key == null ? unkeyed : buckets.computeIfAbsent(key, _ -> new TaskStore<>(4));
+        if (!bucket.add(task)) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    // Stops indexing a task; returns false if it wasn't indexed
+    // The task's key must not have changed since it was added
+    public boolean remove(T task) {
+        K key = keyFunction.apply(task);
+        TaskStore<T> bucket = key == null ? unkeyed : buckets.get(key);
+        if (bucket == null || !bucket.remove(task)) {
+            return false;
+        }
+        if (bucket.isEmpty() && key != null) {
+            buckets.remove(key);
+        }
+        size--;
+        return true;
+    }
+
+    // Returns every task whose key is between low and high (both included), in key order
+    public List<T> range(K low, K high) {
+        if (low.compareTo(high) > 0) {
+            return Collections.emptyList();
+        }
+        List<T> result = new ArrayList<>();
+        for (TaskStore<T> bucket : buckets.subMap(low, true, high, true).values()) {
+            result.addAll(bucket.view());
+        }
+        return result;
+    }
+
+    // Returns every task whose key is below the given one, in key order
+    public List<T> below(K key) {
+        List<T> result = new ArrayList<>();
+        for (TaskStore<T> bucket : buckets.headMap(key, false).values()) {
+            result.addAll(bucket.view());
+        }
+        return result;
+    }
+
+    // Returns how many tasks are indexed
+    public int size() {
+        return size;
+    }
+
+    // Removes every task from the index
+    public void clear() {
+        buckets.clear();
+        unkeyed.clear();
+        size = 0;
+    }
+
+    // Iterates over all tasks in key order, then the tasks without a key
+    // Nothing is sorted; the buckets are already in order
+    // The index must not be changed while iterating
+    @Override
+    public Iterator<T> iterator() {
+        Iterator<TaskStore<T>> bucketIterator = buckets.values().iterator();
+        return new Iterator<>() {
+            private Iterator<T> current = Collections.emptyIterator();
+            private boolean unkeyedDone;
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (bucketIterator.hasNext()) {
+                        current = bucketIterator.next().view().iterator();
+                    } else if (!unkeyedDone) {
+                        unkeyedDone = true;
+                        current = unkeyed.view().iterator();
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+}
@@ -0,0 +1,534 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Append-only log of task changes kept next to a snapshot file
+// Every change is appended as it happens, so nothing is lost between saves, and
+// saving only has to make the journal durable instead of rewriting every task
+//
+// A single background thread does all the writing. Whatever changes pile up while it
+// is busy are written (and fsynced, depending on the policy) together as one batch
+// Once the journal grows past a size limit it is folded into a fresh snapshot
+//
+// Journal: int magic, int generation, then records of
+//          int payload length, int CRC32 of the payload, payload
+// The generation ties a journal to the snapshot it continues; a journal whose
+// generation doesn't match the snapshot is stale and is ignored
+public class TaskJournal implements Closeable {
+    private static final int MAGIC = 0x54534B4A;  // "TSKJ"
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_BATCH = 4096;
+
+    private static final byte OP_APPEND = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_SORT = 3;
+    private static final byte OP_INSERT = 4;
+
+    // When the journal file is forced to disk
+    public enum FsyncPolicy {
+        EVERY_BATCH,  // After every group of writes (safest)
+        INTERVAL,     // At most once per fsync interval
+        NEVER         // Left to the operating system
+    }
+
+    // Settings for a journal
+    public record Options(FsyncPolicy fsyncPolicy, Duration fsyncInterval, long compactThresholdBytes) {
+        public static Options defaults() {
+            return new Options(FsyncPolicy.EVERY_BATCH, Duration.ofMillis(200), 8L * 1024 * 1024);
+        }
+    }
+
+    // One change to the task list
+    public sealed interface Entry permits Append, Insert, Remove, Sort {
+    }
+
+    // Tasks added to the end of the list
+    public record Append(List<? extends Task> tasks) implements Entry {
+    }
+
+    // Tasks put in at positions counted with them in (in ascending order), e.g. by an undo
+    public record Insert(int[] positions, List<? extends Task> tasks) implements Entry {
+    }
+
+    // Tasks removed, given by their positions before the removal (in ascending order)
+    public record Remove(int[] positions) implements Entry {
+    }
+
+    // The list was sorted by these keys, most important first
+    public record Sort(List<TaskSorter.Key> keys) implements Entry {
+    }
+
+    // Work items for the writer thread
+    private record Write(Entry entry, CompletableFuture<Void> done) {
+    }
+
+    private record Sync(CompletableFuture<Void> done) {
+    }
+
+    private record Compact(List<? extends Task> tasks, CompletableFuture<Void> done) {
+    }
+
+    private record Shutdown(CompletableFuture<Void> done) {
+    }
+
+    private final Path snapshotPath;
+    private final Path journalPath;
+    private final Options options;
+    private final FileChannel channel;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong journalBytes = new AtomicLong();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final Thread writer;
+
+    // Only used by the writer thread
+    private int generation;
+    private final ByteArrayOutputStream batchBytes = new ByteArrayOutputStream(64 * 1024);
+    private final DataOutputStream batchOut = new DataOutputStream(batchBytes);
+    private final List<CompletableFuture<Void>> unsynced = new ArrayList<>();
+    private long lastSync = System.nanoTime();
+    private volatile IOException failure;
+
+    private TaskJournal(Path snapshotPath, int generation, Options options, FileChannel channel, long size) {
+        this.snapshotPath = snapshotPath;
+        this.journalPath = journalPathFor(snapshotPath);
+        this.generation = generation;
+        this.options = options;
+        this.channel = channel;
+        this.journalBytes.set(size);
+        this.writer = new Thread(this::runWriter, "task-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // The journal that goes with a snapshot file
+    public static Path journalPathFor(Path snapshotPath) {
+        return snapshotPath.resolveSibling(snapshotPath.getFileName() + ".journal");
+    }
+
+    // Opens the journal for a snapshot, hands every change recorded since that snapshot
+    // to replay, and gets ready to append more
+    // A torn or corrupt record at the end (from a crash mid-write) is cut off
+    public static TaskJournal open(Path snapshotPath, int snapshotGeneration, Options options,
+                                   Consumer<Entry> replay) throws IOException {
+        Path journalPath = journalPathFor(snapshotPath);
+        long validLength = Files.exists(journalPath) ? replay(journalPath, snapshotGeneration, replay) : 0;
+        FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (validLength == 0) {
+                channel.truncate(0);
+                writeHeader(channel, snapshotGeneration);
+                channel.force(true);
+                validLength = HEADER_SIZE;
+            } else {
+                channel.truncate(validLength);
+            }
+            channel.position(validLength);
+            return new TaskJournal(snapshotPath, snapshotGeneration, options, channel, validLength);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Records a change; the future completes once it is as durable as the fsync policy makes it
+    public CompletableFuture<Void> append(Entry entry) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        enqueue(new Write(entry, done), done);
+        return done;
+    }
+
+    // Forces everything appended so far to disk
+    public CompletableFuture<Void> sync() {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        enqueue(new Sync(done), done);
+        return done;
+    }
+
+    // Checks whether the journal has grown enough to be folded into a snapshot
+    public boolean needsCompaction() {
+        return journalBytes.get() > options.compactThresholdBytes() && !compacting.get();
+    }
+
+    // Writes the given tasks as a new snapshot and starts an empty journal after it
+    // The list must be the full task list as of the last appended change, and must not change afterwards
+    public CompletableFuture<Void> compact(List<? extends Task> tasks) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        compacting.set(true);
+        done.whenComplete((_, _) -> compacting.set(false));
+        enqueue(new Compact(tasks, done), done);
+        return done;
+    }
+
+    public Path snapshotPath() {
+        return snapshotPath;
+    }
+
+    // Returns how big the journal file currently is
+    public long size() {
+        return journalBytes.get();
+    }
+
+    // Writes out and syncs anything pending, then closes the journal
+    @Override
+    public void close() throws IOException {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        enqueue(new Shutdown(done), done);
+        try {
+            done.join();
+        } catch (RuntimeException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException("Error closing journal", e);
+        } finally {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void enqueue(Object item, CompletableFuture<Void> done) {
+        IOException error = failure;
+        if (error != null) {
+            done.completeExceptionally(error);
+            return;
+        }
+        if (!writer.isAlive()) {
+            done.completeExceptionally(new IOException("Journal is closed: " + journalPath));
+            return;
+        }
+        queue.add(item);
+    }
+
+    // The writer thread: takes whatever has queued up and writes it as one batch
+    private void runWriter() {
+        List<Object> batch = new ArrayList<>();
+        while (true) {
+            try {
+                Object first = unsynced.isEmpty()
+                        ? queue.take()
+                        : queue.poll(options.fsyncInterval().toNanos(), TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    syncNow();  // Idle with data that was written but not yet forced
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                if (process(batch)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                fail(e, batch);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    // Handles one batch in order; returns true once the journal has been shut down
+    private boolean process(List<Object> batch) throws IOException {
+        for (Object item : batch) {
+            switch (item) {
+                case Write write -> {
+                    encode(write.entry());
+                    unsynced.add(write.done());
+                }
+                case Sync sync -> {
+                    flushBatch();
+                    syncNow();
+                    sync.done().complete(null);
+                }
+                case Compact compact -> {
+                    flushBatch();
+                    syncNow();
+                    writeSnapshot(compact.tasks());
+                    compact.done().complete(null);
+                }
+                case Shutdown shutdown -> {
+                    flushBatch();
+                    syncNow();
+                    channel.close();
+                    shutdown.done().complete(null);
+                    return true;
+                }
+                default -> throw new IllegalStateException("Unknown journal item " + item);
+            }
+        }
+        flushBatch();
+        boolean force = switch (options.fsyncPolicy()) {
+            case EVERY_BATCH -> true;
+            case INTERVAL -> System.nanoTime() - lastSync >= options.fsyncInterval().toNanos();
+            case NEVER -> false;
+        };
+        if (force) {
+            syncNow();
+        } else if (options.fsyncPolicy() == FsyncPolicy.NEVER) {
+            unsynced.forEach(done -> done.complete(null));
+            unsynced.clear();
+        }
+        return false;
+    }
+
+    // Writes the records collected so far in a single channel write
+    private void flushBatch() throws IOException {
+        if (batchBytes.size() == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(batchBytes.toByteArray());
+        batchBytes.reset();
+        while (buffer.hasRemaining()) {
+            journalBytes.addAndGet(channel.write(buffer));
+        }
+    }
+
+    private void syncNow() throws IOException {
+        channel.force(false);
+        lastSync = System.nanoTime();
+        unsynced.forEach(done -> done.complete(null));
+        unsynced.clear();
+    }
+
+    // Writes the snapshot under the next generation, then empties the journal
+    // If we crash in between, the journal still has the old generation and is ignored on
+    // the next start, which is right because the snapshot already has its changes
+    private void writeSnapshot(List<? extends Task> tasks) throws IOException {
+        int nextGeneration = generation + 1;
+        Path temp = TaskFileWriter.tempFileFor(snapshotPath, "compacting");
+        try {
+            TaskFileWriter.writeAll(temp, tasks, nextGeneration);
+            TaskFileWriter.moveIntoPlace(temp, snapshotPath);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        channel.truncate(0);
+        channel.position(0);
+        writeHeader(channel, nextGeneration);
+        channel.force(true);
+        generation = nextGeneration;
+        journalBytes.set(HEADER_SIZE);
+    }
+
+    private void fail(IOException e, List<Object> batch) {
+        failure = e;
+        batchBytes.reset();
+        unsynced.forEach(done -> done.completeExceptionally(e));
+        unsynced.clear();
+        for (Object item : batch) {
+            futureOf(item).completeExceptionally(e);
+        }
+        Object item;
+        while ((item = queue.poll()) != null) {
+            futureOf(item).completeExceptionally(e);
+        }
+    }
+
+    private static CompletableFuture<Void> futureOf(Object item) {
+        return switch (item) {
+            case Write write -> write.done();
+            case Sync sync -> sync.done();
+            case Compact compact -> compact.done();
+            case Shutdown shutdown -> shutdown.done();
+            default -> throw new IllegalStateException("Unknown journal item " + item);
+        };
+    }
+
+    // Adds one framed record to the current batch
+    private void encode(Entry entry) throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payloadBytes);
+        switch (entry) {
+            case Append append -> {
+                out.writeByte(OP_APPEND);
+                out.writeInt(append.tasks().size());
+                for (Task task : append.tasks()) {
+                    writeTask(out, task);
+                }
+            }
+            case Insert insert -> {
+                out.writeByte(OP_INSERT);
+                out.writeInt(insert.positions().length);
+                for (int i = 0; i < insert.positions().length; i++) {
+                    out.writeInt(insert.positions()[i]);
+                    writeTask(out, insert.tasks().get(i));
+                }
+            }
+            case Remove remove -> {
+                out.writeByte(OP_REMOVE);
+                out.writeInt(remove.positions().length);
+                for (int position : remove.positions()) {
+                    out.writeInt(position);
+                }
+            }
+            case Sort sort -> {
+                out.writeByte(OP_SORT);
+                out.writeByte(sort.keys().size());
+                for (TaskSorter.Key key : sort.keys()) {
+                    out.writeByte(key.ordinal());
+                }
+            }
+        }
+        byte[] payload = payloadBytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        batchOut.writeInt(payload.length);
+        batchOut.writeInt((int) crc.getValue());
+        batchOut.write(payload);
+    }
+
+    // Reads records until the end or the first damaged one
+    // Returns the length of the good part of the file, or 0 if it should start over
+    private static long replay(Path journalPath, int snapshotGeneration, Consumer<Entry> replay) throws IOException {
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(journalPath));
+             DataInputStream in = new DataInputStream(file)) {
+            if (in.readInt() != MAGIC || in.readInt() != snapshotGeneration) {
+                return 0;  // Not a journal, or one left over from before the last compaction
+            }
+            long validLength = HEADER_SIZE;
+            long fileSize = Files.size(journalPath);
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length <= 0 || validLength + 8 + length > fileSize) {
+                        return validLength;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    crc.reset();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != checksum) {
+                        return validLength;
+                    }
+                } catch (EOFException e) {
+                    return validLength;
+                }
+                try {
+                    replay.accept(decode(payload));
+                } catch (RuntimeException e) {
+                    throw new IOException("Journal doesn't match its snapshot: " + journalPath, e);
+                }
+                validLength += 8 + payload.length;
+            }
+        } catch (EOFException e) {
+            return 0;  // Too short to even have a header
+        }
+    }
+
+    private static Entry decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        switch (op) {
+            case OP_APPEND -> {
+                int count = in.readInt();
+                List<Task> tasks = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    tasks.add(readTask(in));
+                }
+                return new Append(tasks);
+            }
+            case OP_INSERT -> {
+                int[] positions = new int[in.readInt()];
+                List<Task> tasks = new ArrayList<>(positions.length);
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = in.readInt();
+                    tasks.add(readTask(in));
+                }
+                return new Insert(positions, tasks);
+            }
+            case OP_REMOVE -> {
+                int[] positions = new int[in.readInt()];
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = in.readInt();
+                }
+                return new Remove(positions);
+            }
+            case OP_SORT -> {
+                List<TaskSorter.Key> keys = new ArrayList<>();
+                for (int count = in.readUnsignedByte(); count > 0; count--) {
+                    keys.add(TaskSorter.Key.values()[in.readUnsignedByte()]);
+                }
+                return new Sort(keys);
+            }
+            default -> throw new IOException("Unknown journal record type " + op);
+        }
+    }
+
+    // Also used for the undo history's spill file
+    static void writeTask(DataOutputStream out, Task task) throws IOException {
+        LocalDate dueDate = task.getDueDate();
+        out.writeByte(dueDate != null ? TaskFileFormat.FLAG_HAS_DUE_DATE : 0);
+        out.writeInt(task.getPriority());
+        if (dueDate != null) {
+            out.writeInt(TaskFileFormat.toEpochDay(dueDate));
+        }
+        writeString(out, task.getTitle());
+        writeString(out, task.getDescription());
+    }
+
+    static Task readTask(DataInputStream in) throws IOException {
+        int flags = in.readByte();
+        int priority = in.readInt();
+        LocalDate dueDate = (flags & TaskFileFormat.FLAG_HAS_DUE_DATE) != 0 ? LocalDate.ofEpochDay(in.readInt()) : null;
+        String title = readString(in);
+        String description = readString(in);
+        return new Task(title, description, priority, dueDate);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeHeader(FileChannel channel, int generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(generation).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+}
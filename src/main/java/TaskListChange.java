@@ -0,0 +1,27 @@
+import java.util.List;
+
+// One change to a TaskManager's task list, for anything that mirrors the list (like the UI)
+// Changes are announced after they happen and in order, so applying them one after another
+// to a copy of the old list gives the new one
+public sealed interface TaskListChange<T> {
+    // Tasks were added at positions from (included) to to (excluded)
+    record Added<T>(int from, int to) implements TaskListChange<T> {
+    }
+
+    // Tasks were put in at these positions (e.g. by an undo); positions are ascending and counted
+    // with the tasks in
+    record Inserted<T>(int[] positions) implements TaskListChange<T> {
+    }
+
+    // These tasks were removed; positions are ascending and counted from before the removal
+    record Removed<T>(int[] positions, List<T> tasks) implements TaskListChange<T> {
+    }
+
+    // The tasks were reordered: the task now at position i was at order[i] before
+    record Permuted<T>(int[] order) implements TaskListChange<T> {
+    }
+
+    // Every task was replaced (e.g. by loading a file); there were previousSize before and size now
+    record Reset<T>(int previousSize, int size) implements TaskListChange<T> {
+    }
+}
@@ -1,165 +1,1113 @@
-import java.io.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 // Manages all tasks and their operations
 // Handles adding, removing, sorting, and storing tasks
+//
+// Any thread may use it. Changes take writeLock, so they happen one at a time, and each one ends
+// by publishing an immutable snapshot of the list; getTasks() just returns the latest snapshot,
+// so the UI, searches and exports read without locking and never see a change half done
+// TaskCommands queues changes from the UI and background work for a single writer thread
 public class TaskManager<T extends Task> {
-    private CustomLinkedList<T> tasks;
+    private final TaskStore<T> tasks;  // Keeps tasks in order with fast lookup by position
     private final TaskHistoryManager<T> historyManager;
     private final HashTable<String, T> taskTable;  // Stores tasks by title for quick lookup
-    private final TaskCache<String, T> taskCache = new TaskCache<>(50); // Caches recent tasks
+    private final TaskCache<String, T> taskCache; // Caches recent tasks
+    // False while tasks from a load or a mapped file haven't been added to taskTable yet
+    // taskTable and titlesIndexed are guarded by indexLock
+    private boolean titlesIndexed = true;
+    // Tasks ordered by priority, due date and title, for range queries and sorted iteration
+    // Built the first time they're needed, then kept up to date on every add and remove
+    private final TaskIndex<T, Integer> priorityIndex = new TaskIndex<>(Task::getPriority);
+    private final TaskIndex<T, LocalDate> dueDateIndex = new TaskIndex<>(Task::getDueDate);
+    private final BST<T> titleIndex = new BST<>();
+    private boolean orderIndexed;
+    // Trigram index over titles and descriptions for searching, built on the first search
+    private final SearchIndex<T> searchIndex = new SearchIndex<>();
+    private boolean searchIndexed;
+    // Searches run on background threads, so the indexes are only touched while holding this
+    // The snapshot is published under it too, so the indexes always match the latest snapshot
+    private final Object indexLock = new Object();
+    // Held for every change, and while reading anything besides the snapshot and the indexes
+    private final Object writeLock = new Object();
+    // The tasks as of the last change; its version goes up on every change
+    private volatile TaskSnapshot<T> snapshot = TaskSnapshot.empty();
+    private long changeCount;  // Guarded by indexLock
+    // Works out sorted orders and remembers them until the list changes
+    private final TaskSorter<T> sorter = new TaskSorter<>();
+    // Told about every change to the list, in order, right after it happens
+    private final List<Consumer<? super TaskListChange<T>>> changeListeners = new CopyOnWriteArrayList<>();
+    private Path mappedPath;  // File the store is still reading tasks from, if any
+    private TaskJournal journal;  // Records every change when the tasks are journaled
+    // The file the tasks were last saved to or loaded from, and its size and timestamp then
+    // If nobody has touched it since, the next save copies its unchanged blocks
+    private Path savedPath;
+    private long savedSize;
+    private FileTime savedModified;
+    // The latest save started to each file, so an older save finishing late doesn't note the file
+    private final Map<Path, TaskStore.Tracking> latestSaves = new HashMap<>();
+
+    // How many tasks the cache holds unless told otherwise
+    public static final int DEFAULT_CACHE_CAPACITY = 50;
 
     // Sets up a new task manager with empty lists and storage
     public TaskManager() {
-        tasks = new CustomLinkedList<>();
-        historyManager = new TaskHistoryManager<>();
+        this(DEFAULT_CACHE_CAPACITY, TaskCache.Eviction.LRU);
+    }
+
+    // Sets up a new task manager whose lookup cache has the given size and eviction policy
+    public TaskManager(int cacheCapacity, TaskCache.Eviction eviction) {
+        this(cacheCapacity, eviction, TaskHistoryManager.Options.defaults());
+    }
+
+    // Same, also saying how much undo history to keep
+    public TaskManager(int cacheCapacity, TaskCache.Eviction eviction, TaskHistoryManager.Options history) {
+        tasks = new TaskStore<>();
+        historyManager = new TaskHistoryManager<>(history);
         taskTable = new HashTable<>();
+        taskCache = new TaskCache<>(cacheCapacity, eviction);
     }
 
     // Adds a new task and updates all storage locations
     public void addTask(T task) {
-        tasks.add(task);
-        taskTable.put(task.getTitle(), task);
-        taskCache.put(task.getTitle(), task);
-        historyManager.addToHistory(task, "Add");
+        synchronized (writeLock) {
+            if (!tasks.add(task)) {
+                return;
+            }
+            publish(snapshot.append(task), List.of(task), List.of());
+            historyManager.addToHistory(task, tasks.size() - 1, TaskHistoryManager.Operation.ADD);
+            journal(new TaskJournal.Append(List.of(task)));
+            fireChange(new TaskListChange.Added<>(tasks.size() - 1, tasks.size()));
+        }
     }
 
     // Removes a task from all storage locations
     public void removeTask(T task) {
-        int index = findTaskIndex(task);
-        if (index != -1) {
-            tasks.remove(index);
-            taskTable.remove(task.getTitle());
-            taskCache.clear();
-            historyManager.addToHistory(task, "Remove");
+        synchronized (writeLock) {
+            int position = tasks.indexOf(task);
+            if (tasks.remove(task)) {
+                int[] positions = {position};
+                publish(withoutPositions(positions), List.of(), List.of(task));
+                historyManager.addToHistory(task, position, TaskHistoryManager.Operation.REMOVE);
+                journal(new TaskJournal.Remove(positions));
+                fireChange(new TaskListChange.Removed<>(positions, List.of(task)));
+            }
         }
     }
 
-    // Returns a list of all tasks
-    public List<T> getTasks() {
-        List<T> result = new ArrayList<>();
-        for (int i = 0; i < tasks.size(); i++) {
-            result.add(tasks.get(i));
+    // Adds several tasks at once and records them as a single history entry
+    public void addAll(Collection<? extends T> newTasks) {
+        synchronized (writeLock) {
+            List<T> added = new ArrayList<>(newTasks.size());
+            int oldSize = tasks.size();
+            for (T task : newTasks) {
+                if (tasks.add(task)) {
+                    added.add(task);
+                }
+            }
+            if (!added.isEmpty()) {
+                publish(snapshot.appendAll(added), added, List.of());
+                int[] positions = new int[added.size()];
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = oldSize + i;
+                }
+                historyManager.addToHistory(added, positions, TaskHistoryManager.Operation.ADD);
+                journal(new TaskJournal.Append(added));
+                fireChange(new TaskListChange.Added<>(oldSize, tasks.size()));
+            }
         }
-        return result;
     }
 
-    // Sorts tasks by priority using quicksort
-    public void sortTasksByPriority() {
-        List<T> taskList = getTasks();
-        quicksort(taskList, 0, taskList.size() - 1, Comparator.comparingInt(Task::getPriority));
-        reloadTasksFromList(taskList);
+    // Removes several tasks at once and records them as a single history entry
+    // Returns the tasks that were actually there to remove, in list order
+    public List<T> removeAll(Collection<? extends T> toRemove) {
+        if (toRemove.isEmpty()) {
+            return List.of();
+        }
+        synchronized (writeLock) {
+            return remember(takeOut(toRemove));
+        }
     }
 
-    // Sorts tasks by due date using quicksort
-    public void sortTasksByDueDate() {
-        List<T> taskList = getTasks();
-        quicksort(taskList, 0, taskList.size() - 1, Comparator.comparing(Task::getDueDate));
-        reloadTasksFromList(taskList);
+    // Removes every task matching the filter in one pass over the store
+    // Returns the removed tasks
+    public List<T> removeIf(Predicate<? super T> filter) {
+        return removeIf(filter, () -> false);
     }
 
-    // Quicksort implementation for sorting tasks
-    private void quicksort(List<T> list, int low, int high, Comparator<T> comparator) {
-        if (low < high) {
-            int pivotIndex = partition(list, low, high, comparator);
-            quicksort(list, low, pivotIndex - 1, comparator);
-            quicksort(list, pivotIndex + 1, high, comparator);
+    // Same, but gives up with a CancellationException soon after cancelled starts returning true
+    // Nothing is removed until every task has been checked, so giving up changes nothing
+    // The filter is first run over the current snapshot without the write lock, so a slow
+    // filter doesn't hold up other changes; only if something changed meanwhile is it run
+    // again with the lock held
+    public List<T> removeIf(Predicate<? super T> filter, BooleanSupplier cancelled) {
+        TaskSnapshot<T> tested = snapshot;
+        List<T> matching = new ArrayList<>();
+        int step = 0;
+        for (T task : tested) {
+            Cancellation.check(step++, cancelled);
+            if (filter.test(task)) {
+                matching.add(task);
+            }
+        }
+        synchronized (writeLock) {
+            if (snapshot == tested) {
+                return removeAll(matching);
+            }
+            PositionList positions = new PositionList();
+            List<T> removed = tasks.removeIf(filter, positions, cancelled);
+            return remember(afterBulkRemove(removed, positions));
         }
     }
 
-    // Helper method for quicksort
-    private int partition(List<T> list, int low, int high, Comparator<T> comparator) {
-        T pivot = list.get(high);
-        int i = low - 1;
+    // Makes several changes back to back without any other change getting in between
+    // The write lock is taken once for all of them (see TaskCommands)
+    public void applyTogether(Runnable changes) {
+        synchronized (writeLock) {
+            changes.run();
+        }
+    }
 
-        for (int j = low; j < high; j++) {
-            if (comparator.compare(list.get(j), pivot) <= 0) {
+    // Tasks taken out of the list by one change, in list order, with the positions they had
+    private record Removal<T>(List<T> tasks, int[] positions) {
+    }
+
+    // Removes the tasks that are in the list without recording any history
+    private Removal<T> takeOut(Collection<? extends T> toRemove) {
+        List<T> removed;
+        PositionList positions = new PositionList();
+        if (toRemove.size() * 16L < tasks.size()) {
+            // Only a few tasks, so removing them one slot at a time is cheaper than a full pass
+            // The snapshot, journal and listeners need positions from before any of them
+            // are gone, so find those first
+            int[] before = new int[toRemove.size()];
+            int i = 0;
+            for (T task : toRemove) {
+                before[i++] = tasks.indexOf(task);
+            }
+            removed = new ArrayList<>(toRemove.size());
+            i = 0;
+            for (T task : toRemove) {
+                if (tasks.remove(task)) {
+                    removed.add(task);
+                    positions.accept(before[i]);
+                }
                 i++;
-                T temp = list.get(i);
-                list.set(i, list.get(j));
-                list.set(j, temp);
             }
+        } else {
+            Set<T> targets = Collections.newSetFromMap(new IdentityHashMap<>(toRemove.size()));
+            targets.addAll(toRemove);
+            removed = tasks.removeIf(targets::contains, positions);
+        }
+        return afterBulkRemove(removed, positions);
+    }
+
+    // Records a removal as one history entry and returns the removed tasks
+    private List<T> remember(Removal<T> removal) {
+        if (!removal.tasks().isEmpty()) {
+            historyManager.addToHistory(removal.tasks(), removal.positions(), TaskHistoryManager.Operation.REMOVE);
+        }
+        return removal.tasks();
+    }
+
+    // Updates the title table, cache, snapshot and journal once for a whole bulk removal
+    // removed and positions line up; they're in removal order, which isn't always list order
+    private Removal<T> afterBulkRemove(List<T> removed, PositionList positions) {
+        if (removed.isEmpty()) {
+            return new Removal<>(List.of(), new int[0]);
+        }
+        Removal<T> removal = inListOrder(removed, positions);
+        publish(withoutPositions(removal.positions()), List.of(), removed);
+        journal(new TaskJournal.Remove(removal.positions()));
+        fireChange(new TaskListChange.Removed<>(removal.positions(), removal.tasks()));
+        return removal;
+    }
+
+    // Sorts removed tasks by the positions they had
+    private static <T> Removal<T> inListOrder(List<T> removed, PositionList positions) {
+        // Sort (position, index into removed) pairs packed into longs
+        long[] pairs = new long[removed.size()];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = ((long) positions.get(i) << 32) | i;
+        }
+        Arrays.sort(pairs);
+        int[] sortedPositions = new int[pairs.length];
+        List<T> sortedTasks = new ArrayList<>(pairs.length);
+        for (int i = 0; i < pairs.length; i++) {
+            sortedPositions[i] = (int) (pairs[i] >>> 32);
+            sortedTasks.add(removed.get((int) pairs[i]));
+        }
+        return new Removal<>(sortedTasks, sortedPositions);
+    }
+
+    // Puts tasks in at the given positions without recording any history, for undo, redo and
+    // journal replay; the positions are ascending and counted with the tasks in
+    // Tasks already in the list are skipped, and positions past the end (the list may have
+    // changed since, e.g. by loading a file) go on the end instead
+    // The store moves each task at most once and the snapshot takes O(log n) per task, so
+    // putting back a bulk removal is one pass however many tasks it had
+    private void putBack(List<T> toInsert, int[] positions) {
+        int oldSize = tasks.size();
+        List<T> inserted = new ArrayList<>(toInsert.size());
+        int[] at = new int[toInsert.size()];
+        for (int i = 0; i < at.length; i++) {
+            T task = toInsert.get(i);
+            if (tasks.contains(task)) {
+                continue;
+            }
+            int count = inserted.size();
+            int position = Math.min(positions[i], oldSize + count);
+            at[count] = count > 0 ? Math.max(position, at[count - 1] + 1) : position;
+            inserted.add(task);
+        }
+        if (inserted.isEmpty()) {
+            return;
         }
+        at = Arrays.copyOf(at, inserted.size());
+        TaskSnapshot<T> current = snapshot;
+        tasks.insertAll(at, inserted);
+        // Like withoutPositions, a big batch or one reaching into the mapped tasks is cheaper as a new snapshot
+        boolean rebuild = at[0] < current.lazySize() || at.length > current.size() / 16;
+        publish(rebuild ? tasks.snapshot() : current.insertAll(at, inserted), inserted, List.of());
+        if (at[0] == oldSize) {
+            journal(new TaskJournal.Append(inserted));
+            fireChange(new TaskListChange.Added<>(oldSize, tasks.size()));
+        } else {
+            journal(new TaskJournal.Insert(at, inserted));
+            fireChange(new TaskListChange.Inserted<>(at));
+        }
+    }
 
-        T temp = list.get(i + 1);
-        list.set(i + 1, list.get(high));
-        list.set(high, temp);
+    // Registers a listener for every change to the list
+    // It runs on whichever thread made the change, before the next change can start, so
+    // getTasks() still shows the list exactly as the change left it; listeners should be quick
+    public void addChangeListener(Consumer<? super TaskListChange<T>> listener) {
+        changeListeners.add(listener);
+    }
 
-        return i + 1;
+    public void removeChangeListener(Consumer<? super TaskListChange<T>> listener) {
+        changeListeners.remove(listener);
     }
 
-    // Finds where a task is in the list
-    private int findTaskIndex(T task) {
-        for (int i = 0; i < tasks.size(); i++) {
-            if (tasks.get(i).equals(task)) {
-                return i;
+    private void fireChange(TaskListChange<T> change) {
+        for (Consumer<? super TaskListChange<T>> listener : changeListeners) {
+            listener.accept(change);
+        }
+    }
+
+    // Collects the positions of removed tasks for the journal
+    private static final class PositionList implements IntConsumer {
+        private int[] positions = new int[16];
+        private int count;
+
+        @Override
+        public void accept(int position) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
             }
+            positions[count++] = position;
+        }
+
+        int get(int index) {
+            return positions[index];
         }
-        return -1;
     }
 
-    // Updates storage after sorting or loading tasks
-    private void reloadTasksFromList(List<T> taskList) {
-        tasks = new CustomLinkedList<>();
-        for (T task : taskList) {
-            tasks.add(task);
-            taskTable.put(task.getTitle(), task);
+    // Returns all tasks as they are right now, as an immutable snapshot
+    // Taking one costs nothing: each change builds the next snapshot by sharing most of the
+    // previous one, so a snapshot stays valid (and safe to read from any thread) however long it's kept
+    public TaskSnapshot<T> getTasks() {
+        return snapshot;
+    }
+
+    // Makes the snapshot after a change the latest one, updating the indexes, the title table
+    // and the cache at the same time
+    private void publish(TaskSnapshot<T> next, List<T> added, List<T> removed) {
+        synchronized (indexLock) {
+            if (titlesIndexed) {
+                taskTable.ensureCapacity(taskTable.size() + added.size());
+                for (T task : removed) {
+                    taskTable.remove(task.getTitle());
+                }
+                for (T task : added) {
+                    taskTable.put(task.getTitle(), task);
+                }
+            }
+            // Titles may now point at different tasks, so drop any cached copies
+            List<String> titles = new ArrayList<>(removed.size() + added.size());
+            for (T task : removed) {
+                titles.add(task.getTitle());
+            }
+            for (T task : added) {
+                titles.add(task.getTitle());
+            }
+            taskCache.invalidateAll(titles);
+            if (orderIndexed) {
+                for (T task : removed) {
+                    priorityIndex.remove(task);
+                    dueDateIndex.remove(task);
+                    titleIndex.remove(task.getTitle(), task);
+                }
+                for (T task : added) {
+                    indexOrderNow(task);
+                }
+            }
+            if (searchIndexed) {
+                for (T task : removed) {
+                    searchIndex.remove(task);
+                }
+                for (T task : added) {
+                    searchIndex.add(task);
+                }
+            }
+            sorter.invalidate();
+            snapshot = next.withVersion(++changeCount);
+        }
+    }
+
+    // Publishes the snapshot after the whole list was replaced
+    // The indexes and title table are dropped rather than updated; they're rebuilt when next
+    // needed, and the cache is invalidated with one generation bump instead of entry by entry
+    private void publishReplaced(TaskSnapshot<T> next) {
+        synchronized (indexLock) {
+            taskTable.clear();
+            titlesIndexed = false;
+            taskCache.invalidateAll();
+            priorityIndex.clear();
+            dueDateIndex.clear();
+            titleIndex.clear();
+            orderIndexed = false;
+            searchIndex.clear();
+            searchIndexed = false;
+            sorter.invalidate();
+            snapshot = next.withVersion(++changeCount);
         }
     }
 
-    // Saves all tasks to a file
+    // The snapshot without the tasks at these positions (ascending, from before the removal)
+    // Removing most of the tasks, or tasks the snapshot still reads from a mapped file, is
+    // cheaper done by taking a new snapshot of the store
+    private TaskSnapshot<T> withoutPositions(int[] positions) {
+        TaskSnapshot<T> current = snapshot;
+        if (positions[0] < current.lazySize() || positions.length > current.size() / 16) {
+            return tasks.snapshot();
+        }
+        return current.removeAll(positions);
+    }
+
+    // Sorts tasks by priority; tasks with the same priority keep their order
+    public void sortTasksByPriority() {
+        sortTasks(TaskSorter.Key.PRIORITY);
+    }
+
+    // Sorts tasks by due date, those without one last; tasks due the same day keep their order
+    public void sortTasksByDueDate() {
+        sortTasks(TaskSorter.Key.DUE_DATE);
+    }
+
+    // Sorts tasks by several keys, most important first (e.g. priority, then due date, then title)
+    // The sort is stable and reuses the order worked out last time if nothing changed since,
+    // and an already sorted list isn't touched at all
+    public void sortTasks(TaskSorter.Key... keys) {
+        List<TaskSorter.Key> keyList = List.of(keys);
+        synchronized (writeLock) {
+            TaskSnapshot<T> current;
+            int[] order;
+            synchronized (indexLock) {
+                current = snapshot;
+                order = sorter.order(current, keyList);
+            }
+            boolean moved = !TaskSorter.isIdentity(order);
+            if (moved) {
+                tasks.setAll(TaskSorter.apply(current, order));
+                publish(tasks.snapshot(), List.of(), List.of());
+                historyManager.closeNewest();
+                journal(new TaskJournal.Sort(keyList));
+            }
+            synchronized (indexLock) {
+                sorter.sorted(keyList, tasks.size());
+            }
+            if (moved) {
+                fireChange(new TaskListChange.Permuted<>(order));
+            }
+        }
+    }
+
+    // Works out the order for sortTasks(keys) on a fork-join pool, so the sort itself is then instant
+    // The current snapshot is sorted in the background; once the future completes, call
+    // sortTasks(keys) as usual
+    // If anything changed in between, the order is thrown away and sortTasks sorts normally
+    public CompletableFuture<Void> prepareSort(ForkJoinPool pool, BooleanSupplier cancelled, DoubleConsumer progress,
+                                               TaskSorter.Key... keys) {
+        List<TaskSorter.Key> keyList = List.of(keys);
+        TaskSnapshot<T> current;
+        long version;
+        synchronized (indexLock) {
+            current = snapshot;
+            version = sorter.version();
+        }
+        return CompletableFuture.runAsync(() -> {
+            int[] order = TaskSorter.parallelOrder(current, keyList, pool, cancelled, progress);
+            synchronized (indexLock) {
+                sorter.offer(keyList, order, version);
+            }
+        }, pool);
+    }
+
+    // Finds the tasks in the current snapshot matching the filter on a fork-join pool, keeping their order
+    public CompletableFuture<List<T>> filterTasks(Predicate<? super T> filter, ForkJoinPool pool,
+                                                  BooleanSupplier cancelled, DoubleConsumer progress) {
+        TaskSnapshot<T> current = snapshot;
+        return CompletableFuture.supplyAsync(
+                () -> ParallelWork.filter(current, filter, pool, cancelled, progress), pool);
+    }
+
+    // Returns the tasks sorted by the keys without changing the list's own order
+    // The order is cached, so asking again before anything changes doesn't sort again
+    public List<T> tasksSortedBy(TaskSorter.Key... keys) {
+        synchronized (indexLock) {
+            TaskSnapshot<T> current = snapshot;
+            return TaskSorter.apply(current, sorter.order(current, List.of(keys)));
+        }
+    }
+
+    // Replaces every task after loading
+    private void reloadTasksFromList(List<T> taskList) {
+        int previousSize = tasks.size();
+        tasks.setAll(taskList);
+        publishReplaced(tasks.snapshot());
+        historyManager.closeNewest();
+        compactJournal();
+        fireChange(new TaskListChange.Reset<>(previousSize, tasks.size()));
+    }
+
+    // Saves all tasks to a file in the binary task format
+    // Saving to the journaled file only has to make the journal durable, not rewrite every task
+    // Otherwise blocks of the previous save that hold unchanged tasks are copied over as they are,
+    // and only the tasks after the first change are encoded again
+    // The new file is written next to the old one and renamed over it, so a crash never leaves half a file
+    // The tasks are written from a snapshot, so changes can carry on while the file is written
     public void saveTasksToFile(String filename) throws IOException {
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(filename))) {
-            out.writeObject(getTasks());
+        Path path = Path.of(filename);
+        CompletableFuture<Void> synced = null;
+        TaskSnapshot<T> all = null;
+        TaskStore.Tracking tracked = null;
+        int reusable = 0;
+        FileChannel previous = null;
+        synchronized (writeLock) {
+            if (journal != null && path.equals(journal.snapshotPath())) {
+                synced = journal.sync();
+            } else {
+                reusable = reusableRecords(path);
+                if (tasks.isLazy() && path.equals(mappedPath)) {
+                    // The file is about to be replaced, and not every system lets a mapped file be replaced
+                    tasks.materialize();
+                }
+                if (reusable > 0) {
+                    // Opened now, so the blocks are copied from the file just checked even if
+                    // another save replaces it before this one gets to them
+                    previous = FileChannel.open(path, StandardOpenOption.READ);
+                }
+                all = snapshot;
+                tracked = tasks.startTracking();
+                latestSaves.put(path, tracked);
+            }
         }
+        if (synced != null) {
+            await(synced);
+            return;
+        }
+        Path temp = null;
+        try {
+            temp = TaskFileWriter.tempFileFor(path, "saving");
+            try (TaskFileWriter writer = new TaskFileWriter(temp)) {
+                int copied = previous != null ? writer.copyBlocks(previous, reusable) : 0;
+                for (int i = copied; i < all.size(); i++) {
+                    writer.write(all.get(i));
+                }
+            } finally {
+                if (previous != null) {
+                    previous.close();
+                }
+            }
+            TaskFileWriter.moveIntoPlace(temp, path);
+        } catch (IOException | RuntimeException e) {
+            if (previous != null) {
+                previous.close();
+            }
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+            synchronized (writeLock) {
+                latestSaves.remove(path, tracked);
+                tasks.stopTracking(tracked);
+            }
+            throw e;
+        }
+        synchronized (writeLock) {
+            if (latestSaves.remove(path, tracked)) {
+                // The file holds the snapshot, so only what changed since it was taken needs writing next time
+                noteFile(path);
+                tasks.markUnchangedSinceTracking(tracked);
+            } else {
+                // A newer save to the same file started meanwhile; it notes the file when it's done
+                tasks.stopTracking(tracked);
+            }
+        }
+    }
+
+    // Notes what a file looked like right after the tasks were saved to or loaded from it
+    private void rememberSavedFile(Path path) throws IOException {
+        noteFile(path);
+        tasks.markUnchanged();
+    }
+
+    private void noteFile(Path path) throws IOException {
+        savedPath = path;
+        savedSize = Files.size(path);
+        savedModified = Files.getLastModifiedTime(path);
+    }
+
+    // Returns how many leading tasks are already in the file exactly as they are now
+    // Nothing can be reused if the file changed on disk since we last saved or loaded it
+    private int reusableRecords(Path path) throws IOException {
+        if (!path.equals(savedPath) || !Files.exists(path) || Files.size(path) != savedSize
+                || !Files.getLastModifiedTime(path).equals(savedModified)) {
+            return 0;
+        }
+        return tasks.unchangedPrefix();
     }
 
     // Loads tasks from a file
+    // Files saved by older versions are read once and rewritten in the binary format
+    public void loadTasksFromFile(String filename) throws IOException {
+        loadTasksFromFile(filename, () -> false);
+    }
+
+    // Same, but gives up with a CancellationException soon after cancelled starts returning true
+    // The file is read in full before any task is replaced, so giving up keeps the current tasks
+    @SuppressWarnings("unchecked")
+    public void loadTasksFromFile(String filename, BooleanSupplier cancelled) throws IOException {
+        Path path = Path.of(filename);
+        boolean legacy = TaskFileReader.isLegacyFormat(path);
+        List<Task> loadedTasks;
+        if (legacy) {
+            loadedTasks = LegacyTaskFileReader.readAll(path);
+        } else {
+            List<Task> read = new ArrayList<>();
+            TaskFileReader.read(path, task -> {
+                Cancellation.check(read.size(), cancelled);
+                read.add(task);
+            });
+            loadedTasks = read;
+        }
+        Cancellation.check(0, cancelled);
+        if (legacy) {
+            migrateLegacyFile(path, loadedTasks);
+        }
+        synchronized (writeLock) {
+            // Task files only ever hold plain tasks
+            reloadTasksFromList((List<T>) loadedTasks);
+            rememberSavedFile(path);
+        }
+    }
+
+    // Opens a task file without decoding it up front
+    // The file is memory-mapped and each task is decoded the first time it is looked at,
+    // so even very large files open immediately
+    // Files without an index (old formats) are loaded normally instead
+    public void openTasksFromFile(String filename) throws IOException {
+        openTasksFromFile(filename, () -> false);
+    }
+
+    // Same, but a file that has to be loaded normally gives up with a CancellationException soon
+    // after cancelled starts returning true, keeping the current tasks
+    public void openTasksFromFile(String filename, BooleanSupplier cancelled) throws IOException {
+        Path path = Path.of(filename);
+        if (!MappedTaskFile.isIndexed(path)) {
+            loadTasksFromFile(filename, cancelled);
+            return;
+        }
+        MappedTaskFile file = MappedTaskFile.open(path);
+        synchronized (writeLock) {
+            attachMapped(path, file);
+        }
+    }
+
     @SuppressWarnings("unchecked")
-    public void loadTasksFromFile(String filename) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(filename))) {
-            List<T> loadedTasks = (List<T>) in.readObject();
-            reloadTasksFromList(loadedTasks);
+    private void attachMapped(Path path, MappedTaskFile file) throws IOException {
+        int previousSize = tasks.size();
+        tasks.attach(new TaskStore.Source<>() {
+            @Override
+            public int size() {
+                return file.size();
+            }
+
+            @Override
+            public T load(int index) {
+                // Task files only ever hold plain tasks
+                return (T) file.get(index);
+            }
+
+            @Override
+            public void close() {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        mappedPath = path;
+        publishReplaced(tasks.snapshot());
+        historyManager.closeNewest();
+        rememberSavedFile(path);
+        compactJournal();
+        fireChange(new TaskListChange.Reset<>(previousSize, tasks.size()));
+    }
+
+    // Adds the tasks from a CSV or JSON Lines file (picked by extension) to the end of the list
+    // The file is streamed and added in batches, so each batch is one history entry
+    // Returns how many tasks were imported
+    @SuppressWarnings("unchecked")
+    public long importTasks(String filename, DoubleConsumer progress) throws IOException {
+        Path path = Path.of(filename);
+        // Imported files only ever hold plain tasks
+        return TaskTransfer.importTasks(path, TaskTransfer.Format.forPath(path), TaskTransfer.DEFAULT_BATCH_SIZE,
+                batch -> addAll((List<T>) batch), progress);
+    }
+
+    // Writes every task to a CSV or JSON Lines file (picked by extension)
+    // Exports the current snapshot, so changes can carry on meanwhile
+    public void exportTasks(String filename) throws IOException {
+        Path path = Path.of(filename);
+        TaskTransfer.exportTasks(getTasks(), path, TaskTransfer.Format.forPath(path));
+    }
+
+    // Opens a task file and keeps a journal of every change next to it
+    // Changes made since the file was last written are replayed from the journal,
+    // so tasks survive a crash or a missed save; a missing file starts out empty
+    @SuppressWarnings("unchecked")
+    public void openJournaled(String filename, TaskJournal.Options options) throws IOException {
+        synchronized (writeLock) {
+            closeJournal();
+            Path path = Path.of(filename);
+            int generation = 0;
+            if (Files.exists(path)) {
+                openTasksFromFile(filename);
+                generation = TaskFileReader.readGeneration(path);
+            } else {
+                reloadTasksFromList(new ArrayList<>());
+            }
+            journal = TaskJournal.open(path, generation, options, this::replay);
+            if (journal.needsCompaction()) {
+                compactJournal();
+            }
+            // Replayed changes aren't the user's to undo
+            // Cleared last, so a spill file that can't be deleted doesn't leave the journal half open
+            historyManager.clear();
+        }
+    }
+
+    // Writes out anything the journal still holds and closes it
+    public void closeJournal() throws IOException {
+        synchronized (writeLock) {
+            if (journal == null) {
+                return;
+            }
+            TaskJournal closing = journal;
+            journal = null;
+            closing.close();
+        }
+    }
+
+    // Applies one change read back from the journal
+    // Runs before the journal is attached, so nothing is written back to it
+    @SuppressWarnings("unchecked")
+    private void replay(TaskJournal.Entry entry) {
+        switch (entry) {
+            case TaskJournal.Append append -> addAll((List<T>) append.tasks());
+            case TaskJournal.Insert insert -> putBack((List<T>) insert.tasks(), insert.positions());
+            case TaskJournal.Remove remove -> {
+                List<T> targets = new ArrayList<>(remove.positions().length);
+                for (int position : remove.positions()) {
+                    targets.add(tasks.get(position));
+                }
+                removeAll(targets);
+            }
+            case TaskJournal.Sort sort -> sortTasks(sort.keys().toArray(new TaskSorter.Key[0]));
+        }
+    }
+
+    // Records a change in the journal, folding the journal into a new snapshot once it's big
+    private void journal(TaskJournal.Entry entry) {
+        if (journal == null) {
+            return;
+        }
+        journal.append(entry);
+        if (journal.needsCompaction()) {
+            compactJournal();
+        }
+    }
+
+    // Hands the journal the current tasks to write as its new snapshot
+    // The snapshot replaces the file the tasks may be mapped from, so they are read in first
+    private void compactJournal() {
+        if (journal == null) {
+            return;
+        }
+        tasks.materialize();
+        mappedPath = null;
+        journal.compact(snapshot);
+    }
+
+    private static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw e;
+        }
+    }
+
+    // Fills the title table the first time it's needed after the list was replaced
+    // Walking the tasks in order means a later task with the same title wins, as with addTask
+    // Called with indexLock held, so the tasks walked are the ones in the latest snapshot
+    private void ensureTitlesIndexed() {
+        if (titlesIndexed) {
+            return;
+        }
+        taskTable.clear();
+        for (T task : snapshot) {
+            taskTable.put(task.getTitle(), task);
+        }
+        titlesIndexed = true;
+    }
+
+    // Returns the tasks with a priority from low to high (both included), ordered by priority
+    // Uses the priority index, so only the matching tasks are looked at
+    public List<T> rangeByPriority(int low, int high) {
+        return readOrderIndexes(() -> priorityIndex.range(low, high));
+    }
+
+    // Returns the tasks due from one date to another (both included), ordered by due date
+    public List<T> dueBetween(LocalDate from, LocalDate to) {
+        return readOrderIndexes(() -> dueDateIndex.range(from, to));
+    }
+
+    // Returns the tasks due before the given date, oldest first
+    public List<T> overdue(LocalDate asOf) {
+        return readOrderIndexes(() -> dueDateIndex.below(asOf));
+    }
+
+    // Returns the tasks whose title starts with the prefix, in title order
+    public List<T> tasksWithTitlePrefix(String prefix) {
+        return readOrderIndexes(() -> titleIndex.withPrefix(prefix));
+    }
+
+    // Returns the tasks with a title from 'from' (included) up to 'to' (excluded), in title order
+    public List<T> tasksWithTitleBetween(String from, String to) {
+        return readOrderIndexes(() -> titleIndex.range(from, to));
+    }
+
+    // Returns the greatest title at or before the given one, or null if there is none
+    public String titleFloor(String title) {
+        return readOrderIndexes(() -> titleIndex.floor(title));
+    }
+
+    // Returns the least title at or after the given one, or null if there is none
+    public String titleCeiling(String title) {
+        return readOrderIndexes(() -> titleIndex.ceiling(title));
+    }
+
+    // Removes every task with a priority from low to high (both included), as one history entry
+    // The priority index picks them out, so the other tasks aren't looked at
+    // Returns the removed tasks
+    public List<T> removePriorityRange(int low, int high) {
+        synchronized (writeLock) {
+            return removeAll(rangeByPriority(low, high));
+        }
+    }
+
+    // Removes every task whose title starts with the prefix, as one history entry
+    // Returns the removed tasks
+    public List<T> removeTasksWithTitlePrefix(String prefix) {
+        synchronized (writeLock) {
+            List<T> matching = tasksWithTitlePrefix(prefix);
+            removeAll(matching);
+            return matching;
+        }
+    }
+
+    // Returns the tasks whose title or description contains the text, ignoring case, in title order
+    public List<T> searchTasks(String text) {
+        return searchTasks(text, SearchIndex.Mode.SUBSTRING, false);
+    }
+
+    // Returns the tasks matching the text the given way, ignoring case, in title order
+    // Only titles are searched if titleOnly is set, otherwise descriptions too
+    public List<T> searchTasks(String text, SearchIndex.Mode mode, boolean titleOnly) {
+        return searchTasks(text, mode, titleOnly, () -> false);
+    }
+
+    // Same, but can run on a background thread and gives up with a CancellationException
+    // soon after cancelled starts returning true
+    // Only picking candidates from the index happens under the index lock; checking their text
+    // (a full scan for short or fuzzy queries) reads a snapshot, so it never holds up changes
+    public List<T> searchTasks(String text, SearchIndex.Mode mode, boolean titleOnly, BooleanSupplier cancelled) {
+        TaskSnapshot<T> current;
+        List<T> candidates;
+        synchronized (indexLock) {
+            ensureSearchIndexed();
+            current = snapshot;
+            candidates = searchIndex.candidates(text, mode);
+        }
+        List<T> matches = SearchIndex.check(candidates == null ? current : candidates, text, mode, titleOnly,
+                cancelled);
+        return inTitleOrder(matches, cancelled);
+    }
+
+    // Returns a number that changes whenever the list changes (the latest snapshot's version)
+    public long changeCount() {
+        return snapshot.version();
+    }
+
+    // Removes every task whose title contains the text, as one history entry
+    // Returns the removed tasks
+    public List<T> removeTasksWithTitleContaining(String text) {
+        synchronized (writeLock) {
+            List<T> matching = searchTasks(text, SearchIndex.Mode.SUBSTRING, true);
+            matching.removeIf(task -> !task.getTitle().contains(text));  // Case has to match here
+            removeAll(matching);
+            return matching;
+        }
+    }
+
+    // Puts matches in title order (stable, so tasks with the same title keep the order they
+    // were found in)
+    private List<T> inTitleOrder(List<T> matches, BooleanSupplier cancelled) {
+        if (matches.size() > 1) {
+            Cancellation.check(0, cancelled);
+            matches.sort(Comparator.comparing(Task::getTitle));
+        }
+        return matches;
+    }
+
+    // Returns all tasks in title order without sorting anything
+    // The index keeps changing, so this is a copy taken with the index lock held
+    public List<T> tasksByTitle() {
+        return readOrderIndexes(() -> copyOf(titleIndex, titleIndex.size()));
+    }
+
+    // Returns all tasks from lowest to highest priority without sorting anything
+    // Tasks with the same priority come in the order they were added
+    public List<T> tasksByPriority() {
+        return readOrderIndexes(() -> copyOf(priorityIndex, priorityIndex.size()));
+    }
+
+    // Returns all tasks from earliest to latest due date without sorting anything
+    // Tasks without a due date come last
+    public List<T> tasksByDueDate() {
+        return readOrderIndexes(() -> copyOf(dueDateIndex, dueDateIndex.size()));
+    }
+
+    // Answers a query from the order indexes (building them first if needed) with the index lock
+    // held, so the answer matches one snapshot and no change can reshape an index while it's read
+    // Queries copy what they return; nothing that escapes the lock points into an index
+    private <R> R readOrderIndexes(Supplier<R> query) {
+        synchronized (indexLock) {
+            ensureOrderIndexed();
+            return query.get();
+        }
+    }
+
+    private static <T> List<T> copyOf(Iterable<T> tasks, int size) {
+        List<T> copy = new ArrayList<>(size);
+        for (T task : tasks) {
+            copy.add(task);
+        }
+        return copy;
+    }
+
+    private void indexOrderNow(T task) {
+        priorityIndex.add(task);
+        dueDateIndex.add(task);
+        titleIndex.insert(task.getTitle(), task);
+    }
+
+    // Builds the title table and search index now instead of on the first lookup or search,
+    // e.g. after a load dropped them, so the first key typed into the search box doesn't wait
+    // The order indexes are left until something asks for them, since once built every change
+    // has to keep them up to date
+    // Gives up with a CancellationException between the two if cancelled starts returning true
+    public void warmUpIndexes(BooleanSupplier cancelled) {
+        Cancellation.check(0, cancelled);
+        synchronized (indexLock) {
+            ensureTitlesIndexed();
+        }
+        Cancellation.check(0, cancelled);
+        synchronized (indexLock) {
+            ensureSearchIndexed();
+        }
+    }
+
+    private void ensureOrderIndexed() {
+        synchronized (indexLock) {
+            if (orderIndexed) {
+                return;
+            }
+            for (T task : getTasks()) {
+                indexOrderNow(task);
+            }
+            orderIndexed = true;
+        }
+    }
+
+    private void ensureSearchIndexed() {
+        if (searchIndexed) {
+            return;
+        }
+        for (T task : getTasks()) {
+            searchIndex.add(task);
+        }
+        searchIndexed = true;
+    }
+
+    // Replaces an old-format file with the same tasks in the binary format
+    // Written to a temporary file first so a failure leaves the original untouched
+    private static void migrateLegacyFile(Path path, List<Task> loadedTasks) throws IOException {
+        Path temp = TaskFileWriter.tempFileFor(path, "migrating");
+        try {
+            TaskFileWriter.writeAll(temp, loadedTasks);
+            TaskFileWriter.moveIntoPlace(temp, path);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
         }
     }
 
     // Undoes the last action (add or remove)
+    // A bulk add or remove is undone as a whole, in one pass
+    // The inverse change is made directly, so it isn't recorded as a new change and redo still works:
+    // undoing an add takes the tasks out by their slots, undoing a remove puts them back where they were
     public void undo() {
-        TaskHistoryManager.HistoryRecord<T> lastAction = historyManager.undo();
-        if (lastAction != null) {
-            if (lastAction.operation().equals("Add")) {
-                removeTask(lastAction.task());
-            } else if (lastAction.operation().equals("Remove")) {
-                addTask(lastAction.task());
+        synchronized (writeLock) {
+            TaskHistoryManager.HistoryRecord<T> lastAction = historyManager.undo();
+            if (lastAction != null) {
+                switch (lastAction.operation()) {
+                    case ADD -> {
+                        List<T> added;
+                        try {
+                            added = inList(lastAction);
+                        } catch (IllegalStateException e) {
+                            historyManager.redo();  // Nothing changed, so the history mustn't either
+                            throw e;
+                        }
+                        takeOut(added);
+                    }
+                    case REMOVE -> putBack(lastAction.tasks(), lastAction.positions());
+                }
             }
         }
     }
 
     // Redoes the last undone action
     public void redo() {
-        TaskHistoryManager.HistoryRecord<T> lastUndone = historyManager.redo();
-        if (lastUndone != null) {
-            if (lastUndone.operation().equals("Add")) {
-                addTask(lastUndone.task());
-            } else if (lastUndone.operation().equals("Remove")) {
-                removeTask(lastUndone.task());
+        synchronized (writeLock) {
+            TaskHistoryManager.HistoryRecord<T> lastUndone = historyManager.redo();
+            if (lastUndone != null) {
+                switch (lastUndone.operation()) {
+                    case ADD -> putBack(lastUndone.tasks(), lastUndone.positions());
+                    case REMOVE -> {
+                        List<T> removing;
+                        try {
+                            removing = inList(lastUndone);
+                        } catch (IllegalStateException e) {
+                            historyManager.undo();  // Nothing changed, so the history mustn't either
+                            throw e;
+                        }
+                        takeOut(removing);
+                    }
+                }
+            }
+        }
+    }
+
+    // The tasks in the list that a history record is about
+    // Records read back from the history's spill file hold copies; the record's positions say
+    // where each task is now (all of them are in the list when an add is undone or a removal
+    // redone), so each copy is checked against the task in its slot
+    // Throws an IllegalStateException if one doesn't match, e.g. because the list was sorted since
+    private List<T> inList(TaskHistoryManager.HistoryRecord<T> record) {
+        if (!record.restored()) {
+            return record.tasks();
+        }
+        List<T> copies = record.tasks();
+        int[] positions = record.positions();
+        List<T> matches = new ArrayList<>(copies.size());
+        for (int i = 0; i < positions.length; i++) {
+            T task = positions[i] < snapshot.size() ? snapshot.get(positions[i]) : null;
+            if (task == null || !sameDetails(task, copies.get(i))) {
+                throw new IllegalStateException("The task list no longer matches the history at position "
+                        + positions[i] + ", so that change can't be taken back or made again");
             }
+            matches.add(task);
         }
+        return matches;
+    }
+
+    private static boolean sameDetails(Task task, Task copy) {
+        return task.getPriority() == copy.getPriority()
+                && Objects.equals(task.getTitle(), copy.getTitle())
+                && Objects.equals(task.getDescription(), copy.getDescription())
+                && Objects.equals(task.getDueDate(), copy.getDueDate());
     }
 
     // Gets a task by its title, checking cache first
+    // The title table and cache change along with the snapshot under indexLock, so a miss only
+    // waits for a snapshot being published, never for a whole change (or a load) in progress
     public T getTaskByTitle(String title) {
-        T cachedTask = taskCache.get(title);
-        if (cachedTask != null) {
-            return cachedTask;
+        T cached = taskCache.get(title);
+        if (cached != null) {
+            return cached;
         }
-        
-        T task = taskTable.get(title);
-        if (task != null) {
-            taskCache.put(title, task);
+        synchronized (indexLock) {
+            ensureTitlesIndexed();
+            return taskCache.load(title, taskTable::get);
         }
-        return task;
+    }
+
+    // Reports how well the title lookup cache is working
+    public TaskCache.Stats getCacheStats() {
+        return taskCache.stats();
     }
 }
@@ -0,0 +1,400 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+// An immutable list of tasks that any thread can read without locking
+// Changing it gives a new snapshot that shares everything it didn't touch with the old one,
+// so a change costs O(log n) instead of a copy of the whole list
+//
+// The tasks sit in a tree of nodes holding up to WIDTH entries each (at most four levels for a
+// million tasks); a change copies just the nodes on the way down to the one it touches
+// A batch of changes (appendAll, insertAll, removeAll) owns the nodes it copies and keeps changing those
+// in place, so each node is copied once per batch instead of once per task
+// Tasks still in a lazily read file sit in front of the tree and are shared with the store
+public final class TaskSnapshot<T> extends AbstractList<T> implements RandomAccess {
+    private static final int WIDTH = 64;
+    private static final TaskSnapshot<?> EMPTY = new TaskSnapshot<>(null, 0, null, 0, 0);
+
+    private final TaskStore.LazyTasks<T> lazy;
+    private final int lazySize;
+    private final Node root;  // Null if everything is in the lazy part
+    private final int height;  // Levels of branches above the leaves
+    private final int size;
+    private final long version;
+
+    // A leaf holds tasks, a branch holds nodes plus the running total of their sizes
+    // Only the batch that owns a node (edit) may change it, and only until the batch is done
+    private static final class Node {
+        final Object edit;
+        final Object[] items;
+        final int[] sizes;  // Null for a leaf
+        int count;
+
+        Node(Object edit, boolean leaf) {
+            this.edit = edit;
+            this.items = new Object[WIDTH];
+            this.sizes = leaf ? null : new int[WIDTH];
+        }
+
+        boolean isLeaf() {
+            return sizes == null;
+        }
+
+        int size() {
+            return isLeaf() ? count : sizes[count - 1];
+        }
+
+        // This node if the batch owns it, otherwise a copy the batch owns
+        Node editable(Object edit) {
+            if (edit != null && this.edit == edit) {
+                return this;
+            }
+            Node copy = new Node(edit, isLeaf());
+            System.arraycopy(items, 0, copy.items, 0, count);
+            if (sizes != null) {
+                System.arraycopy(sizes, 0, copy.sizes, 0, count);
+            }
+            copy.count = count;
+            return copy;
+        }
+    }
+
+    private TaskSnapshot(TaskStore.LazyTasks<T> lazy, int lazySize, Node root, int height, long version) {
+        this.lazy = lazy;
+        this.lazySize = lazySize;
+        this.root = root;
+        this.height = height;
+        this.size = lazySize + (root == null ? 0 : root.size());
+        this.version = version;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> TaskSnapshot<T> empty() {
+        return (TaskSnapshot<T>) EMPTY;
+    }
+
+    // Builds a snapshot of the first count tasks in the array behind the lazy tasks, if any, in O(n)
+    static <T> TaskSnapshot<T> of(TaskStore.LazyTasks<T> lazy, int lazySize, Object[] tasks, int count) {
+        if (count == 0) {
+            return new TaskSnapshot<>(lazy, lazySize, null, 0, 0);
+        }
+        // Fill leaves, then put them under branches, until one node is left
+        Node[] level = new Node[(count + WIDTH - 1) / WIDTH];
+        for (int i = 0; i < level.length; i++) {
+            Node leaf = new Node(null, true);
+            leaf.count = Math.min(WIDTH, count - i * WIDTH);
+            System.arraycopy(tasks, i * WIDTH, leaf.items, 0, leaf.count);
+            level[i] = leaf;
+        }
+        int height = 0;
+        while (level.length > 1) {
+            Node[] parents = new Node[(level.length + WIDTH - 1) / WIDTH];
+            for (int i = 0; i < parents.length; i++) {
+                Node branch = new Node(null, false);
+                int children = Math.min(WIDTH, level.length - i * WIDTH);
+                for (int c = 0; c < children; c++) {
+                    addChild(branch, level[i * WIDTH + c]);
+                }
+                parents[i] = branch;
+            }
+            level = parents;
+            height++;
+        }
+        return new TaskSnapshot<>(lazy, lazySize, level[0], height, 0);
+    }
+
+    // Builds a snapshot holding a copy of the list
+    public static <T> TaskSnapshot<T> copyOf(List<? extends T> tasks) {
+        Object[] array = tasks.toArray();
+        return of(null, 0, array, array.length);
+    }
+
+    // Number of the change that produced this snapshot; a later snapshot has a higher one
+    public long version() {
+        return version;
+    }
+
+    // The same tasks, stamped with a version
+    public TaskSnapshot<T> withVersion(long version) {
+        return new TaskSnapshot<>(lazy, lazySize, root, height, version);
+    }
+
+    // How many leading tasks are still only in a lazily read file
+    public int lazySize() {
+        return lazySize;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        if (index < lazySize) {
+            return lazy.get(index);
+        }
+        int i = index - lazySize;
+        Node node = root;
+        while (!node.isLeaf()) {
+            int child = childFor(node, i);
+            if (child > 0) {
+                i -= node.sizes[child - 1];
+            }
+            node = (Node) node.items[child];
+        }
+        return (T) node.items[i];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // Returns a snapshot with the task added at the end
+    public TaskSnapshot<T> append(T task) {
+        return appendAll(List.of(task));
+    }
+
+    // Returns a snapshot with the tasks added at the end, in order
+    public TaskSnapshot<T> appendAll(List<? extends T> tasks) {
+        if (tasks.isEmpty()) {
+            return this;
+        }
+        Object edit = new Object();
+        Node newRoot = root;
+        int newHeight = height;
+        for (T task : tasks) {
+            if (newRoot == null) {
+                newRoot = new Node(edit, true);
+            }
+            Node appended = appendLast(newRoot, newHeight, task, edit);
+            if (appended == null) {
+                // The tree is full along its right edge, so it grows a level
+                Node grown = new Node(edit, false);
+                addChild(grown, newRoot);
+                addChild(grown, path(newHeight, task, edit));
+                newRoot = grown;
+                newHeight++;
+            } else {
+                newRoot = appended;
+            }
+        }
+        return new TaskSnapshot<>(lazy, lazySize, newRoot, newHeight, version);
+    }
+
+    // Returns a snapshot with the tasks put in at the given positions
+    // Positions are ascending, counted with the tasks in, and after the lazy tasks; see lazySize()
+    // A full node is split in two on the way, so each task costs O(log n)
+    public TaskSnapshot<T> insertAll(int[] positions, List<? extends T> tasks) {
+        if (positions.length == 0) {
+            return this;
+        }
+        if (positions[0] < lazySize) {
+            throw new IllegalArgumentException("Can't insert in front of lazily read tasks in a snapshot");
+        }
+        Object edit = new Object();
+        Node newRoot = root;
+        int newHeight = height;
+        Node[] split = new Node[1];
+        for (int i = 0; i < positions.length; i++) {
+            if (newRoot == null) {
+                newRoot = new Node(edit, true);
+            }
+            newRoot = insertAt(newRoot, positions[i] - lazySize, tasks.get(i), edit, split);
+            if (split[0] != null) {
+                Node grown = new Node(edit, false);
+                addChild(grown, newRoot);
+                addChild(grown, split[0]);
+                newRoot = grown;
+                newHeight++;
+                split[0] = null;
+            }
+        }
+        return new TaskSnapshot<>(lazy, lazySize, newRoot, newHeight, version);
+    }
+
+    // Returns a snapshot without the tasks at the given positions
+    // Positions must be ascending and after the lazy tasks; see lazySize()
+    public TaskSnapshot<T> removeAll(int[] positions) {
+        if (positions.length == 0) {
+            return this;
+        }
+        if (positions[0] < lazySize) {
+            throw new IllegalArgumentException("Can't remove lazily read tasks from a snapshot");
+        }
+        Object edit = new Object();
+        Node newRoot = root;
+        int newHeight = height;
+        // Last first, so earlier positions don't move
+        for (int i = positions.length - 1; i >= 0 && newRoot != null; i--) {
+            newRoot = removeAt(newRoot, positions[i] - lazySize, edit);
+        }
+        while (newRoot != null && !newRoot.isLeaf() && newRoot.count == 1) {
+            newRoot = (Node) newRoot.items[0];
+            newHeight--;
+        }
+        return new TaskSnapshot<>(lazy, lazySize, newRoot, newRoot == null ? 0 : newHeight, version);
+    }
+
+    // Adds the task under the node's right edge; returns the changed node, or null if it's full
+    private static Node appendLast(Node node, int height, Object task, Object edit) {
+        if (node.isLeaf()) {
+            if (node.count == WIDTH) {
+                return null;
+            }
+            Node leaf = node.editable(edit);
+            leaf.items[leaf.count++] = task;
+            return leaf;
+        }
+        Node last = (Node) node.items[node.count - 1];
+        Node appended = appendLast(last, height - 1, task, edit);
+        if (appended == null && node.count == WIDTH) {
+            return null;
+        }
+        Node branch = node.editable(edit);
+        if (appended != null) {
+            branch.items[branch.count - 1] = appended;
+            branch.sizes[branch.count - 1]++;
+        } else {
+            addChild(branch, path(height - 1, task, edit));
+        }
+        return branch;
+    }
+
+    // A chain of nodes of the given height ending in a leaf holding just the task
+    private static Node path(int height, Object task, Object edit) {
+        Node node = new Node(edit, true);
+        node.items[node.count++] = task;
+        for (int h = 0; h < height; h++) {
+            Node parent = new Node(edit, false);
+            addChild(parent, node);
+            node = parent;
+        }
+        return node;
+    }
+
+    // Puts the task at a position under the node and returns the changed node
+    // If the node was full it's split: the returned node is the left half and split[0] the right
+    private static Node insertAt(Node node, int index, Object task, Object edit, Node[] split) {
+        Node copy = node.editable(edit);
+        if (copy.isLeaf()) {
+            if (copy.count < WIDTH) {
+                insertItem(copy, index, task);
+                return copy;
+            }
+            Node right = splitOff(copy, edit);
+            if (index <= copy.count) {
+                insertItem(copy, index, task);
+            } else {
+                insertItem(right, index - copy.count, task);
+            }
+            split[0] = right;
+            return copy;
+        }
+        // An index right at the end of a child goes into that child, so inserting at the very end works
+        int found = Arrays.binarySearch(copy.sizes, 0, copy.count, index);
+        int child = Math.min(found >= 0 ? found : -found - 1, copy.count - 1);
+        int offset = child > 0 ? copy.sizes[child - 1] : 0;
+        Node changed = insertAt((Node) copy.items[child], index - offset, task, edit, split);
+        copy.items[child] = changed;
+        Node newChild = split[0];
+        split[0] = null;
+        if (newChild == null) {
+            for (int c = child; c < copy.count; c++) {
+                copy.sizes[c]++;
+            }
+            return copy;
+        }
+        if (copy.count < WIDTH) {
+            insertItem(copy, child + 1, newChild);
+            recount(copy, child);
+            return copy;
+        }
+        Node right = splitOff(copy, edit);
+        if (child < copy.count) {
+            insertItem(copy, child + 1, newChild);
+            recount(copy, child);
+        } else {
+            insertItem(right, child + 1 - copy.count, newChild);
+            recount(right, 0);
+        }
+        split[0] = right;
+        return copy;
+    }
+
+    // Shifts the node's entries up to make room at index
+    private static void insertItem(Node node, int index, Object item) {
+        System.arraycopy(node.items, index, node.items, index + 1, node.count - index);
+        node.items[index] = item;
+        node.count++;
+    }
+
+    // Moves the back half of a full node into a new one and returns it
+    private static Node splitOff(Node node, Object edit) {
+        Node right = new Node(edit, node.isLeaf());
+        int keep = WIDTH / 2;
+        right.count = node.count - keep;
+        System.arraycopy(node.items, keep, right.items, 0, right.count);
+        Arrays.fill(node.items, keep, node.count, null);
+        node.count = keep;
+        if (!node.isLeaf()) {
+            recount(node, 0);
+            recount(right, 0);
+        }
+        return right;
+    }
+
+    // Works out a branch's running sizes again from child on
+    private static void recount(Node branch, int child) {
+        int total = child > 0 ? branch.sizes[child - 1] : 0;
+        for (int c = child; c < branch.count; c++) {
+            total += ((Node) branch.items[c]).size();
+            branch.sizes[c] = total;
+        }
+    }
+
+    // Removes the entry at a position under the node; returns the changed node, or null if it's empty
+    // Nodes that shrink aren't merged with their neighbours: bulk changes rebuild the whole
+    // snapshot instead, and a sort or reload starts from full nodes again
+    private static Node removeAt(Node node, int index, Object edit) {
+        Node copy = node.editable(edit);
+        if (copy.isLeaf()) {
+            System.arraycopy(copy.items, index + 1, copy.items, index, copy.count - index - 1);
+            copy.items[--copy.count] = null;
+            return copy.count == 0 ? null : copy;
+        }
+        int child = childFor(copy, index);
+        int offset = child > 0 ? copy.sizes[child - 1] : 0;
+        Node changed = removeAt((Node) copy.items[child], index - offset, edit);
+        if (changed != null) {
+            copy.items[child] = changed;
+            for (int c = child; c < copy.count; c++) {
+                copy.sizes[c]--;
+            }
+            return copy;
+        }
+        // The child is empty now, so it goes
+        System.arraycopy(copy.items, child + 1, copy.items, child, copy.count - child - 1);
+        System.arraycopy(copy.sizes, child + 1, copy.sizes, child, copy.count - child - 1);
+        copy.items[--copy.count] = null;
+        for (int c = child; c < copy.count; c++) {
+            copy.sizes[c]--;
+        }
+        return copy.count == 0 ? null : copy;
+    }
+
+    private static void addChild(Node branch, Node child) {
+        int before = branch.count == 0 ? 0 : branch.sizes[branch.count - 1];
+        branch.items[branch.count] = child;
+        branch.sizes[branch.count] = before + child.size();
+        branch.count++;
+    }
+
+    // Which child of a branch holds the position
+    private static int childFor(Node branch, int index) {
+        int found = Arrays.binarySearch(branch.sizes, 0, branch.count, index);
+        // Running totals are exclusive ends, so an exact hit belongs to the next child
+        return found >= 0 ? found + 1 : -found - 1;
+    }
+}
@@ -0,0 +1,469 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
+
+// Works out the sorted order of a task list without moving any tasks
+// The result is a permutation: order[i] is the position of the task that belongs at i
+//
+// Priorities and due dates are copied into a plain long array first and sorted with an
+// LSD radix sort (16 bits per pass, and only as many passes as the key range needs),
+// so there are no comparisons and no boxing; titles and arbitrary comparators use a
+// bottom-up merge sort that does almost nothing on input that is already in order
+// Every sort is stable, so sorting by several keys is one pass per key, least important first
+//
+// Big lists can be sorted on a fork-join pool instead: each thread sorts a slice as above
+// and the slices are merged in parallel by comparing the same key arrays
+//
+// The last orders worked out are kept until invalidate() is called, so asking again for
+// the same order of an unchanged list costs nothing
+public class TaskSorter<T extends Task> {
+    // Things tasks can be sorted by
+    public enum Key {
+        PRIORITY, DUE_DATE, TITLE
+    }
+
+    private static final int RADIX_BITS = 16;
+    private static final int RADIX = 1 << RADIX_BITS;
+    // Runs shorter than this are insertion sorted before merging
+    private static final int INSERTION_RUN = 32;
+    // Merges smaller than this aren't split up between threads
+    private static final int MERGE_CHUNK = 1 << 14;
+
+    private final Map<List<Key>, int[]> cache = new HashMap<>();
+    private long version;  // Goes up whenever the cached orders stop applying
+
+    // Returns the stable order of the tasks by the keys, most important key first
+    // Tasks without a due date come after those with one
+    public int[] order(List<? extends T> tasks, List<Key> keys) {
+        int[] cached = cache.get(keys);
+        if (cached != null && cached.length == tasks.size()) {
+            return cached;
+        }
+        int[] order = identity(tasks.size());
+        new KeyArrays(tasks, keys).sort(order, 0, order.length, new int[order.length]);
+        cache.put(List.copyOf(keys), order);
+        return order;
+    }
+
+    // Forgets the cached orders; call whenever the list changes
+    public void invalidate() {
+        cache.clear();
+        version++;
+    }
+
+    // Records that the list is now in this order, so sorting it the same way again is free
+    public void sorted(List<Key> keys, int size) {
+        invalidate();
+        cache.put(List.copyOf(keys), identity(size));
+    }
+
+    // Returns a number that changes whenever the cached orders are dropped
+    public long version() {
+        return version;
+    }
+
+    // Caches an order worked out elsewhere (e.g. by parallelOrder), unless the list has
+    // changed since the given version was read
+    public boolean offer(List<Key> keys, int[] order, long expectedVersion) {
+        if (version != expectedVersion) {
+            return false;
+        }
+        cache.put(List.copyOf(keys), order);
+        return true;
+    }
+
+    // Works out the same order as order(tasks, keys) using the threads of a fork-join pool
+    // Lists below ParallelWork.THRESHOLD are sorted on the calling thread
+    // progress gets the fraction done so far, on whichever thread did the work; throws a
+    // CancellationException soon after cancelled starts returning true
+    // The list must not change while this runs, so hand it a copy; nothing is cached
+    public static int[] parallelOrder(List<? extends Task> tasks, List<Key> keys, ForkJoinPool pool,
+                                      BooleanSupplier cancelled, DoubleConsumer progress) {
+        int n = tasks.size();
+        int[] order = identity(n);
+        KeyArrays keyArrays = new KeyArrays(tasks, keys);
+        int chunk = ParallelWork.chunkSize(n, pool);
+        // Every element is sorted once in its slice, then merged once per level above the slices
+        int levels = 0;
+        for (long size = chunk; size < n; size *= 2) {
+            levels++;
+        }
+        ParallelWork.Progress tracker = new ParallelWork.Progress((long) n * (levels + 1), cancelled, progress);
+        if (n < ParallelWork.THRESHOLD) {
+            tracker.check();
+            keyArrays.sort(order, 0, n, new int[n]);
+            tracker.advance(tracker.total());
+            return order;
+        }
+        pool.invoke(new SortSlice(order, new int[n], 0, n, chunk, keyArrays, tracker));
+        return order;
+    }
+
+    // Returns the stable order of the tasks by any comparator (merge sort, nothing cached)
+    public static <T> int[] order(List<? extends T> tasks, Comparator<? super T> comparator) {
+        int[] order = identity(tasks.size());
+        mergeSort(order, 0, order.length, (a, b) -> comparator.compare(tasks.get(a), tasks.get(b)),
+                new int[order.length]);
+        return order;
+    }
+
+    // Returns the tasks in the given order as a new list
+    public static <T> List<T> apply(List<? extends T> tasks, int[] order) {
+        Object[] sorted = new Object[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = tasks.get(order[i]);
+        }
+        @SuppressWarnings("unchecked")
+        List<T> result = (List<T>) Arrays.asList(sorted);
+        return result;
+    }
+
+    // Checks whether an order leaves every task where it is
+    public static boolean isIdentity(int[] order) {
+        for (int i = 0; i < order.length; i++) {
+            if (order[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] identity(int size) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    // Compares two positions
+    private interface PositionComparator {
+        int compare(int a, int b);
+    }
+
+    // The sort keys of every task, pulled out once so sorting never calls back into the tasks
+    // Numeric keys are longs; a title is kept as its first four characters packed into a long
+    // (see titlePrefix) plus the string itself for when those are equal
+    private static final class KeyArrays implements PositionComparator {
+        private final Key[] keys;
+        private final long[][] values;
+        private final String[] titles;
+
+        KeyArrays(List<? extends Task> tasks, List<Key> keys) {
+            this.keys = keys.toArray(new Key[0]);
+            this.values = new long[this.keys.length][];
+            String[] titleArray = null;
+            for (int k = 0; k < this.keys.length; k++) {
+                switch (this.keys[k]) {
+                    case PRIORITY -> values[k] = priorities(tasks);
+                    case DUE_DATE -> values[k] = dueDays(tasks);
+                    case TITLE -> {
+                        if (titleArray == null) {
+                            titleArray = new String[tasks.size()];
+                            for (int i = 0; i < titleArray.length; i++) {
+                                titleArray[i] = tasks.get(i).getTitle();
+                            }
+                        }
+                        long[] prefixes = new long[titleArray.length];
+                        for (int i = 0; i < prefixes.length; i++) {
+                            prefixes[i] = titlePrefix(titleArray[i]);
+                        }
+                        values[k] = prefixes;
+                    }
+                }
+            }
+            this.titles = titleArray;
+        }
+
+        // Sorts order[from..to) by all the keys, least important first, using the same part of buffer
+        void sort(int[] order, int from, int to, int[] buffer) {
+            for (int k = keys.length - 1; k >= 0; k--) {
+                radixSort(order, from, to, values[k], buffer);
+                if (keys[k] == Key.TITLE) {
+                    sortEqualPrefixes(order, from, to, values[k], buffer);
+                }
+            }
+        }
+
+        // The radix pass only looked at four characters; titles sharing those are merge sorted
+        // by comparing the strings themselves
+        private void sortEqualPrefixes(int[] order, int from, int to, long[] prefixes, int[] buffer) {
+            PositionComparator byTitle = (a, b) -> titles[a].compareTo(titles[b]);
+            int start = from;
+            for (int i = from + 1; i <= to; i++) {
+                if (i == to || prefixes[order[i]] != prefixes[order[start]]) {
+                    if (i - start > 1) {
+                        mergeSort(order, start, i, byTitle, buffer);
+                    }
+                    start = i;
+                }
+            }
+        }
+
+        // Compares by every key in turn, most important first
+        @Override
+        public int compare(int a, int b) {
+            for (int k = 0; k < keys.length; k++) {
+                int cmp = Long.compare(values[k][a], values[k][b]);
+                if (cmp == 0 && keys[k] == Key.TITLE) {
+                    cmp = titles[a].compareTo(titles[b]);
+                }
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+    }
+
+    private static long[] priorities(List<? extends Task> tasks) {
+        long[] keys = new long[tasks.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = tasks.get(i).getPriority();
+        }
+        return keys;
+    }
+
+    // Due dates as days since 1970; no due date sorts last
+    // Missing dates get the day after the latest one rather than some huge number,
+    // so they don't widen the key range and add radix passes
+    private static long[] dueDays(List<? extends Task> tasks) {
+        long[] keys = new long[tasks.size()];
+        long latest = 0;
+        boolean missing = false;
+        for (int i = 0; i < keys.length; i++) {
+            LocalDate dueDate = tasks.get(i).getDueDate();
+            if (dueDate == null) {
+                missing = true;
+            } else {
+                keys[i] = dueDate.toEpochDay();
+                latest = Math.max(latest, keys[i]);
+            }
+        }
+        if (missing) {
+            for (int i = 0; i < keys.length; i++) {
+                if (tasks.get(i).getDueDate() == null) {
+                    keys[i] = latest + 1;
+                }
+            }
+        }
+        return keys;
+    }
+
+    // The first four characters, padded with zeros, with the sign bit flipped so that
+    // comparing the longs as signed numbers matches comparing the characters
+    private static long titlePrefix(String title) {
+        long prefix = 0;
+        for (int i = 0; i < 4; i++) {
+            prefix = (prefix << 16) | (i < title.length() ? title.charAt(i) : 0);
+        }
+        return prefix ^ Long.MIN_VALUE;
+    }
+
+    // Stable LSD radix sort of the positions in order[from..to) by keys[position]
+    // Keys are shifted down by the smallest one, so a narrow range (like priorities 1-5)
+    // needs a single counting pass whatever the actual values are
+    private static void radixSort(int[] order, int from, int to, long[] keys, int[] buffer) {
+        int n = to - from;
+        if (n < 2) {
+            return;
+        }
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = from; i < to; i++) {
+            long key = keys[order[i]];
+            min = Math.min(min, key);
+            max = Math.max(max, key);
+        }
+        long range = max - min;  // Read as unsigned, so it's right even for the widest ranges
+        int passes = (64 - Long.numberOfLeadingZeros(range) + RADIX_BITS - 1) / RADIX_BITS;
+        int[] counts = passes == 0 ? null : new int[RADIX + 1];
+        for (int pass = 0, shift = 0; pass < passes; pass++, shift += RADIX_BITS) {
+            Arrays.fill(counts, 0);
+            for (int i = from; i < to; i++) {
+                counts[digit(keys[order[i]], min, shift) + 1]++;
+            }
+            if (counts[digit(keys[order[from]], min, shift) + 1] == n) {
+                continue;  // Every key has the same digit here
+            }
+            counts[0] = from;
+            for (int d = 0; d < RADIX; d++) {
+                counts[d + 1] += counts[d];
+            }
+            for (int i = from; i < to; i++) {
+                int position = order[i];
+                buffer[counts[digit(keys[position], min, shift)]++] = position;
+            }
+            System.arraycopy(buffer, from, order, from, n);
+        }
+    }
+
+    private static int digit(long key, long min, int shift) {
+        return (int) (((key - min) >>> shift) & (RADIX - 1));
+    }
+
+    // Stable bottom-up merge sort of order[from..to), using the same part of buffer as scratch space
+    // Neighbouring runs that are already in order are left alone, so sorted input is O(n)
+    private static void mergeSort(int[] order, int from, int to, PositionComparator comparator, int[] buffer) {
+        for (int start = from; start < to; start += INSERTION_RUN) {
+            insertionSort(order, start, Math.min(start + INSERTION_RUN, to), comparator);
+        }
+        for (int width = INSERTION_RUN; width < to - from; width *= 2) {
+            for (int low = from; low < to - width; low += 2 * width) {
+                int mid = low + width;
+                int high = Math.min(low + 2 * width, to);
+                if (comparator.compare(order[mid - 1], order[mid]) > 0) {
+                    System.arraycopy(order, low, buffer, low, high - low);
+                    merge(buffer, low, mid, mid, high, order, low, comparator);
+                }
+            }
+        }
+    }
+
+    private static void insertionSort(int[] order, int from, int to, PositionComparator comparator) {
+        for (int i = from + 1; i < to; i++) {
+            int position = order[i];
+            int j = i - 1;
+            while (j >= from && comparator.compare(order[j], position) > 0) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = position;
+        }
+    }
+
+    // Merges two sorted runs of source into target starting at 'into'; ties take the left run first
+    private static void merge(int[] source, int leftFrom, int leftTo, int rightFrom, int rightTo,
+                              int[] target, int into, PositionComparator comparator) {
+        int i = leftFrom;
+        int j = rightFrom;
+        while (i < leftTo && j < rightTo) {
+            target[into++] = comparator.compare(source[i], source[j]) <= 0 ? source[i++] : source[j++];
+        }
+        System.arraycopy(source, i, target, into, leftTo - i);
+        System.arraycopy(source, j, target, into + leftTo - i, rightTo - j);
+    }
+
+    // Sorts order[from..to): slices up to 'chunk' long are sorted on one thread, bigger ones
+    // are split in two, sorted in parallel and then merged in parallel
+    // ForkJoinTask is Serializable, but the sort's tasks only ever run on a pool, never serialized
+    @SuppressWarnings("serial")
+    private static final class SortSlice extends RecursiveAction {
+        private final int[] order;
+        private final int[] buffer;
+        private final int from;
+        private final int to;
+        private final int chunk;
+        private final KeyArrays keys;
+        private final ParallelWork.Progress progress;
+
+        SortSlice(int[] order, int[] buffer, int from, int to, int chunk, KeyArrays keys,
+                  ParallelWork.Progress progress) {
+            this.order = order;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+            this.keys = keys;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            progress.check();
+            if (to - from <= chunk) {
+                keys.sort(order, from, to, buffer);
+                progress.advance(to - from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new SortSlice(order, buffer, from, mid, chunk, keys, progress),
+                    new SortSlice(order, buffer, mid, to, chunk, keys, progress));
+            if (keys.compare(order[mid - 1], order[mid]) <= 0) {
+                progress.advance(to - from);  // The halves are already in order
+                return;
+            }
+            new MergeSlices(order, from, mid, mid, to, buffer, from, keys, progress).invoke();
+            System.arraycopy(buffer, from, order, from, to - from);
+        }
+    }
+
+    // Merges two sorted runs into target; a big merge is split into two independent ones by
+    // taking the middle of the longer run and finding where it falls in the other
+    @SuppressWarnings("serial")  // Never serialized, like SortSlice
+    private static final class MergeSlices extends RecursiveAction {
+        private final int[] source;
+        private final int leftFrom;
+        private final int leftTo;
+        private final int rightFrom;
+        private final int rightTo;
+        private final int[] target;
+        private final int into;
+        private final KeyArrays keys;
+        private final ParallelWork.Progress progress;
+
+        MergeSlices(int[] source, int leftFrom, int leftTo, int rightFrom, int rightTo, int[] target, int into,
+                    KeyArrays keys, ParallelWork.Progress progress) {
+            this.source = source;
+            this.leftFrom = leftFrom;
+            this.leftTo = leftTo;
+            this.rightFrom = rightFrom;
+            this.rightTo = rightTo;
+            this.target = target;
+            this.into = into;
+            this.keys = keys;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            int leftLength = leftTo - leftFrom;
+            int rightLength = rightTo - rightFrom;
+            if (leftLength + rightLength <= MERGE_CHUNK) {
+                progress.check();
+                merge(source, leftFrom, leftTo, rightFrom, rightTo, target, into, keys);
+                progress.advance(leftLength + rightLength);
+                return;
+            }
+            int leftSplit;
+            int rightSplit;
+            if (leftLength >= rightLength) {
+                // Right-run elements equal to the pivot must stay after it
+                leftSplit = (leftFrom + leftTo) >>> 1;
+                rightSplit = firstNotBefore(source[leftSplit], rightFrom, rightTo, false);
+            } else {
+                // Left-run elements equal to the pivot must stay before it
+                rightSplit = (rightFrom + rightTo) >>> 1;
+                leftSplit = firstNotBefore(source[rightSplit], leftFrom, leftTo, true);
+            }
+            invokeAll(new MergeSlices(source, leftFrom, leftSplit, rightFrom, rightSplit, target, into,
+                            keys, progress),
+                    new MergeSlices(source, leftSplit, leftTo, rightSplit, rightTo, target,
+                            into + (leftSplit - leftFrom) + (rightSplit - rightFrom), keys, progress));
+        }
+
+        // First index in source[from..to) whose element is not before the pivot
+        // (greater than or equal to it, or strictly greater if equalIsBefore)
+        private int firstNotBefore(int pivot, int from, int to, boolean equalIsBefore) {
+            int low = from;
+            int high = to;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int cmp = keys.compare(source[mid], pivot);
+                if (cmp < 0 || (cmp == 0 && equalIsBefore)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
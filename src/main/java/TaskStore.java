@@ -0,0 +1,605 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+
+// Array-backed store that keeps tasks in insertion (or sorted) order
+// Appends are amortized O(1), lookups by position are O(1) and a task can be
+// removed by identity in O(1) because each task remembers which slot it lives in
+// A removed task leaves a hole instead of shifting the rest; a count of the holes (a Fenwick
+// tree) turns slots into positions and back in O(log n) until the holes are closed up, and
+// putting a removed task back where it was (like undoing the removal) just fills its hole again
+//
+// The store can also sit on top of a Source (such as a memory-mapped task file):
+// those tasks come first, and each one is only loaded when it is looked at
+//
+// The store itself is for one thread at a time; snapshot() hands other threads an immutable copy
+public class TaskStore<T> {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+
+    private Object[] slots;
+    private int end;          // One past the last used slot (live or removed)
+    private int size;         // Number of live tasks in the slot array
+    private int firstHole;    // Lowest removed slot, or end if there are none
+    // Fenwick tree counting holes by slot: holeTree[i] covers the slots (i - lowbit(i), i]
+    private int[] holeTree;
+    // The slot each removed task had, kept until the holes are closed up
+    private final Map<T, Integer> vacated = new IdentityHashMap<>();
+
+    // Maps each stored task (by identity) to its slot handle
+    private final Map<T, Slot> handles = new IdentityHashMap<>();
+    private final List<T> view = new View();
+
+    // Tasks still waiting in the source, in front of the slot array
+    private LazyTasks<T> lazy;
+    private int lazySize;
+
+    // How many leading positions still hold the same tasks as at the last markUnchanged()
+    private int unchangedPrefix;
+    // The same, counted from each startTracking() that hasn't been stopped yet
+    private final List<Tracking> tracking = new ArrayList<>();
+
+    // Counts unchanged positions from the contents at one startTracking(), e.g. for one save
+    public static final class Tracking {
+        private int prefix;
+
+        private Tracking(int prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    // Somewhere tasks can be loaded from one at a time, by position
+    // Snapshots taken before the store let go of a source may still load from it afterwards,
+    // so loading should keep working after close() (a memory-mapped file does)
+    public interface Source<T> extends AutoCloseable {
+        int size();
+
+        T load(int index);
+
+        // Called once the store no longer needs the source
+        @Override
+        void close();
+    }
+
+    // The tasks of a source, each loaded the first time it's read and then kept
+    // Shared by the store and its snapshots, so loading is synchronized; every reader of a
+    // position gets the same task object
+    public static final class LazyTasks<T> {
+        private final Source<? extends T> source;
+        private final int size;
+        private final Object[][] pages;  // Tasks loaded so far, in pages allocated on first use
+        private final Map<T, Integer> handles = new IdentityHashMap<>();
+
+        LazyTasks(Source<? extends T> source) {
+            this.source = source;
+            this.size = source.size();
+            this.pages = new Object[(size + PAGE_MASK) >>> PAGE_SHIFT][];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        // Returns the task at a source position, loading it the first time
+        @SuppressWarnings("unchecked")
+        public synchronized T get(int index) {
+            Object[] page = pages[index >>> PAGE_SHIFT];
+            if (page == null) {
+                page = new Object[1 << PAGE_SHIFT];
+                pages[index >>> PAGE_SHIFT] = page;
+            }
+            T task = (T) page[index & PAGE_MASK];
+            if (task == null) {
+                task = source.load(index);
+                page[index & PAGE_MASK] = task;
+                handles.put(task, index);
+            }
+            return task;
+        }
+
+        // Position of a task loaded from the source, or -1
+        synchronized int indexOf(T task) {
+            Integer index = handles.get(task);
+            return index != null ? index : -1;
+        }
+
+        void close() {
+            source.close();
+        }
+    }
+
+    // Where a task currently sits in the slot array
+    private static final class Slot {
+        int index;
+
+        Slot(int index) {
+            this.index = index;
+        }
+    }
+
+    // Creates an empty store
+    public TaskStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // Creates an empty store with room for the given number of tasks
+    public TaskStore(int initialCapacity) {
+        slots = new Object[Math.max(initialCapacity, 1)];
+        holeTree = new int[slots.length + 1];
+    }
+
+    // Adds a task to the end of the store
+    // Returns false if this exact task is already stored
+    public boolean add(T task) {
+        if (contains(task)) {
+            return false;
+        }
+        if (end == slots.length) {
+            grow(end + 1);
+        }
+        slots[end] = task;
+        handles.put(task, new Slot(end));
+        if (firstHole == end) {
+            firstHole++;
+        }
+        end++;
+        size++;
+        return true;
+    }
+
+    // Puts tasks in at the given positions, e.g. to undo removing them
+    // Positions are ascending and counted in the list with the tasks in, so each task ends up
+    // exactly at its position; none of the tasks may be stored already
+    // Tasks going on the end are just appended; otherwise everything behind the first position
+    // is moved up once for the whole batch
+    @SuppressWarnings("unchecked")
+    public void insertAll(int[] positions, List<? extends T> toInsert) {
+        if (positions.length == 0) {
+            return;
+        }
+        // Tasks going into holes or on the end cost O(log n) each; the first one that doesn't fit
+        // anywhere is put in, along with the rest, by moving the tasks behind it
+        int first = 0;
+        while (first < positions.length && fillHole(positions[first], toInsert.get(first))) {
+            first++;
+        }
+        if (first == positions.length) {
+            return;
+        }
+        positions = Arrays.copyOfRange(positions, first, positions.length);
+        toInsert = toInsert.subList(first, toInsert.size());
+        if (positions[0] < lazySize) {
+            materialize();
+        }
+        compact();
+        grow(end + positions.length);
+        // Fill from the back, so each task only moves once
+        int read = end - 1;
+        int next = positions.length - 1;
+        for (int write = end + positions.length - 1; next >= 0; write--) {
+            T task;
+            if (write == positions[next] - lazySize) {
+                task = toInsert.get(next--);
+                handles.put(task, new Slot(write));
+            } else {
+                task = (T) slots[read--];
+                handles.get(task).index = write;
+            }
+            slots[write] = task;
+        }
+        changedFrom(positions[0]);
+        end += positions.length;
+        size += positions.length;
+        firstHole = end;
+    }
+
+    // Puts a task at a position if that's the end or there's a hole for it: the task's own old
+    // slot if it's still empty and at that position, otherwise one right in front of the task now
+    // there; returns false if it would have to move other tasks
+    private boolean fillHole(int position, T task) {
+        if (position >= size()) {
+            add(task);
+            return true;
+        }
+        if (position < lazySize || end == size) {
+            return false;
+        }
+        Integer old = vacated.remove(task);
+        int slot;
+        if (old != null && old < end && slots[old] == null && old - holesBefore(old) == position - lazySize) {
+            slot = old;
+        } else {
+            slot = slotAt(position - lazySize) - 1;
+            if (slot < 0 || slots[slot] != null) {
+                return false;
+            }
+        }
+        slots[slot] = task;
+        handles.put(task, new Slot(slot));
+        markHole(slot, -1);
+        size++;
+        if (end == size) {
+            firstHole = end;
+            vacated.clear();
+        } else if (slot == firstHole) {
+            firstHole = firstHoleSlot();
+        }
+        changedFrom(position);
+        return true;
+    }
+
+    // Removes a task by identity without shifting the rest of the array
+    // The hole is closed up the next time the slots are compacted (for a snapshot, or to grow)
+    public boolean remove(T task) {
+        if (lazy != null && lazy.indexOf(task) >= 0) {
+            materialize();
+        }
+        Slot slot = handles.remove(task);
+        if (slot == null) {
+            return false;
+        }
+        changedFrom(lazySize + slot.index - holesBefore(slot.index));
+        slots[slot.index] = null;
+        markHole(slot.index, 1);
+        vacated.put(task, slot.index);
+        size--;
+        if (slot.index < firstHole) {
+            firstHole = slot.index;
+        }
+        return true;
+    }
+
+    // Removes every task matching the filter in a single pass
+    // Returns the removed tasks in their original order
+    public List<T> removeIf(Predicate<? super T> filter) {
+        return removeIf(filter, position -> { });
+    }
+
+    // Same as removeIf, also reporting the position each removed task had before the removal
+    // Positions are reported in ascending order
+    public List<T> removeIf(Predicate<? super T> filter, IntConsumer removedPositions) {
+        return removeIf(filter, removedPositions, () -> false);
+    }
+
+    // Same, but gives up with a CancellationException soon after cancelled starts returning true
+    // Every task is tested before any is removed, so giving up leaves the store as it was
+    @SuppressWarnings("unchecked")
+    public List<T> removeIf(Predicate<? super T> filter, IntConsumer removedPositions, BooleanSupplier cancelled) {
+        materialize();
+        BitSet matching = new BitSet(end);
+        for (int read = 0; read < end; read++) {
+            Cancellation.check(read, cancelled);
+            T task = (T) slots[read];
+            if (task != null && filter.test(task)) {
+                matching.set(read);
+            }
+        }
+        List<T> removed = new ArrayList<>(matching.cardinality());
+        int write = 0;
+        int position = 0;
+        for (int read = 0; read < end; read++) {
+            T task = (T) slots[read];
+            if (task == null) {
+                continue;
+            }
+            if (matching.get(read)) {
+                handles.remove(task);
+                removed.add(task);
+                changedFrom(position);
+                removedPositions.accept(position++);
+                continue;
+            }
+            position++;
+            if (write != read) {
+                slots[write] = task;
+                handles.get(task).index = write;
+            }
+            write++;
+        }
+        Arrays.fill(slots, write, end, null);
+        end = write;
+        size = write;
+        firstHole = write;
+        clearHoles();
+        return removed;
+    }
+
+    // Gets the task at a position
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size());
+        }
+        if (index < lazySize) {
+            return lazy.get(index);
+        }
+        int slot = index - lazySize;
+        return (T) slots[slot < firstHole ? slot : slotAt(slot)];
+    }
+
+    // Finds the position of a task, or -1 if it isn't stored
+    public int indexOf(T task) {
+        int lazyIndex = lazy != null ? lazy.indexOf(task) : -1;
+        if (lazyIndex >= 0) {
+            return lazyIndex;
+        }
+        Slot slot = handles.get(task);
+        if (slot == null) {
+            return -1;
+        }
+        return lazySize + slot.index - holesBefore(slot.index);
+    }
+
+    // Checks if this exact task is stored
+    public boolean contains(T task) {
+        return handles.containsKey(task) || (lazy != null && lazy.indexOf(task) >= 0);
+    }
+
+    // Returns how many tasks are stored
+    public int size() {
+        return lazySize + size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // Replaces the contents with tasks that are loaded from the source on demand
+    // Opening a huge source is O(1); each task is loaded the first time it is read
+    public void attach(Source<? extends T> newSource) {
+        clear();
+        lazy = new LazyTasks<>(newSource);
+        lazySize = lazy.size();
+    }
+
+    // Checks whether some tasks are still only in the source
+    public boolean isLazy() {
+        return lazy != null;
+    }
+
+    // Loads every task still in the source into the slot array and lets the source go
+    // Anything that reorders or removes source tasks needs this first
+    public void materialize() {
+        if (lazy == null) {
+            return;
+        }
+        compact();
+        int total = lazySize + size;
+        Object[] loaded = new Object[Math.max(total, slots.length)];
+        System.arraycopy(slots, 0, loaded, lazySize, end);
+        for (Slot slot : handles.values()) {
+            slot.index += lazySize;
+        }
+        for (int i = 0; i < lazySize; i++) {
+            T task = lazy.get(i);
+            loaded[i] = task;
+            handles.put(task, new Slot(i));
+        }
+        slots = loaded;
+        end = total;
+        size = total;
+        firstHole = total;
+        holeTree = new int[slots.length + 1];
+        releaseSource();
+    }
+
+    // Replaces the contents with the given tasks, keeping their order
+    public void setAll(Collection<? extends T> tasks) {
+        clear();
+        if (tasks.size() > slots.length) {
+            slots = new Object[tasks.size()];
+            holeTree = new int[slots.length + 1];
+        }
+        for (T task : tasks) {
+            add(task);
+        }
+    }
+
+    // Removes everything from the store
+    public void clear() {
+        unchangedPrefix = 0;
+        for (Tracking open : tracking) {
+            open.prefix = 0;
+        }
+        releaseSource();
+        Arrays.fill(slots, 0, end, null);
+        handles.clear();
+        end = 0;
+        size = 0;
+        firstHole = 0;
+        clearHoles();
+    }
+
+    // Returns how many tasks at the front are unchanged since the last markUnchanged()
+    // Adding only touches the end and removing shifts everything after the removed task,
+    // so changes always leave an untouched prefix
+    public int unchangedPrefix() {
+        return unchangedPrefix;
+    }
+
+    // Marks the current contents as the baseline for unchangedPrefix(), e.g. right after a save
+    public void markUnchanged() {
+        unchangedPrefix = size();
+    }
+
+    // Starts counting unchanged positions from the current contents without touching
+    // unchangedPrefix() yet, e.g. when a snapshot is taken to be saved in the background
+    // Each call counts separately, so saves that overlap don't share a baseline
+    public Tracking startTracking() {
+        Tracking started = new Tracking(size());
+        tracking.add(started);
+        return started;
+    }
+
+    // Makes the contents at that startTracking() the baseline for unchangedPrefix(),
+    // e.g. once the snapshot taken then has been saved, and stops counting for it
+    public void markUnchangedSinceTracking(Tracking started) {
+        if (!tracking.contains(started)) {
+            throw new IllegalStateException("Tracking has already been stopped");
+        }
+        unchangedPrefix = started.prefix;
+        stopTracking(started);
+    }
+
+    // Stops counting for that startTracking() without changing the baseline, e.g. if the save failed
+    public void stopTracking(Tracking started) {
+        tracking.remove(started);
+    }
+
+    private void changedFrom(int position) {
+        unchangedPrefix = Math.min(unchangedPrefix, position);
+        for (Tracking open : tracking) {
+            open.prefix = Math.min(open.prefix, position);
+        }
+    }
+
+    // Read-only list backed directly by the store (no copying)
+    // Reflects later changes to the store
+    public List<T> view() {
+        return view;
+    }
+
+    // Returns an immutable copy of the contents that other threads can read
+    // Tasks still in the source aren't loaded; the snapshot shares them with the store
+    public TaskSnapshot<T> snapshot() {
+        compact();
+        return TaskSnapshot.of(lazy, lazySize, slots, end);
+    }
+
+    // Lets go of the source; snapshots still holding its tasks keep them
+    private void releaseSource() {
+        if (lazy == null) {
+            return;
+        }
+        lazy.close();
+        lazy = null;
+        lazySize = 0;
+    }
+
+    // Closes up the holes left by removals so positions match slots again
+    private void compact() {
+        if (firstHole >= end) {
+            return;
+        }
+        int write = firstHole;
+        for (int read = firstHole + 1; read < end; read++) {
+            Object task = slots[read];
+            if (task != null) {
+                slots[write] = task;
+                handles.get(task).index = write;
+                write++;
+            }
+        }
+        Arrays.fill(slots, write, end, null);
+        end = write;
+        firstHole = write;
+        clearHoles();
+    }
+
+    // Makes the slot array bigger, reclaiming holes first if they are a good share of it
+    // Reclaiming only a few holes would mean another O(n) compaction a few adds later
+    private void grow(int minCapacity) {
+        if (end - size >= end >> 2) {
+            compact();
+        }
+        if (minCapacity <= slots.length) {
+            return;
+        }
+        int newCapacity = Math.max(slots.length + (slots.length >> 1), minCapacity);
+        slots = Arrays.copyOf(slots, newCapacity);
+        // The tree's ranges depend on its length, so it's counted again
+        holeTree = new int[newCapacity + 1];
+        for (int i = 0; i < end; i++) {
+            if (slots[i] == null) {
+                holeTree[i + 1] = 1;
+            }
+        }
+        for (int i = 1; i < holeTree.length; i++) {
+            int parent = i + (i & -i);
+            if (parent < holeTree.length) {
+                holeTree[parent] += holeTree[i];
+            }
+        }
+    }
+
+    private void markHole(int slot, int delta) {
+        for (int i = slot + 1; i < holeTree.length; i += i & -i) {
+            holeTree[i] += delta;
+        }
+    }
+
+    // How many holes there are in the slots before this one
+    private int holesBefore(int slot) {
+        int holes = 0;
+        for (int i = slot; i > 0; i -= i & -i) {
+            holes += holeTree[i];
+        }
+        return holes;
+    }
+
+    // The slot holding the task at a position in the slot array, walking down the hole counts
+    private int slotAt(int position) {
+        int slot = 0;
+        int remaining = position + 1;
+        for (int step = Integer.highestOneBit(holeTree.length - 1); step > 0; step >>= 1) {
+            int next = slot + step;
+            if (next < holeTree.length && step - holeTree[next] < remaining) {
+                slot = next;
+                remaining -= step - holeTree[next];
+            }
+        }
+        return slot;
+    }
+
+    // The lowest hole; only valid while there is one
+    private int firstHoleSlot() {
+        int slot = 0;
+        for (int step = Integer.highestOneBit(holeTree.length - 1); step > 0; step >>= 1) {
+            int next = slot + step;
+            if (next < holeTree.length && holeTree[next] == 0) {
+                slot = next;
+            }
+        }
+        return slot;
+    }
+
+    private void clearHoles() {
+        Arrays.fill(holeTree, 0);
+        vacated.clear();
+    }
+
+    // Unmodifiable list over the store
+    private final class View extends AbstractList<T> implements RandomAccess {
+        @Override
+        public T get(int index) {
+            return TaskStore.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return TaskStore.this.size();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public int indexOf(Object o) {
+            return TaskStore.this.indexOf((T) o);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean contains(Object o) {
+            return TaskStore.this.contains((T) o);
+        }
+    }
+}
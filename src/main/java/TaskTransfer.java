@@ -0,0 +1,608 @@
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+
+// Moves tasks in and out of the app as CSV or JSON Lines text
+// Both directions stream one record at a time through a fixed-size buffer, so even
+// files with millions of lines are handled without loading the whole file
+//
+// CSV:        header line "title,description,priority,dueDate", then one task per line;
+//             fields with commas, quotes or line breaks are quoted ("" for a quote),
+//             an empty field is null and a quoted empty field ("") is an empty string
+// JSON Lines: one object per line, e.g.
+//             {"title":"Report","description":null,"priority":2,"dueDate":"2024-05-01"}
+// Dates are always ISO yyyy-MM-dd
+public final class TaskTransfer {
+    public static final int DEFAULT_BATCH_SIZE = 10_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String CSV_HEADER = "title,description,priority,dueDate";
+
+    // Text formats tasks can be exported to and imported from
+    public enum Format {
+        CSV, JSON_LINES;
+
+        // Picks the format from a file's extension (.csv, otherwise JSON Lines for .jsonl / .json)
+        public static Format forPath(Path path) {
+            String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".csv")) {
+                return CSV;
+            }
+            if (name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json")) {
+                return JSON_LINES;
+            }
+            throw new IllegalArgumentException("Unknown task file type: " + path.getFileName());
+        }
+    }
+
+    private TaskTransfer() {
+    }
+
+    // Writes the tasks to a text file in the given format, replacing whatever was there
+    public static void exportTasks(Iterable<? extends Task> tasks, Path path, Format format) throws IOException {
+        try (Writer out = new BufferedWriter(
+                new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            if (format == Format.CSV) {
+                out.write(CSV_HEADER);
+                out.write('\n');
+            }
+            for (Task task : tasks) {
+                if (format == Format.CSV) {
+                    writeCsv(out, task);
+                } else {
+                    writeJson(out, task);
+                }
+            }
+        }
+    }
+
+    // Reads tasks from a text file, handing them over in batches of up to batchSize
+    // The batch list is reused, so the consumer has to copy what it keeps (addAll does)
+    // progress is told what fraction of the file has been read after each batch
+    // Returns how many tasks were read
+    public static long importTasks(Path path, Format format, int batchSize,
+                                   Consumer<List<Task>> batches, DoubleConsumer progress) throws IOException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        long fileSize = Math.max(Files.size(path), 1);
+        try (CountingInputStream counted = new CountingInputStream(Files.newInputStream(path))) {
+            Parser parser = new Parser(new InputStreamReader(counted, StandardCharsets.UTF_8));
+            List<Task> batch = new ArrayList<>(batchSize);
+            long total = 0;
+            if (format == Format.CSV) {
+                parser.skipCsvHeader();
+            }
+            while (true) {
+                Task task = format == Format.CSV ? parser.nextCsv() : parser.nextJson();
+                if (task != null) {
+                    batch.add(task);
+                }
+                if (batch.size() == batchSize || (task == null && !batch.isEmpty())) {
+                    batches.accept(batch);
+                    total += batch.size();
+                    batch.clear();
+                    progress.accept(Math.min(1.0, (double) counted.count / fileSize));
+                }
+                if (task == null) {
+                    progress.accept(1.0);
+                    return total;
+                }
+            }
+        }
+    }
+
+    private static void writeCsv(Writer out, Task task) throws IOException {
+        writeCsvField(out, task.getTitle());
+        out.write(',');
+        writeCsvField(out, task.getDescription());
+        out.write(',');
+        out.write(Integer.toString(task.getPriority()));
+        out.write(',');
+        if (task.getDueDate() != null) {
+            writeDate(out, task.getDueDate());
+        }
+        out.write('\n');
+    }
+
+    private static void writeCsvField(Writer out, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    private static void writeJson(Writer out, Task task) throws IOException {
+        out.write("{\"title\":");
+        writeJsonString(out, task.getTitle());
+        out.write(",\"description\":");
+        writeJsonString(out, task.getDescription());
+        out.write(",\"priority\":");
+        out.write(Integer.toString(task.getPriority()));
+        out.write(",\"dueDate\":");
+        if (task.getDueDate() == null) {
+            out.write("null");
+        } else {
+            out.write('"');
+            writeDate(out, task.getDueDate());
+            out.write('"');
+        }
+        out.write("}\n");
+    }
+
+    private static void writeJsonString(Writer out, String value) throws IOException {
+        if (value == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.write("\\\"");
+                case '\\' -> out.write("\\\\");
+                case '\n' -> out.write("\\n");
+                case '\r' -> out.write("\\r");
+                case '\t' -> out.write("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+                }
+            }
+        }
+        out.write('"');
+    }
+
+    // Writes yyyy-MM-dd without going through a formatter
+    private static void writeDate(Writer out, LocalDate date) throws IOException {
+        int year = date.getYear();
+        if (year < 0 || year > 9999) {
+            out.write(date.toString());
+            return;
+        }
+        writeDigits(out, year, 4);
+        out.write('-');
+        writeDigits(out, date.getMonthValue(), 2);
+        out.write('-');
+        writeDigits(out, date.getDayOfMonth(), 2);
+    }
+
+    private static void writeDigits(Writer out, int value, int width) throws IOException {
+        for (int divisor = width == 4 ? 1000 : 10; divisor > 0; divisor /= 10) {
+            out.write('0' + value / divisor % 10);
+        }
+    }
+
+    // Pulls characters through a fixed buffer and turns them into tasks
+    // Field text is collected in one reused StringBuilder; only the final strings are allocated
+    private static final class Parser {
+        private final Reader in;
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private int position;
+        private int limit;
+        private final StringBuilder field = new StringBuilder();
+        private long line = 1;
+
+        // Parsed fields of the record being read
+        private String title;
+        private String description;
+        private int priority;
+        private LocalDate dueDate;
+
+        Parser(Reader in) {
+            this.in = in;
+        }
+
+        // Skips the header line if the file starts with one
+        void skipCsvHeader() throws IOException {
+            if (peek() == 't' && fill() && limit - position >= CSV_HEADER.length()
+                    && new String(buffer, position, CSV_HEADER.length()).equals(CSV_HEADER)) {
+                int c;
+                while ((c = read()) != -1 && c != '\n') {
+                    // Rest of the header line
+                }
+                line++;
+            }
+        }
+
+        // Reads the next CSV record, or returns null at the end of the file
+        Task nextCsv() throws IOException {
+            int c;
+            while ((c = peek()) == '\n' || c == '\r') {  // Blank lines
+                read();
+                if (c == '\n') {
+                    line++;
+                }
+            }
+            if (c == -1) {
+                return null;
+            }
+            long startLine = line;
+            title = null;
+            description = null;
+            priority = 0;
+            dueDate = null;
+            for (int index = 0; ; index++) {
+                boolean quoted = readCsvField();
+                switch (index) {
+                    case 0 -> title = fieldString(quoted);
+                    case 1 -> description = fieldString(quoted);
+                    case 2 -> priority = parseInt(field, startLine);
+                    case 3 -> dueDate = field.length() == 0 ? null : parseDate(field, startLine);
+                    default -> throw error(startLine, "too many fields");
+                }
+                c = read();
+                if (c == ',') {
+                    continue;
+                }
+                if (c == '\r' && peek() == '\n') {
+                    c = read();
+                }
+                if (c == '\n' || c == -1) {
+                    if (c == '\n') {
+                        line++;
+                    }
+                    if (index != 3) {
+                        throw error(startLine, "expected 4 fields, found " + (index + 1));
+                    }
+                    return newTask(startLine);
+                }
+                throw error(startLine, "unexpected character after field " + (index + 1));
+            }
+        }
+
+        // Reads one CSV field into the builder, stopping before the separator
+        // Returns whether it was quoted
+        private boolean readCsvField() throws IOException {
+            field.setLength(0);
+            if (peek() != '"') {
+                int c;
+                while ((c = peek()) != -1 && c != ',' && c != '\n' && c != '\r') {
+                    field.append((char) read());
+                }
+                return false;
+            }
+            read();
+            while (true) {
+                int c = read();
+                if (c == -1) {
+                    throw error(line, "unterminated quoted field");
+                }
+                if (c == '"') {
+                    if (peek() != '"') {
+                        return true;
+                    }
+                    read();
+                } else if (c == '\n') {
+                    line++;
+                }
+                field.append((char) c);
+            }
+        }
+
+        private String fieldString(boolean quoted) {
+            return field.length() == 0 && !quoted ? null : field.toString();
+        }
+
+        // Reads the next JSON Lines record, or returns null at the end of the file
+        Task nextJson() throws IOException {
+            int c = skipWhitespace(true);
+            if (c == -1) {
+                return null;
+            }
+            long startLine = line;
+            expect('{', startLine);
+            title = null;
+            description = null;
+            priority = 0;
+            dueDate = null;
+            if (skipWhitespace(false) == '}') {
+                read();
+            } else {
+                while (true) {
+                    skipWhitespace(false);
+                    expect('"', startLine);
+                    readJsonString(startLine);
+                    readMember(startLine);
+                    int next = skipWhitespace(false);
+                    read();
+                    if (next == '}') {
+                        break;
+                    }
+                    if (next != ',') {
+                        throw error(startLine, "expected ',' or '}'");
+                    }
+                }
+            }
+            c = skipWhitespace(false);
+            if (c != -1 && c != '\n') {
+                throw error(startLine, "unexpected text after the object");
+            }
+            return newTask(startLine);
+        }
+
+        // Every task needs a title, since tasks are looked up by it
+        private Task newTask(long startLine) throws IOException {
+            if (title == null) {
+                throw error(startLine, "title is missing");
+            }
+            return new Task(title, description, priority, dueDate);
+        }
+
+        // Reads ':' and the value of the member whose key is in the builder, storing known ones
+        private void readMember(long startLine) throws IOException {
+            int key = keyOf(field);
+            skipWhitespace(false);
+            expect(':', startLine);
+            int c = skipWhitespace(false);
+            if (c == '"') {
+                read();
+                readJsonString(startLine);
+                switch (key) {
+                    case 0 -> title = field.toString();
+                    case 1 -> description = field.toString();
+                    case 3 -> dueDate = parseDate(field, startLine);
+                    default -> {
+                        // Unknown or mistyped member, ignored
+                    }
+                }
+                return;
+            }
+            field.setLength(0);
+            while ((c = peek()) != -1 && c != ',' && c != '}' && c != '\n' && c != ' ' && c != '\t' && c != '\r') {
+                field.append((char) read());
+            }
+            if (contentEquals(field, "null")) {
+                return;  // Fields start out null (priority 0)
+            }
+            if (field.length() > 0 && field.charAt(0) != '{' && field.charAt(0) != '[') {
+                if (key == 2) {
+                    priority = parseInt(field, startLine);
+                }
+                return;
+            }
+            throw error(startLine, "nested values aren't supported");
+        }
+
+        // Reads a JSON string body (after the opening quote) into the builder
+        private void readJsonString(long startLine) throws IOException {
+            field.setLength(0);
+            while (true) {
+                int c = read();
+                if (c == -1 || c == '\n') {
+                    throw error(startLine, "unterminated string");
+                }
+                if (c == '"') {
+                    return;
+                }
+                if (c != '\\') {
+                    field.append((char) c);
+                    continue;
+                }
+                int escaped = read();
+                switch (escaped) {
+                    case '"', '\\', '/' -> field.append((char) escaped);
+                    case 'b' -> field.append('\b');
+                    case 'f' -> field.append('\f');
+                    case 'n' -> field.append('\n');
+                    case 'r' -> field.append('\r');
+                    case 't' -> field.append('\t');
+                    case 'u' -> {
+                        int value = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0) {
+                                throw error(startLine, "bad \\u escape");
+                            }
+                            value = value * 16 + digit;
+                        }
+                        field.append((char) value);
+                    }
+                    default -> throw error(startLine, "bad escape");
+                }
+            }
+        }
+
+        // Skips spaces and tabs (and line breaks too if allowed), returning the next character
+        private int skipWhitespace(boolean newlines) throws IOException {
+            while (true) {
+                int c = peek();
+                if (c == ' ' || c == '\t' || c == '\r' || (newlines && c == '\n')) {
+                    read();
+                    if (c == '\n') {
+                        line++;
+                    }
+                } else {
+                    return c;
+                }
+            }
+        }
+
+        private void expect(char expected, long startLine) throws IOException {
+            if (read() != expected) {
+                throw error(startLine, "expected '" + expected + "'");
+            }
+        }
+
+        private int read() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position++];
+        }
+
+        private int peek() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position];
+        }
+
+        // Tops up the buffer, keeping unread characters; returns false at the end of the input
+        private boolean fill() throws IOException {
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            }
+            while (limit < buffer.length) {
+                int read = in.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    break;
+                }
+                limit += read;
+                if (read > 0 && limit > position) {
+                    break;
+                }
+            }
+            return limit > position;
+        }
+
+        private IOException error(long atLine, String message) {
+            return new IOException("Line " + atLine + ": " + message);
+        }
+
+        private int parseInt(CharSequence text, long atLine) throws IOException {
+            int length = text.length();
+            int i = 0;
+            boolean negative = length > 0 && text.charAt(0) == '-';
+            if (negative || (length > 0 && text.charAt(0) == '+')) {
+                i++;
+            }
+            if (i == length) {
+                throw error(atLine, "priority must be a number");
+            }
+            long value = 0;
+            for (; i < length; i++) {
+                int digit = text.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw error(atLine, "priority must be a number: " + text);
+                }
+                value = value * 10 + digit;
+                if (value > (long) Integer.MAX_VALUE + 1) {
+                    throw error(atLine, "priority is out of range: " + text);
+                }
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) {
+                throw error(atLine, "priority is out of range: " + text);
+            }
+            return (int) value;
+        }
+
+        // Parses yyyy-MM-dd straight from the characters (the year may have more digits or a sign)
+        private LocalDate parseDate(CharSequence text, long atLine) throws IOException {
+            int length = text.length();
+            int dash = length - 6;
+            if (length < 10 || text.charAt(dash) != '-' || text.charAt(length - 3) != '-') {
+                throw error(atLine, "due date must be yyyy-MM-dd: " + text);
+            }
+            int year = parseInt(text.subSequence(0, dash), atLine);
+            int month = digits(text, dash + 1, atLine);
+            int day = digits(text, length - 2, atLine);
+            try {
+                return LocalDate.of(year, month, day);
+            } catch (DateTimeException e) {
+                throw new IOException("Line " + atLine + ": bad due date " + text, e);
+            }
+        }
+
+        private int digits(CharSequence text, int start, long atLine) throws IOException {
+            int tens = text.charAt(start) - '0';
+            int ones = text.charAt(start + 1) - '0';
+            if (tens < 0 || tens > 9 || ones < 0 || ones > 9) {
+                throw error(atLine, "due date must be yyyy-MM-dd: " + text);
+            }
+            return tens * 10 + ones;
+        }
+
+        private static int keyOf(CharSequence key) {
+            if (contentEquals(key, "title")) {
+                return 0;
+            }
+            if (contentEquals(key, "description")) {
+                return 1;
+            }
+            if (contentEquals(key, "priority")) {
+                return 2;
+            }
+            if (contentEquals(key, "dueDate")) {
+                return 3;
+            }
+            return -1;
+        }
+
+        private static boolean contentEquals(CharSequence text, String expected) {
+            if (text.length() != expected.length()) {
+                return false;
+            }
+            for (int i = 0; i < expected.length(); i++) {
+                if (text.charAt(i) != expected.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Counts the bytes read so progress can be reported against the file size
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = super.read(bytes, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
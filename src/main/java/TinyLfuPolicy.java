@@ -0,0 +1,88 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Window TinyLFU: new keys start in a small LRU window, and when they fall out of it
+// they only get into the main area if they have been used more often than the key
+// they would push out. The main area is a segmented LRU (probation + protected)
+class TinyLfuPolicy<K> implements EvictionPolicy<K> {
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final int protectedCapacity;
+
+    // All three are access-ordered, so the first key is the least recently used
+    private final LinkedHashMap<K, Boolean> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Boolean> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Boolean> protectedKeys = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch<K> sketch;
+
+    TinyLfuPolicy(int capacity) {
+        this.windowCapacity = Math.max(1, capacity / 100);
+        this.mainCapacity = capacity - windowCapacity;
+        this.protectedCapacity = (int) (mainCapacity * 0.8);
+        this.sketch = new FrequencySketch<>(capacity);
+    }
+
+    @Override
+    public void recordAccess(K key) {
+        sketch.increment(key);
+        if (window.get(key) != null || protectedKeys.get(key) != null) {
+            return;
+        }
+        if (probation.remove(key) != null) {
+            // Used again while on probation, so it earns a protected spot
+            protectedKeys.put(key, Boolean.TRUE);
+            if (protectedKeys.size() > protectedCapacity) {
+                probation.put(removeEldest(protectedKeys), Boolean.TRUE);
+            }
+        }
+    }
+
+    @Override
+    public K recordInsert(K key) {
+        sketch.increment(key);
+        window.put(key, Boolean.TRUE);
+        if (window.size() <= windowCapacity) {
+            return null;
+        }
+
+        K candidate = removeEldest(window);
+        if (probation.size() + protectedKeys.size() < mainCapacity) {
+            probation.put(candidate, Boolean.TRUE);
+            return null;
+        }
+
+        LinkedHashMap<K, Boolean> victimSegment = probation.isEmpty() ? protectedKeys : probation;
+        if (victimSegment.isEmpty()) {
+            return candidate;
+        }
+        K victim = victimSegment.keySet().iterator().next();
+        if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+            victimSegment.remove(victim);
+            probation.put(candidate, Boolean.TRUE);
+            return victim;
+        }
+        return candidate;
+    }
+
+    @Override
+    public void recordRemoval(K key) {
+        if (window.remove(key) == null && probation.remove(key) == null) {
+            protectedKeys.remove(key);
+        }
+    }
+
+    @Override
+    public void clear() {
+        window.clear();
+        probation.clear();
+        protectedKeys.clear();
+        sketch.clear();
+    }
+
+    private static <K> K removeEldest(LinkedHashMap<K, Boolean> segment) {
+        Iterator<K> eldest = segment.keySet().iterator();
+        K key = eldest.next();
+        eldest.remove();
+        return key;
+    }
+}
@@ -0,0 +1,145 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.Test;
+
+// Jobs here run until the test finishes them, so what's running and waiting is known at every step
+class JobSchedulerTest {
+    private final List<String> started = new ArrayList<>();
+
+    @Test
+    void startsWaitingJobsByPriority() {
+        JobScheduler scheduler = new JobScheduler(3, 10, JobScheduler.Overflow.REJECT);
+        List<CompletableFuture<String>> blockers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            blockers.add(new CompletableFuture<>());
+            scheduler.submit(JobScheduler.Priority.INTERACTIVE, null, held("blocker" + i, blockers.get(i)));
+        }
+        CompletableFuture<String> maintenance = new CompletableFuture<>();
+        CompletableFuture<String> save = new CompletableFuture<>();
+        CompletableFuture<String> sort = new CompletableFuture<>();
+        scheduler.submit(JobScheduler.Priority.MAINTENANCE, null, held("maintenance", maintenance));
+        scheduler.submit(JobScheduler.Priority.BACKGROUND_IO, null, held("save", save));
+        scheduler.submit(JobScheduler.Priority.INTERACTIVE, null, held("sort", sort));
+        assertEquals(new JobScheduler.Stats(3, 3, 0, 0), scheduler.stats());
+
+        blockers.forEach(blocker -> blocker.complete("done"));
+        // Maintenance leaves a slot for each priority above it, so it waits for the save and sort
+        assertEquals(List.of("blocker0", "blocker1", "blocker2", "sort", "save"), started);
+        sort.complete("done");
+        save.complete("done");
+        assertEquals("maintenance", started.getLast());
+        maintenance.complete("done");
+        assertEquals(new JobScheduler.Stats(0, 0, 0, 0), scheduler.stats());
+    }
+
+    @Test
+    void newerJobWithTheSameKeyReplacesTheWaitingOne() {
+        JobScheduler scheduler = new JobScheduler(4, 10, JobScheduler.Overflow.REJECT);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        scheduler.submit(JobScheduler.Priority.BACKGROUND_IO, "save:a", held("first", first));
+        // Only one job per key runs at a time, so these wait even though there's room
+        CompletableFuture<String> replaced = scheduler.submit(JobScheduler.Priority.BACKGROUND_IO, "save:a",
+                held("replaced", new CompletableFuture<>()));
+        CompletableFuture<String> latest = new CompletableFuture<>();
+        CompletableFuture<String> newest = scheduler.submit(JobScheduler.Priority.BACKGROUND_IO, "save:a",
+                held("latest", latest));
+        assertEquals(new JobScheduler.Stats(1, 1, 1, 0), scheduler.stats());
+
+        first.complete("first");
+        latest.complete("latest");
+
+        assertEquals(List.of("first", "latest"), started);
+        assertEquals("latest", replaced.join());
+        assertEquals("latest", newest.join());
+    }
+
+    @Test
+    void rejectsJobsOnceTheQueueIsFull() {
+        JobScheduler scheduler = new JobScheduler(1, 1, JobScheduler.Overflow.REJECT);
+        scheduler.submit(JobScheduler.Priority.INTERACTIVE, null, held("running", new CompletableFuture<>()));
+        CompletableFuture<String> waiting = scheduler.submit(JobScheduler.Priority.INTERACTIVE, null,
+                held("waiting", new CompletableFuture<>()));
+
+        CompletableFuture<String> turnedAway = scheduler.submit(JobScheduler.Priority.INTERACTIVE, null,
+                held("turned away", new CompletableFuture<>()));
+
+        assertRejected(turnedAway);
+        assertFalse(waiting.isDone());
+        assertEquals(new JobScheduler.Stats(1, 1, 0, 1), scheduler.stats());
+    }
+
+    @Test
+    void dropLowerDropsMaintenanceButNeverSaves() {
+        JobScheduler scheduler = new JobScheduler(1, 1, JobScheduler.Overflow.DROP_LOWER);
+        scheduler.submit(JobScheduler.Priority.INTERACTIVE, null, held("running", new CompletableFuture<>()));
+        CompletableFuture<String> maintenance = scheduler.submit(JobScheduler.Priority.MAINTENANCE, null,
+                held("maintenance", new CompletableFuture<>()));
+
+        CompletableFuture<String> save = scheduler.submit(JobScheduler.Priority.BACKGROUND_IO, null,
+                held("save", new CompletableFuture<>()));
+        CompletableFuture<String> sort = scheduler.submit(JobScheduler.Priority.INTERACTIVE, null,
+                held("sort", new CompletableFuture<>()));
+
+        assertRejected(maintenance);
+        assertFalse(save.isDone());
+        assertRejected(sort);
+        assertEquals(new JobScheduler.Stats(1, 1, 0, 2), scheduler.stats());
+    }
+
+    @Test
+    void cancellingAWaitingJobTakesItOutOfTheQueue() {
+        JobScheduler scheduler = new JobScheduler(1, 10, JobScheduler.Overflow.REJECT);
+        CompletableFuture<String> running = new CompletableFuture<>();
+        scheduler.submit(JobScheduler.Priority.INTERACTIVE, null, held("running", running));
+        CompletableFuture<String> waiting = scheduler.submit(JobScheduler.Priority.INTERACTIVE, null,
+                held("cancelled", new CompletableFuture<>()));
+
+        waiting.cancel(false);
+        assertEquals(new JobScheduler.Stats(1, 0, 0, 0), scheduler.stats());
+        running.complete("done");
+
+        assertEquals(List.of("running"), started);
+    }
+
+    @Test
+    void cancellingARunningJobShowsThroughItsToken() {
+        JobScheduler scheduler = new JobScheduler(1, 10, JobScheduler.Overflow.REJECT);
+        BooleanSupplier[] token = new BooleanSupplier[1];
+        CompletableFuture<String> work = new CompletableFuture<>();
+        CompletableFuture<String> job = scheduler.submit(JobScheduler.Priority.INTERACTIVE, null, cancelled -> {
+            token[0] = cancelled;
+            return work;
+        });
+        assertFalse(token[0].getAsBoolean());
+
+        job.cancel(false);
+
+        assertTrue(token[0].getAsBoolean());
+        // The slot is only let go once the job itself stops
+        assertEquals(1, scheduler.stats().running());
+        work.complete("stopped");
+        assertEquals(0, scheduler.stats().running());
+    }
+
+    private JobScheduler.Work<String> held(String name, CompletableFuture<String> finish) {
+        return _ -> {
+            started.add(name);
+            return finish;
+        };
+    }
+
+    private static void assertRejected(CompletableFuture<?> future) {
+        CompletionException error = assertThrows(CompletionException.class, future::join);
+        assertInstanceOf(RejectedExecutionException.class, error.getCause());
+    }
+}
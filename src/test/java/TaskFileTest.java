@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Saves tasks, saves again after changes (copying the unchanged blocks), and reads the file
+// back both by loading it and by opening it mapped
+class TaskFileTest {
+    // Enough tasks to fill several blocks, so the incremental save has some to copy
+    private static final int COUNT = 5000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void loadsWhatWasSaved() throws IOException {
+        TaskManager<Task> manager = managerWith(TestTasks.tasks(0, COUNT));
+        manager.addTask(new Task("No due date", "", 3, null));
+        String file = dir.resolve("tasks.dat").toString();
+        manager.saveTasksToFile(file);
+
+        assertEquals(TestTasks.describe(manager.getTasks()), TestTasks.describe(loaded(file)));
+        assertEquals(TestTasks.describe(manager.getTasks()), TestTasks.describe(opened(file)));
+    }
+
+    @Test
+    void incrementalSaveKeepsEarlierTasksAndWritesTheChanges() throws IOException {
+        TaskManager<Task> manager = managerWith(TestTasks.tasks(0, COUNT));
+        String file = dir.resolve("tasks.dat").toString();
+        manager.saveTasksToFile(file);
+
+        // The blocks before the first change are copied over as they are
+        manager.removeTask(manager.getTasks().get(COUNT - 2000));
+        manager.addAll(TestTasks.tasks(COUNT, COUNT + 50));
+        manager.saveTasksToFile(file);
+
+        List<String> expected = TestTasks.describe(manager.getTasks());
+        assertEquals(expected, TestTasks.describe(loaded(file)));
+        assertEquals(expected, TestTasks.describe(opened(file)));
+        assertEquals(List.of("tasks.dat"), filesIn(dir));
+    }
+
+    @Test
+    void changeAtTheStartRewritesEverything() throws IOException {
+        TaskManager<Task> manager = managerWith(TestTasks.tasks(0, COUNT));
+        String file = dir.resolve("tasks.dat").toString();
+        manager.saveTasksToFile(file);
+
+        manager.removeTask(manager.getTasks().get(0));
+        manager.saveTasksToFile(file);
+
+        assertEquals(TestTasks.describe(TestTasks.tasks(1, COUNT)), TestTasks.describe(loaded(file)));
+    }
+
+    @Test
+    void fileChangedOnDiskIsNotReused() throws IOException {
+        TaskManager<Task> manager = managerWith(TestTasks.tasks(0, COUNT));
+        Path path = dir.resolve("tasks.dat");
+        manager.saveTasksToFile(path.toString());
+        // Someone else wrote the file since, so its blocks can't be trusted
+        TaskFileWriter.writeAll(path, TestTasks.tasks(COUNT, COUNT + 10));
+        Files.setLastModifiedTime(path, FileTime.fromMillis(0));
+
+        manager.addTask(TestTasks.task(COUNT + 10));
+        manager.saveTasksToFile(path.toString());
+
+        assertEquals(TestTasks.describe(manager.getTasks()), TestTasks.describe(loaded(path.toString())));
+    }
+
+    @Test
+    void savingOverTheOpenedFileKeepsEveryTask() throws IOException {
+        String file = dir.resolve("tasks.dat").toString();
+        managerWith(TestTasks.tasks(0, COUNT)).saveTasksToFile(file);
+        TaskManager<Task> manager = new TaskManager<>();
+        manager.openTasksFromFile(file);
+
+        manager.addTask(TestTasks.task(COUNT));
+        manager.removeTask(manager.getTasks().get(COUNT / 2));
+        manager.saveTasksToFile(file);
+
+        List<String> expected = TestTasks.describe(manager.getTasks());
+        assertEquals(COUNT, expected.size());
+        assertEquals(expected, TestTasks.describe(loaded(file)));
+        assertEquals(expected, TestTasks.describe(opened(file)));
+    }
+
+    private static TaskManager<Task> managerWith(List<Task> tasks) {
+        TaskManager<Task> manager = new TaskManager<>();
+        manager.addAll(tasks);
+        return manager;
+    }
+
+    private static List<Task> loaded(String file) throws IOException {
+        TaskManager<Task> manager = new TaskManager<>();
+        manager.loadTasksFromFile(file);
+        return manager.getTasks();
+    }
+
+    private static List<Task> opened(String file) throws IOException {
+        TaskManager<Task> manager = new TaskManager<>();
+        manager.openTasksFromFile(file);
+        return manager.getTasks();
+    }
+
+    private static List<String> filesIn(Path dir) throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+}
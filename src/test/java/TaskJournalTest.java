@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Appends changes to a journal, reopens it and checks what gets replayed
+class TaskJournalTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysAppendedChangesInOrder() throws IOException {
+        Path snapshot = dir.resolve("tasks.dat");
+        writeThreeChanges(snapshot);
+
+        List<TaskJournal.Entry> replayed = reopen(snapshot, 0);
+
+        assertEquals(3, replayed.size());
+        assertEquals(TestTasks.describe(TestTasks.tasks(0, 2)), appended(replayed.get(0)));
+        assertArrayEquals(new int[] {0}, assertInstanceOf(TaskJournal.Remove.class, replayed.get(1)).positions());
+        assertEquals(TestTasks.describe(TestTasks.tasks(2, 3)), appended(replayed.get(2)));
+    }
+
+    @Test
+    void cutsOffATruncatedTail() throws IOException {
+        Path snapshot = dir.resolve("tasks.dat");
+        writeThreeChanges(snapshot);
+        Path journalPath = TaskJournal.journalPathFor(snapshot);
+        try (FileChannel file = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+            file.truncate(file.size() - 3);  // As if the last write was cut short
+        }
+
+        List<TaskJournal.Entry> replayed = new ArrayList<>();
+        try (TaskJournal journal = TaskJournal.open(snapshot, 0, TaskJournal.Options.defaults(), replayed::add)) {
+            // What comes next has to follow the last whole record, not the torn one
+            journal.append(new TaskJournal.Remove(new int[] {1})).join();
+            assertEquals(Files.size(journalPath), journal.size());
+        }
+        assertEquals(2, replayed.size());
+
+        List<TaskJournal.Entry> afterAppend = reopen(snapshot, 0);
+        assertEquals(3, afterAppend.size());
+        assertArrayEquals(new int[] {1}, assertInstanceOf(TaskJournal.Remove.class, afterAppend.get(2)).positions());
+    }
+
+    @Test
+    void stopsAtARecordWithABadChecksum() throws IOException {
+        Path snapshot = dir.resolve("tasks.dat");
+        writeThreeChanges(snapshot);
+        Path journalPath = TaskJournal.journalPathFor(snapshot);
+        byte[] bytes = Files.readAllBytes(journalPath);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(journalPath, bytes);
+
+        assertEquals(2, reopen(snapshot, 0).size());
+    }
+
+    @Test
+    void compactionWritesASnapshotAndStartsAnEmptyJournal() throws IOException {
+        Path snapshot = dir.resolve("tasks.dat");
+        try (TaskJournal journal = TaskJournal.open(snapshot, 0, TaskJournal.Options.defaults(), _ -> { })) {
+            journal.append(new TaskJournal.Append(TestTasks.tasks(0, 100))).join();
+            long before = journal.size();
+            journal.compact(TestTasks.tasks(0, 100)).join();
+            assertTrue(journal.size() < before);
+            journal.append(new TaskJournal.Append(TestTasks.tasks(100, 101))).join();
+        }
+
+        assertEquals(1, TaskFileReader.readGeneration(snapshot));
+        assertEquals(TestTasks.describe(TestTasks.tasks(0, 100)), TestTasks.describe(TaskFileReader.readAll(snapshot)));
+        List<TaskJournal.Entry> replayed = reopen(snapshot, 1);
+        assertEquals(1, replayed.size());
+        assertEquals(TestTasks.describe(TestTasks.tasks(100, 101)), appended(replayed.get(0)));
+        try (var files = Files.list(dir)) {
+            assertEquals(List.of("tasks.dat", "tasks.dat.journal"),
+                    files.map(file -> file.getFileName().toString()).sorted().toList());
+        }
+    }
+
+    @Test
+    void ignoresAJournalFromAnOlderSnapshot() throws IOException {
+        Path snapshot = dir.resolve("tasks.dat");
+        writeThreeChanges(snapshot);
+
+        assertEquals(List.of(), reopen(snapshot, 1));
+    }
+
+    private static void writeThreeChanges(Path snapshot) throws IOException {
+        try (TaskJournal journal = TaskJournal.open(snapshot, 0, TaskJournal.Options.defaults(), _ -> { })) {
+            journal.append(new TaskJournal.Append(TestTasks.tasks(0, 2)));
+            journal.append(new TaskJournal.Remove(new int[] {0}));
+            journal.append(new TaskJournal.Append(TestTasks.tasks(2, 3))).join();
+        }
+    }
+
+    private static List<TaskJournal.Entry> reopen(Path snapshot, int generation) throws IOException {
+        List<TaskJournal.Entry> replayed = new ArrayList<>();
+        TaskJournal.open(snapshot, generation, TaskJournal.Options.defaults(), replayed::add).close();
+        return replayed;
+    }
+
+    private static List<String> appended(TaskJournal.Entry entry) {
+        return TestTasks.describe(assertInstanceOf(TaskJournal.Append.class, entry).tasks());
+    }
+}
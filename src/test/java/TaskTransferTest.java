@@ -0,0 +1,113 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Exports tasks as CSV and JSON Lines and imports them back, and imports hand-written files
+class TaskTransferTest {
+    // Text that has to be quoted or escaped, empty and null descriptions, and missing due dates
+    private static final List<Task> AWKWARD = List.of(
+            new Task("Plain", "Nothing special", 1, LocalDate.of(2024, 5, 1)),
+            new Task("Comma, and \"quotes\"", "Line one\nline two\r\nline three", 2, null),
+            new Task("Empty description", "", -3, LocalDate.of(2024, 2, 29)),
+            new Task("No description", null, 0, null),
+            new Task("Back\\slash\tand tab", "Control \u0001 and é中", 5, LocalDate.of(1999, 12, 31)));
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void csvRoundTrip() throws IOException {
+        Path file = dir.resolve("tasks.csv");
+        TaskTransfer.exportTasks(AWKWARD, file, TaskTransfer.Format.CSV);
+
+        assertEquals(TestTasks.describe(AWKWARD), TestTasks.describe(imported(file)));
+    }
+
+    @Test
+    void jsonLinesRoundTrip() throws IOException {
+        Path file = dir.resolve("tasks.jsonl");
+        TaskTransfer.exportTasks(AWKWARD, file, TaskTransfer.Format.JSON_LINES);
+
+        assertEquals(TestTasks.describe(AWKWARD), TestTasks.describe(imported(file)));
+    }
+
+    @Test
+    void readsHandWrittenCsv() throws IOException {
+        Path file = dir.resolve("tasks.csv");
+        Files.writeString(file, """
+                title,description,priority,dueDate\r
+                "Say ""hi"", please",,2,\r
+                \r
+                Plain,"",1,2024-05-01\r
+                Multi,"first
+                second",3,
+                """, StandardCharsets.UTF_8);
+
+        List<Task> tasks = imported(file);
+
+        assertEquals(List.of(
+                "Say \"hi\", please|null|2|null",
+                "Plain||1|2024-05-01",
+                "Multi|first\nsecond|3|null"), TestTasks.describe(tasks));
+        assertTrue(tasks.get(0).toString().endsWith("Due: none"));
+    }
+
+    @Test
+    void readsHandWrittenJsonLines() throws IOException {
+        Path file = dir.resolve("tasks.jsonl");
+        Files.writeString(file, """
+                { "priority": 2, "title": "A\\u00e9\\n\\"", "dueDate": null, "extra": "ignored" }
+
+                {"title":"B","description":"","priority":-1,"dueDate":"2024-02-29"}
+                {"title":"C"}
+                """, StandardCharsets.UTF_8);
+
+        assertEquals(List.of(
+                "Aé\n\"|null|2|null",
+                "B||-1|2024-02-29",
+                "C|null|0|null"), TestTasks.describe(imported(file)));
+    }
+
+    @Test
+    void reportsTheLineOfABadRecord() throws IOException {
+        Path csv = dir.resolve("tasks.csv");
+        Files.writeString(csv, "title,description,priority,dueDate\nFine,,1,\nBad,,high,\n");
+        Path json = dir.resolve("tasks.jsonl");
+        Files.writeString(json, "{\"title\":\"Fine\"}\n{\"description\":\"no title\"}\n");
+
+        assertTrue(assertThrows(IOException.class, () -> imported(csv)).getMessage().startsWith("Line 3:"));
+        assertTrue(assertThrows(IOException.class, () -> imported(json)).getMessage().startsWith("Line 2:"));
+    }
+
+    @Test
+    void handsTasksOverInBatches() throws IOException {
+        Path file = dir.resolve("tasks.csv");
+        TaskTransfer.exportTasks(TestTasks.tasks(0, 10), file, TaskTransfer.Format.CSV);
+        List<Integer> sizes = new ArrayList<>();
+        List<Double> progress = new ArrayList<>();
+
+        long count = TaskTransfer.importTasks(file, TaskTransfer.Format.CSV, 3,
+                batch -> sizes.add(batch.size()), progress::add);
+
+        assertEquals(10, count);
+        assertEquals(List.of(3, 3, 3, 1), sizes);
+        assertEquals(1.0, progress.getLast());
+    }
+
+    private static List<Task> imported(Path file) throws IOException {
+        List<Task> tasks = new ArrayList<>();
+        TaskTransfer.importTasks(file, TaskTransfer.Format.forPath(file), TaskTransfer.DEFAULT_BATCH_SIZE,
+                tasks::addAll, _ -> { });
+        return tasks;
+    }
+}
@@ -0,0 +1,34 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+// Builds tasks for the tests, and turns tasks into text so lists can be compared
+// (tasks have no equals of their own)
+final class TestTasks {
+    private TestTasks() {
+    }
+
+    static Task task(int i) {
+        return new Task("Task " + i, "Description " + i, i % 5 + 1, LocalDate.of(2024, 1, 1).plusDays(i % 365));
+    }
+
+    static List<Task> tasks(int from, int to) {
+        List<Task> tasks = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            tasks.add(task(i));
+        }
+        return tasks;
+    }
+
+    static String describe(Task task) {
+        return task.getTitle() + "|" + task.getDescription() + "|" + task.getPriority() + "|" + task.getDueDate();
+    }
+
+    static List<String> describe(List<? extends Task> tasks) {
+        List<String> described = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            described.add(describe(task));
+        }
+        return described;
+    }
+}